@@ -0,0 +1,101 @@
+package org.jlab.epics2web.epics;
+
+import gov.aps.jca.dbr.DBR;
+import gov.aps.jca.dbr.DBRType;
+import gov.aps.jca.dbr.DBR_Double;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.jlab.epics2web.epics.sim.SimPvSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks ChannelMonitor notifying N listeners of a value update. The channel is a static
+ * simulated PV so no IOC is needed and no updates arrive during measurement; only the fan-out loop
+ * is measured. With a non-zero parallel threshold the monitor gets a dispatcher with a parallel
+ * fan-out, which the benchmark calls into directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChannelMonitorFanoutBenchmark {
+
+  @Param({"1", "10", "100", "1000", "10000"})
+  public int listenerCount;
+
+  @Param({"0", "1000"})
+  public int parallelThreshold;
+
+  private SimPvSource source;
+  private ScheduledExecutorService timeoutExecutor;
+  private ParallelFanout fanout;
+  private UpdateDispatcher dispatcher;
+  private ChannelMonitor monitor;
+  private DBR dbr;
+
+  @Setup(Level.Trial)
+  public void setup(Blackhole blackhole) throws Exception {
+    source = new SimPvSource(1);
+    timeoutExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    if (parallelThreshold > 0) {
+      fanout = new ParallelFanout(Runtime.getRuntime().availableProcessors(), parallelThreshold);
+      dispatcher = new UpdateDispatcher(1, 1024, Executors.defaultThreadFactory(), fanout);
+    }
+
+    monitor =
+        new ChannelMonitor(
+            "sim://sine?hz=0", source, timeoutExecutor, timeoutExecutor, dispatcher, null, null);
+
+    for (int i = 0; i < listenerCount; i++) {
+      monitor.addListener(new BlackholeListener(blackhole));
+    }
+
+    dbr = new DBR_Double(new double[] {1.0d});
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    monitor.close();
+    source.close();
+    timeoutExecutor.shutdownNow();
+    if (dispatcher != null) {
+      dispatcher.close();
+      fanout.close();
+    }
+  }
+
+  @Benchmark
+  public void notifyPvUpdateAll() {
+    monitor.notifyPvUpdateAll(dbr, System.nanoTime());
+  }
+
+  private static class BlackholeListener implements PvListener {
+    private final Blackhole blackhole;
+
+    BlackholeListener(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void notifyPvInfo(
+        String pv, boolean couldConnect, DBRType type, Integer count, String[] enumLabels) {
+      blackhole.consume(pv);
+    }
+
+    @Override
+    public void notifyPvUpdate(String pv, DBR dbr, long receivedNanos) {
+      blackhole.consume(dbr);
+    }
+  }
+}
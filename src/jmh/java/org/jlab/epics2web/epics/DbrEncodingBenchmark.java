@@ -0,0 +1,85 @@
+package org.jlab.epics2web.epics;
+
+import gov.aps.jca.dbr.DBR;
+import gov.aps.jca.dbr.DBR_Byte;
+import gov.aps.jca.dbr.DBR_Double;
+import gov.aps.jca.dbr.DBR_Enum;
+import gov.aps.jca.dbr.DBR_Float;
+import gov.aps.jca.dbr.DBR_Int;
+import gov.aps.jca.dbr.DBR_Short;
+import gov.aps.jca.dbr.DBR_String;
+import jakarta.json.Json;
+import jakarta.json.JsonBuilderFactory;
+import jakarta.json.JsonObjectBuilder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks converting each DBR type to a JSON value and to a String. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DbrEncodingBenchmark {
+
+  @Param({"DOUBLE", "FLOAT", "INT", "SHORT", "ENUM", "BYTE", "LONG_STRING", "STRING"})
+  public String type;
+
+  private final JsonBuilderFactory factory = Json.createBuilderFactory(null);
+  private ChannelManager channelManager;
+  private DBR dbr;
+
+  @Setup
+  public void setup() {
+    channelManager = new ChannelManager(List.of(), null, null, null, 0, 0);
+
+    switch (type) {
+      case "DOUBLE":
+        dbr = new DBR_Double(new double[] {123.456789d});
+        break;
+      case "FLOAT":
+        dbr = new DBR_Float(new float[] {123.456f});
+        break;
+      case "INT":
+        dbr = new DBR_Int(new int[] {123456});
+        break;
+      case "SHORT":
+        dbr = new DBR_Short(new short[] {1234});
+        break;
+      case "ENUM":
+        dbr = new DBR_Enum(new short[] {2});
+        break;
+      case "BYTE":
+        dbr = new DBR_Byte(new byte[] {42});
+        break;
+      case "LONG_STRING":
+        byte[] text = new byte[256];
+        byte[] content =
+            "A long string PV value as stored in a CHAR waveform".getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(content, 0, text, 0, content.length);
+        dbr = new DBR_Byte(text);
+        break;
+      default:
+        dbr = new DBR_String(new String[] {"Some string value"});
+    }
+  }
+
+  @Benchmark
+  public String addValueToJSON() {
+    JsonObjectBuilder builder = factory.createObjectBuilder();
+    channelManager.addValueToJSON(builder, dbr);
+    return builder.build().toString();
+  }
+
+  @Benchmark
+  public String getDbrValueAsString() {
+    return ChannelManager.getDbrValueAsString(dbr);
+  }
+}
@@ -0,0 +1,94 @@
+package org.jlab.epics2web.websocket;
+
+import gov.aps.jca.dbr.DBR;
+import gov.aps.jca.dbr.DBRType;
+import gov.aps.jca.dbr.DBR_Double;
+import jakarta.websocket.Session;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jlab.epics2web.Application;
+import org.jlab.epics2web.epics.ChannelManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks building and queueing "info" and "update" messages for a single session. The session
+ * is a stand-in that is always open; its write queue is drained after each invocation so it never
+ * fills.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SessionSerializationBenchmark {
+
+  private static final String PV = "R1M1GHBPM_XPOS_FAST";
+  private static final String[] ENUM_LABELS = new String[] {"OFF", "ON", "FAULT"};
+
+  private final WebSocketSessionManager manager = new WebSocketSessionManager();
+  private WebSocketSessionMonitor monitor;
+  private SessionWriteQueue writequeue;
+  private DBR dbr;
+
+  @Setup
+  public void setup() {
+    Application.channelManager = new ChannelManager(List.of(), null, null, null, 0, 0);
+
+    writequeue =
+        new SessionWriteQueue("benchmark", new WriteQueueBudget(Long.MAX_VALUE), () -> {});
+
+    Session session =
+        (Session)
+            Proxy.newProxyInstance(
+                Session.class.getClassLoader(),
+                new Class<?>[] {Session.class},
+                (proxy, method, args) -> {
+                  switch (method.getName()) {
+                    case "isOpen":
+                      return true;
+                    case "getId":
+                      return "benchmark";
+                    case "toString":
+                      return "BenchmarkSession";
+                    case "hashCode":
+                      return System.identityHashCode(proxy);
+                    case "equals":
+                      return proxy == args[0];
+                    default:
+                      throw new UnsupportedOperationException(method.getName());
+                  }
+                });
+
+    monitor =
+        new WebSocketSessionMonitor(
+            session,
+            manager,
+            "benchmark",
+            "",
+            "",
+            writequeue,
+            false,
+            false,
+            false,
+            ClientQuotas.UNLIMITED);
+
+    dbr = new DBR_Double(new double[] {123.456789d});
+  }
+
+  @Benchmark
+  public void sendInfo() {
+    manager.sendInfo(monitor, PV, true, DBRType.ENUM, 1, ENUM_LABELS);
+    writequeue.clear();
+  }
+
+  @Benchmark
+  public void sendUpdate() {
+    manager.sendUpdate(monitor, PV, dbr, System.nanoTime());
+    writequeue.clear();
+  }
+}
@@ -0,0 +1,111 @@
+package org.jlab.epics2web.websocket;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.jlab.epics2web.Application;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks handing messages from a CA callback thread to a writer thread through the queue types
+ * used by WriteStrategy.BLOCKING_QUEUE (ArrayBlockingQueue) and WriteStrategy.ASYNC_QUEUE
+ * (ConcurrentLinkedQueue), and through the SessionWriteQueue that replaced them. Producers drop
+ * when the queue is at the size limit, as WebSocketSessionManager.send does. The SessionWriteQueue
+ * producers offer updates for a handful of PVs so that once the queue backs up it conflates them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WriteQueueBenchmark {
+
+  private static final OutboundMessage MESSAGE =
+      new OutboundMessage("{\"type\":\"update\",\"pv\":\"R1M1GHBPM_XPOS_FAST\",\"value\":1.0}", 1L);
+
+  private static final OutboundMessage[] UPDATES = new OutboundMessage[8];
+
+  static {
+    for (int i = 0; i < UPDATES.length; i++) {
+      String pv = "R1M1GHBPM_XPOS_FAST" + i;
+      UPDATES[i] =
+          new OutboundMessage("{\"type\":\"update\",\"pv\":\"" + pv + "\",\"value\":1.0}", 1L, pv);
+    }
+  }
+
+  @State(Scope.Group)
+  public static class SessionWriteQueueState {
+    final SessionWriteQueue queue =
+        new SessionWriteQueue("benchmark", new WriteQueueBudget(Long.MAX_VALUE), () -> {});
+  }
+
+  @State(Scope.Thread)
+  public static class ProducerState {
+    int next;
+  }
+
+  @State(Scope.Group)
+  public static class BlockingQueueState {
+    final ArrayBlockingQueue<OutboundMessage> queue =
+        new ArrayBlockingQueue<>(Application.WRITE_QUEUE_SIZE_LIMIT);
+  }
+
+  @State(Scope.Group)
+  public static class AsyncQueueState {
+    final ConcurrentLinkedQueue<OutboundMessage> queue = new ConcurrentLinkedQueue<>();
+  }
+
+  @Benchmark
+  @Group("blockingQueue")
+  @GroupThreads(2)
+  public boolean blockingQueueOffer(BlockingQueueState state) {
+    return state.queue.offer(MESSAGE);
+  }
+
+  @Benchmark
+  @Group("blockingQueue")
+  @GroupThreads(1)
+  public OutboundMessage blockingQueuePoll(BlockingQueueState state) {
+    return state.queue.poll();
+  }
+
+  @Benchmark
+  @Group("asyncQueue")
+  @GroupThreads(2)
+  public boolean asyncQueueOffer(AsyncQueueState state) {
+    return offerWithLimit(state.queue);
+  }
+
+  @Benchmark
+  @Group("asyncQueue")
+  @GroupThreads(1)
+  public OutboundMessage asyncQueuePoll(AsyncQueueState state) {
+    return state.queue.poll();
+  }
+
+  @Benchmark
+  @Group("sessionWriteQueue")
+  @GroupThreads(2)
+  public boolean sessionWriteQueueOffer(SessionWriteQueueState state, ProducerState producer) {
+    return state.queue.offer(UPDATES[producer.next++ & (UPDATES.length - 1)]);
+  }
+
+  @Benchmark
+  @Group("sessionWriteQueue")
+  @GroupThreads(1)
+  public OutboundMessage sessionWriteQueuePoll(SessionWriteQueueState state) {
+    return state.queue.poll();
+  }
+
+  private static boolean offerWithLimit(Queue<OutboundMessage> queue) {
+    if (queue.size() > Application.WRITE_QUEUE_SIZE_LIMIT) {
+      return false;
+    }
+    return queue.offer(MESSAGE);
+  }
+}
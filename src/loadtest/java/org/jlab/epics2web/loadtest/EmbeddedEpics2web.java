@@ -0,0 +1,53 @@
+package org.jlab.epics2web.loadtest;
+
+import java.io.File;
+import java.nio.file.Files;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.webresources.DirResourceSet;
+import org.apache.catalina.webresources.StandardRoot;
+
+/**
+ * Runs epics2web from the build output in an embedded Tomcat. The web app is loaded in its own
+ * class loader, just like a deployed war, so it shares no static state with the harness.
+ */
+public class EmbeddedEpics2web {
+
+  public static final String CONTEXT_PATH = "/epics2web";
+
+  private final Tomcat tomcat = new Tomcat();
+
+  /**
+   * Create and start the server.
+   *
+   * @param port The HTTP port
+   * @param webappDir The web app directory (src/main/webapp)
+   * @param classesDir The compiled main classes directory
+   * @throws Exception If unable to start
+   */
+  public EmbeddedEpics2web(int port, File webappDir, File classesDir) throws Exception {
+    tomcat.setBaseDir(Files.createTempDirectory("epics2web-loadtest").toString());
+    tomcat.setPort(port);
+    tomcat.getConnector();
+
+    Context context = tomcat.addWebapp(CONTEXT_PATH, webappDir.getAbsolutePath());
+    WebResourceRoot resources = new StandardRoot(context);
+    resources.addPreResources(
+        new DirResourceSet(resources, "/WEB-INF/classes", classesDir.getAbsolutePath(), "/"));
+    context.setResources(resources);
+
+    tomcat.start();
+  }
+
+  /**
+   * Stop the server.
+   *
+   * @throws LifecycleException If unable to stop
+   */
+  public void stop() throws LifecycleException {
+    tomcat.stop();
+    tomcat.destroy();
+  }
+}
@@ -0,0 +1,140 @@
+package org.jlab.epics2web.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.jlab.epics2web.metrics.LatencyHistogram;
+
+/**
+ * A headless epics2web client. Subscribes to a set of PVs and records how many updates arrive and
+ * how old they are. A slow client waits before reading each message so that its socket backs up,
+ * as a browser on a bad network link would.
+ */
+public class LoadClient implements WebSocket.Listener {
+
+  private static final String UPDATE_TYPE = "\"type\":\"update\"";
+  private static final String VALUE_KEY = "\"value\":";
+  private static final String MONITOR_PREFIX = "{\"type\":\"monitor\",\"pvs\":[";
+
+  private final List<String> pvs;
+  private final long readDelayMillis;
+  private final ScheduledExecutorService scheduler;
+  private final LongAdder received;
+  private final LatencyHistogram latency;
+  private final StringBuilder partial = new StringBuilder();
+
+  private volatile WebSocket socket;
+
+  /**
+   * Create a new LoadClient.
+   *
+   * @param pvs The PVs to monitor
+   * @param readDelayMillis Time to wait before reading each message; 0 for a fast client
+   * @param scheduler Scheduler used to delay reads
+   * @param received Counter of received messages shared by all clients
+   * @param latency Histogram of update latency shared by all clients
+   */
+  public LoadClient(
+      List<String> pvs,
+      long readDelayMillis,
+      ScheduledExecutorService scheduler,
+      LongAdder received,
+      LatencyHistogram latency) {
+    this.pvs = pvs;
+    this.readDelayMillis = readDelayMillis;
+    this.scheduler = scheduler;
+    this.received = received;
+    this.latency = latency;
+  }
+
+  /**
+   * Connect to the server.
+   *
+   * @param client The shared HTTP client
+   * @param uri The monitor endpoint URI
+   * @return A future that completes when connected
+   */
+  public CompletableFuture<WebSocket> connect(HttpClient client, URI uri) {
+    return client.newWebSocketBuilder().buildAsync(uri, this);
+  }
+
+  /** Close the connection. */
+  public void close() {
+    WebSocket ws = socket;
+    if (ws != null) {
+      ws.sendClose(WebSocket.NORMAL_CLOSURE, "Done");
+    }
+  }
+
+  @Override
+  public void onOpen(WebSocket ws) {
+    socket = ws;
+
+    // The server accepts large requests in parts, so subscribe to everything in one message
+    StringBuilder request = new StringBuilder(MONITOR_PREFIX);
+    for (String pv : pvs) {
+      if (request.length() > MONITOR_PREFIX.length()) {
+        request.append(',');
+      }
+      request.append('"').append(pv).append('"');
+    }
+    ws.sendText(request.append("]}").toString(), true);
+
+    ws.request(1);
+  }
+
+  @Override
+  public CompletionStage<?> onText(WebSocket ws, CharSequence data, boolean last) {
+    partial.append(data);
+
+    if (last) {
+      handle(partial);
+      partial.setLength(0);
+    }
+
+    if (readDelayMillis > 0) {
+      scheduler.schedule(() -> ws.request(1), readDelayMillis, TimeUnit.MILLISECONDS);
+    } else {
+      ws.request(1);
+    }
+
+    return null;
+  }
+
+  private void handle(CharSequence msg) {
+    received.increment();
+
+    String text = msg.toString();
+
+    if (text.contains(UPDATE_TYPE)) {
+      int start = text.indexOf(VALUE_KEY);
+      if (start >= 0) {
+        start = start + VALUE_KEY.length();
+        int end = start;
+        while (end < text.length() && text.charAt(end) != ',' && text.charAt(end) != '}') {
+          end++;
+        }
+        try {
+          long postedMicros = (long) Double.parseDouble(text.substring(start, end));
+          // Zero is the initial value before the first update is posted
+          if (postedMicros > 0) {
+            latency.record(System.nanoTime() - postedMicros * 1000);
+          }
+        } catch (NumberFormatException e) {
+          // Not one of our PVs; ignore
+        }
+      }
+    }
+  }
+
+  @Override
+  public void onError(WebSocket ws, Throwable error) {
+    socket = null;
+  }
+}
@@ -0,0 +1,186 @@
+package org.jlab.epics2web.loadtest;
+
+import com.sun.management.OperatingSystemMXBean;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.jlab.epics2web.CustomPrefixThreadFactory;
+import org.jlab.epics2web.metrics.LatencyHistogram;
+
+/**
+ * Self-contained load test. Starts an in-process CA server, epics2web in an embedded Tomcat, and
+ * many headless web socket clients, all on loopback, then periodically reports throughput,
+ * latency, drops, CPU, and heap.
+ *
+ * <p>Configured with system properties (see the loadTest Gradle task):
+ *
+ * <ul>
+ *   <li>loadtest.pvs - number of PVs hosted by the CA server (default 1000)
+ *   <li>loadtest.hz - update rate of each PV (default 10)
+ *   <li>loadtest.clients - number of web socket clients (default 100)
+ *   <li>loadtest.pvsPerClient - number of PVs each client monitors, chosen at random (default 100)
+ *   <li>loadtest.slowClients - number of clients that read slowly (default 0)
+ *   <li>loadtest.slowReadDelayMillis - delay before a slow client reads each message (default 50)
+ *   <li>loadtest.seconds - duration of the test (default 60)
+ *   <li>loadtest.reportSeconds - interval between reports (default 5)
+ *   <li>loadtest.port - HTTP port (default 8088)
+ * </ul>
+ *
+ * <p>Note: CPU and heap are for the whole JVM, which includes the CA server and the clients.
+ */
+public class LoadTest {
+
+  private static final String PV_PREFIX = "loadtest:pv";
+
+  public static void main(String[] args) throws Exception {
+    int pvCount = Integer.getInteger("loadtest.pvs", 1000);
+    double hz = Double.parseDouble(System.getProperty("loadtest.hz", "10"));
+    int clientCount = Integer.getInteger("loadtest.clients", 100);
+    int pvsPerClient = Math.min(pvCount, Integer.getInteger("loadtest.pvsPerClient", 100));
+    int slowClients = Math.min(clientCount, Integer.getInteger("loadtest.slowClients", 0));
+    long slowReadDelayMillis = Long.getLong("loadtest.slowReadDelayMillis", 50);
+    int seconds = Integer.getInteger("loadtest.seconds", 60);
+    int reportSeconds = Integer.getInteger("loadtest.reportSeconds", 5);
+    int port = Integer.getInteger("loadtest.port", 8088);
+    File webappDir = new File(System.getProperty("loadtest.webappDir", "src/main/webapp"));
+    File classesDir =
+        new File(System.getProperty("loadtest.classesDir", "build/classes/java/main"));
+
+    System.out.printf(
+        "PVs: %d @ %.1f Hz; Clients: %d (%d slow, %d ms delay); PVs per client: %d%n",
+        pvCount, hz, clientCount, slowClients, slowReadDelayMillis, pvsPerClient);
+
+    int updateThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 4));
+    SimulatedIoc ioc = new SimulatedIoc(PV_PREFIX, pvCount, hz, updateThreads);
+    EmbeddedEpics2web epics2web = new EmbeddedEpics2web(port, webappDir, classesDir);
+
+    ScheduledExecutorService scheduler =
+        Executors.newScheduledThreadPool(2, new CustomPrefixThreadFactory("Load-Client-"));
+    HttpClient http = HttpClient.newHttpClient();
+    String base = "127.0.0.1:" + port + EmbeddedEpics2web.CONTEXT_PATH;
+    URI monitorUri = URI.create("ws://" + base + "/monitor");
+    URI metricsUri = URI.create("http://" + base + "/metrics");
+
+    LongAdder received = new LongAdder();
+    LatencyHistogram latency = new LatencyHistogram();
+    List<LoadClient> clients = new ArrayList<>();
+    List<CompletableFuture<?>> connects = new ArrayList<>();
+    Random random = new Random(42);
+
+    for (int i = 0; i < clientCount; i++) {
+      List<String> pvs = new ArrayList<>(pvsPerClient);
+      int offset = random.nextInt(pvCount);
+      for (int j = 0; j < pvsPerClient; j++) {
+        pvs.add(PV_PREFIX + ((offset + j) % pvCount));
+      }
+      long delay = i < slowClients ? slowReadDelayMillis : 0;
+      LoadClient client = new LoadClient(pvs, delay, scheduler, received, latency);
+      clients.add(client);
+      connects.add(client.connect(http, monitorUri));
+    }
+
+    CompletableFuture.allOf(connects.toArray(new CompletableFuture<?>[0]))
+        .get(60, TimeUnit.SECONDS);
+
+    System.out.println("All clients connected");
+
+    OperatingSystemMXBean os =
+        (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    long startNanos = System.nanoTime();
+    long endNanos = startNanos + TimeUnit.SECONDS.toNanos(seconds);
+    long lastNanos = startNanos;
+    long lastReceived = 0;
+    Map<String, Double> lastServer = scrape(http, metricsUri);
+    Map<String, Double> firstServer = lastServer;
+
+    while (System.nanoTime() < endNanos) {
+      Thread.sleep(TimeUnit.SECONDS.toMillis(reportSeconds));
+
+      long now = System.nanoTime();
+      double elapsed = (now - lastNanos) / 1_000_000_000.0d;
+      long total = received.sum();
+      Map<String, Double> server = scrape(http, metricsUri);
+
+      System.out.printf(
+          "recv/s: %.0f; sent/s: %.0f; sent KiB/s: %.0f; dropped: %.0f; queued: %.0f;"
+              + " latency ms p50/p99/p999: %.2f/%.2f/%.2f; cpu: %.0f%%; heap MiB: %d%n",
+          (total - lastReceived) / elapsed,
+          delta(server, lastServer, "epics2web_messages_sent_total") / elapsed,
+          delta(server, lastServer, "epics2web_sent_bytes_total") / elapsed / 1024,
+          server.getOrDefault("epics2web_messages_dropped_total", 0d),
+          server.getOrDefault("epics2web_write_queue_depth", 0d),
+          latency.getMillisAtQuantile(0.5),
+          latency.getMillisAtQuantile(0.99),
+          latency.getMillisAtQuantile(0.999),
+          os.getProcessCpuLoad() * 100,
+          memory.getHeapMemoryUsage().getUsed() / (1024 * 1024));
+
+      lastNanos = now;
+      lastReceived = total;
+      lastServer = server;
+    }
+
+    double elapsed = (System.nanoTime() - startNanos) / 1_000_000_000.0d;
+    System.out.printf(
+        "SUMMARY: duration s: %.0f; recv/s: %.0f; sent/s: %.0f; dropped: %.0f;"
+            + " latency ms p50/p99/p999: %.2f/%.2f/%.2f%n",
+        elapsed,
+        received.sum() / elapsed,
+        delta(lastServer, firstServer, "epics2web_messages_sent_total") / elapsed,
+        delta(lastServer, firstServer, "epics2web_messages_dropped_total"),
+        latency.getMillisAtQuantile(0.5),
+        latency.getMillisAtQuantile(0.99),
+        latency.getMillisAtQuantile(0.999));
+
+    for (LoadClient client : clients) {
+      client.close();
+    }
+
+    scheduler.shutdownNow();
+    epics2web.stop();
+    ioc.destroy();
+    System.exit(0);
+  }
+
+  private static double delta(Map<String, Double> now, Map<String, Double> before, String name) {
+    return now.getOrDefault(name, 0d) - before.getOrDefault(name, 0d);
+  }
+
+  /**
+   * Fetch the metrics endpoint and return unlabeled samples plus the first sample of each labeled
+   * metric keyed by metric name.
+   */
+  private static Map<String, Double> scrape(HttpClient http, URI uri) throws Exception {
+    Map<String, Double> samples = new HashMap<>();
+    HttpResponse<String> response =
+        http.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+
+    for (String line : response.body().split("\n")) {
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      int space = line.lastIndexOf(' ');
+      int brace = line.indexOf('{');
+      String name = line.substring(0, brace > 0 && brace < space ? brace : space);
+      samples.putIfAbsent(name, Double.parseDouble(line.substring(space + 1)));
+    }
+
+    return samples;
+  }
+}
@@ -0,0 +1,102 @@
+package org.jlab.epics2web.loadtest;
+
+import com.cosylab.epics.caj.cas.util.DefaultServerImpl;
+import com.cosylab.epics.caj.cas.util.MemoryProcessVariable;
+import gov.aps.jca.CAException;
+import gov.aps.jca.JCALibrary;
+import gov.aps.jca.cas.ServerContext;
+import gov.aps.jca.dbr.DBRType;
+import gov.aps.jca.dbr.DBR_Double;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jlab.epics2web.CustomPrefixThreadFactory;
+
+/**
+ * In-process Channel Access server hosting DOUBLE PVs that update at a fixed rate. Each value is
+ * the System.nanoTime() of the update in microseconds so that clients in the same JVM can compute
+ * end-to-end latency from the value alone.
+ */
+public class SimulatedIoc {
+
+  private static final Logger LOGGER = Logger.getLogger(SimulatedIoc.class.getName());
+
+  private final List<MemoryProcessVariable> pvs = new ArrayList<>();
+  private final ServerContext context;
+  private final ScheduledExecutorService updater;
+  private final Thread serverThread;
+
+  /**
+   * Create and start a new SimulatedIoc.
+   *
+   * @param prefix The PV name prefix; PVs are named prefix0 through prefix(count - 1)
+   * @param count The number of PVs
+   * @param updateHz The update rate of each PV
+   * @param updateThreads The number of threads used to post updates
+   * @throws CAException If unable to start the server
+   */
+  public SimulatedIoc(String prefix, int count, double updateHz, int updateThreads)
+      throws CAException {
+    DefaultServerImpl server = new DefaultServerImpl();
+
+    for (int i = 0; i < count; i++) {
+      pvs.add(server.createMemoryProcessVariable(prefix + i, DBRType.DOUBLE, new double[] {0}));
+    }
+
+    context =
+        JCALibrary.getInstance()
+            .createServerContext(JCALibrary.CHANNEL_ACCESS_SERVER_JAVA, server);
+
+    serverThread =
+        new Thread(
+            () -> {
+              try {
+                context.run(0);
+              } catch (CAException e) {
+                LOGGER.log(Level.SEVERE, "CA server stopped", e);
+              }
+            },
+            "Simulated-IOC");
+    serverThread.setDaemon(true);
+    serverThread.start();
+
+    updater =
+        Executors.newScheduledThreadPool(
+            updateThreads, new CustomPrefixThreadFactory("Simulated-IOC-Updater-"));
+
+    if (updateHz > 0) {
+      long periodMicros = Math.max(1, (long) (1_000_000 / updateHz));
+      int sliceSize = (count + updateThreads - 1) / updateThreads;
+      for (int start = 0; start < count; start = start + sliceSize) {
+        final List<MemoryProcessVariable> slice =
+            pvs.subList(start, Math.min(count, start + sliceSize));
+        updater.scheduleAtFixedRate(
+            () -> post(slice), periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+      }
+    }
+  }
+
+  private void post(List<MemoryProcessVariable> slice) {
+    for (MemoryProcessVariable pv : slice) {
+      try {
+        pv.write(new DBR_Double(new double[] {System.nanoTime() / 1000}), null);
+      } catch (CAException e) {
+        LOGGER.log(Level.WARNING, "Unable to post update", e);
+      }
+    }
+  }
+
+  /** Stop posting updates and destroy the server. */
+  public void destroy() {
+    updater.shutdownNow();
+    try {
+      context.destroy();
+    } catch (CAException e) {
+      LOGGER.log(Level.WARNING, "Unable to destroy CA server", e);
+    }
+  }
+}
@@ -10,13 +10,14 @@ import gov.aps.jca.event.ContextVirtualCircuitExceptionEvent;
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletContextListener;
 import jakarta.servlet.annotation.WebListener;
+import jakarta.websocket.CloseReason;
 import jakarta.websocket.RemoteEndpoint;
 import jakarta.websocket.SendHandler;
 import jakarta.websocket.SendResult;
 import jakarta.websocket.Session;
 import java.io.IOException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -26,9 +27,21 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.jlab.epics2web.epics.CaPvSource;
 import org.jlab.epics2web.epics.ChannelManager;
 import org.jlab.epics2web.epics.ContextFactory;
+import org.jlab.epics2web.epics.ParallelFanout;
+import org.jlab.epics2web.epics.PvSource;
+import org.jlab.epics2web.epics.UpdateDispatcher;
+import org.jlab.epics2web.epics.sim.SimPvSource;
+import org.jlab.epics2web.metrics.LatencyHistogram;
+import org.jlab.epics2web.metrics.Metrics;
+import org.jlab.epics2web.websocket.ClientQuotas;
+import org.jlab.epics2web.websocket.OutboundMessage;
+import org.jlab.epics2web.websocket.SessionWriteQueue;
 import org.jlab.epics2web.websocket.WebSocketSessionManager;
+import org.jlab.epics2web.websocket.WebSocketSessionMonitor;
+import org.jlab.epics2web.websocket.WriteQueueBudget;
 import org.jlab.epics2web.websocket.WriteStrategy;
 
 /**
@@ -42,8 +55,41 @@ public class Application implements ServletContextListener {
   public static final WriteStrategy WRITE_STRATEGY = WriteStrategy.BLOCKING_QUEUE;
   public static final int WRITE_QUEUE_SIZE_LIMIT = 2000;
 
+  /**
+   * Per session bandwidth budget, counted in message characters like the sent bytes metric. A
+   * session throttled for being a slow consumer gets a fraction of this.
+   */
+  public static final int SESSION_CHARS_PER_SECOND_LIMIT = 1_048_576;
+
+  /** Max memory used by all session write queues together; a quarter of the max heap. */
+  public static final long WRITE_QUEUE_BYTES_LIMIT = Runtime.getRuntime().maxMemory() / 4;
+
+  /** Max events waiting per dispatcher thread before PV callbacks fall back to a resync. */
+  public static final int UPDATE_DISPATCH_RING_CAPACITY = 65536;
+
   public static ChannelManager channelManager = null;
+  public static UpdateDispatcher updateDispatcher = null;
+
+  /** Default min number of subscribers for a PV's listeners to be notified in parallel. */
+  private static final int DEFAULT_PARALLEL_FANOUT_THRESHOLD = 1000;
   public static WebSocketSessionManager sessionManager = new WebSocketSessionManager();
+  public static WriteQueueBudget writeQueueBudget = new WriteQueueBudget(WRITE_QUEUE_BYTES_LIMIT);
+
+  /**
+   * Default backoff for PVs that fail to connect; see ChannelManager. The max is kept short since
+   * it bounds how long a display opened during maintenance shows a PV as disconnected after its IOC
+   * comes back.
+   */
+  private static final int DEFAULT_NEGATIVE_CACHE_INITIAL_BACKOFF_SECONDS = 5;
+
+  private static final int DEFAULT_NEGATIVE_CACHE_MAX_BACKOFF_SECONDS = 30;
+
+  /** Default client quotas; see ClientQuotas. Sessions per IP is unlimited as proxies share IPs */
+  private static final int DEFAULT_MAX_PVS_PER_SESSION = 50_000;
+
+  private static final int DEFAULT_NEW_PVS_PER_SECOND = 10_000;
+  private static final int DEFAULT_MESSAGES_PER_SECOND = 100;
+  public static volatile ClientQuotas clientQuotas = ClientQuotas.UNLIMITED;
 
   private static final int TIMEOUT_EXECUTOR_POOL_SIZE = 1;
   private static final Logger LOGGER = Logger.getLogger(Application.class.getName());
@@ -53,27 +99,39 @@ public class Application implements ServletContextListener {
   private static ExecutorService resetExecutor = null;
   private static ContextFactory factory = null;
   private static volatile CAJContext context = null;
+  private static SimPvSource simSource = null;
+  private static ParallelFanout parallelFanout = null;
 
   public static volatile boolean RESTARTING = false;
 
-  @SuppressWarnings("unchecked")
-  public static Future<?> writeFromBlockingQueue(Session session) {
+  public static Future<?> writeFromBlockingQueue(WebSocketSessionMonitor monitor) {
     return writerExecutor.submit(
         new Runnable() {
           @Override
           public void run() {
-            final String id = session.getId() + " / " + session.getUserProperties().get("ip");
-            final ArrayBlockingQueue<String> writequeue =
-                (ArrayBlockingQueue<String>) session.getUserProperties().get("writequeue");
+            final Session session = monitor.getSession();
+            final String id = session.getId() + " / " + monitor.getIp();
+            final SessionWriteQueue writequeue = monitor.getWriteQueue();
+            final LatencyHistogram latency = monitor.getLatency();
             try {
               while (true) {
                 if (session.isOpen()) {
-                  String msg =
+                  OutboundMessage msg =
                       writequeue.take(); // Block until msg to deliver or InterruptedException
+                  long dequeued = System.nanoTime();
+
+                  long wait;
+                  while ((wait = writequeue.nanosUntilBandwidth(System.nanoTime())) > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait); // Over budget; InterruptedException to stop
+                  }
 
                   if (msg != null) {
                     try {
-                      session.getBasicRemote().sendText(msg);
+                      writequeue.sendStarted(msg, System.nanoTime());
+                      session.getBasicRemote().sendText(msg.getText());
+                      Metrics.recordSent(msg.getText());
+                      Metrics.recordUpdateLatency(
+                          msg.getEventNanos(), dequeued, System.nanoTime(), latency);
                     } catch (IllegalStateException
                         | IOException e) { // If session closes between time session.isOpen() and
                       // sentText(msg) then you'll get this exception.  Not an issue.
@@ -85,6 +143,8 @@ public class Application implements ServletContextListener {
                             "Session closed after write exception; shutting down write thread");
                         break;
                       }
+                    } finally {
+                      writequeue.sendCompleted();
                     }
                   }
                 } else {
@@ -102,6 +162,61 @@ public class Application implements ServletContextListener {
         });
   }
 
+  /**
+   * Close a session that has fallen too far behind with SLOW_CONSUMER_CLOSE_CODE. The close is done
+   * on a writer thread since it may block behind a stalled write.
+   *
+   * @param session The session
+   */
+  public static void closeSlowConsumer(Session session) {
+    writerExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              session.close(
+                  new CloseReason(
+                      CloseReason.CloseCodes.getCloseCode(
+                          SessionWriteQueue.SLOW_CONSUMER_CLOSE_CODE),
+                      SessionWriteQueue.SLOW_CONSUMER_CLOSE_REASON));
+            } catch (IOException e) {
+              LOGGER.log(Level.WARNING, "Unable to close slow consumer session", e);
+            }
+          }
+        });
+  }
+
+  /**
+   * Return the executor for work that may block, such as writing a response, which must stay off
+   * the single timeout thread that completes timed out reads.
+   *
+   * @return The callback executor
+   */
+  public static ExecutorService getCallbackExecutor() {
+    return callbackExecutor;
+  }
+
+  /**
+   * Return a non-negative int environment variable.
+   *
+   * @param name The variable name
+   * @param defaultValue The value if the variable is unset or invalid
+   * @return The value
+   */
+  private static int getIntEnv(String name, int defaultValue) {
+    String value = System.getenv(name);
+
+    if (value != null && !value.isBlank()) {
+      try {
+        return Math.max(0, Integer.parseInt(value.trim()));
+      } catch (NumberFormatException e) {
+        LOGGER.log(Level.WARNING, "Invalid {0}: {1}", new Object[] {name, value});
+      }
+    }
+
+    return defaultValue;
+  }
+
   @Override
   public void contextInitialized(ServletContextEvent sce) {
     LOGGER.log(Level.INFO, ">>>>>>>>>>>>>>>>>>>>>>>>>> CONTEXT INITIALIZED");
@@ -120,7 +235,50 @@ public class Application implements ServletContextListener {
     writerExecutor =
         Executors.newCachedThreadPool(new CustomPrefixThreadFactory("Web-Socket-Writer-"));
     resetExecutor = Executors.newSingleThreadExecutor(new CustomPrefixThreadFactory("Resetter-"));
-    channelManager = new ChannelManager(context, timeoutExecutor, callbackExecutor);
+
+    List<PvSource> sources = new ArrayList<>();
+    if (Boolean.parseBoolean(System.getenv("SIM_PVS_ENABLED"))) {
+      simSource = new SimPvSource(Runtime.getRuntime().availableProcessors());
+      sources.add(simSource);
+    }
+    sources.add(new CaPvSource(context, timeoutExecutor, callbackExecutor)); // Accepts all; last
+
+    // Zero dispatch threads means PV source callback threads notify listeners themselves
+    int processors = Runtime.getRuntime().availableProcessors();
+    int dispatchThreads = getIntEnv("UPDATE_DISPATCH_THREADS", Math.max(1, processors / 2));
+    int fanoutThreshold =
+        getIntEnv("PARALLEL_FANOUT_THRESHOLD", DEFAULT_PARALLEL_FANOUT_THRESHOLD);
+    if (dispatchThreads > 0) {
+      if (fanoutThreshold > 0) {
+        parallelFanout = new ParallelFanout(processors, fanoutThreshold);
+      }
+      updateDispatcher =
+          new UpdateDispatcher(
+              dispatchThreads,
+              UPDATE_DISPATCH_RING_CAPACITY,
+              new CustomPrefixThreadFactory("Update-Dispatch-"),
+              parallelFanout);
+    }
+    channelManager =
+        new ChannelManager(
+            sources,
+            timeoutExecutor,
+            callbackExecutor,
+            updateDispatcher,
+            getIntEnv(
+                "NEGATIVE_CACHE_INITIAL_BACKOFF_SECONDS",
+                DEFAULT_NEGATIVE_CACHE_INITIAL_BACKOFF_SECONDS),
+            getIntEnv(
+                "NEGATIVE_CACHE_MAX_BACKOFF_SECONDS", DEFAULT_NEGATIVE_CACHE_MAX_BACKOFF_SECONDS));
+
+    clientQuotas =
+        new ClientQuotas(
+            getIntEnv("MAX_SESSIONS_PER_IP", 0),
+            getIntEnv("MAX_PVS_PER_SESSION", DEFAULT_MAX_PVS_PER_SESSION),
+            getIntEnv("NEW_PVS_PER_SECOND", DEFAULT_NEW_PVS_PER_SECOND),
+            getIntEnv("MESSAGES_PER_SECOND", DEFAULT_MESSAGES_PER_SECOND));
+
+    sessionManager.startLivenessChecks(timeoutExecutor, writerExecutor);
 
     try {
       registerContextListeners(context);
@@ -132,35 +290,44 @@ public class Application implements ServletContextListener {
       writerExecutor.execute(
           new Runnable() {
             @Override
-            @SuppressWarnings("unchecked")
             public void run() {
               while (true) {
                 try {
-                  for (Session session : sessionManager.toSet()) {
+                  for (WebSocketSessionMonitor monitor : sessionManager.getMonitors()) {
+                    Session session = monitor.getSession();
                     if (session.isOpen()) {
-                      AtomicBoolean isWriting =
-                          (AtomicBoolean) session.getUserProperties().get("isWriting");
+                      AtomicBoolean isWriting = monitor.getWriting();
                       boolean updated = isWriting.compareAndSet(false, true);
                       if (updated) {
-                        ConcurrentLinkedQueue<String> writequeue =
-                            (ConcurrentLinkedQueue<String>)
-                                session.getUserProperties().get("writequeue");
-                        String msg = writequeue.poll();
+                        SessionWriteQueue writequeue = monitor.getWriteQueue();
+                        // Over bandwidth budget skips the session this pass
+                        final OutboundMessage msg =
+                            writequeue.nanosUntilBandwidth(System.nanoTime()) == 0
+                                ? writequeue.poll()
+                                : null;
                         if (msg == null) {
                           isWriting.compareAndSet(true, false);
                         } else {
+                          final long dequeued = System.nanoTime();
+                          writequeue.sendStarted(msg, dequeued);
+                          final LatencyHistogram latency = monitor.getLatency();
                           RemoteEndpoint.Async a = session.getAsyncRemote();
                           // LOGGER.log(Level.INFO, "Sending msg: {0}", msg);
                           a.sendText(
-                              msg,
+                              msg.getText(),
                               new SendHandler() {
                                 @Override
                                 public void onResult(SendResult result) {
+                                  writequeue.sendCompleted();
                                   boolean u = isWriting.compareAndSet(true, false);
                                   if (!u) {
                                     LOGGER.log(Level.WARNING, "No need to clear isWriting");
                                   }
-                                  if (!result.isOK()) {
+                                  if (result.isOK()) {
+                                    Metrics.recordSent(msg.getText());
+                                    Metrics.recordUpdateLatency(
+                                        msg.getEventNanos(), dequeued, System.nanoTime(), latency);
+                                  } else {
                                     LOGGER.log(
                                         Level.FINEST,
                                         "Unable to send message",
@@ -199,6 +366,18 @@ public class Application implements ServletContextListener {
       }
     }
 
+    if (simSource != null) {
+      simSource.close();
+    }
+
+    if (updateDispatcher != null) {
+      updateDispatcher.close();
+    }
+
+    if (parallelFanout != null) {
+      parallelFanout.close();
+    }
+
     if (timeoutExecutor != null) {
       timeoutExecutor.shutdown();
     }
@@ -3,7 +3,9 @@ package org.jlab.epics2web.controller;
 import gov.aps.jca.dbr.DBR;
 import jakarta.json.Json;
 import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
 import jakarta.json.JsonObjectBuilder;
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -11,24 +13,37 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jlab.epics2web.Application;
 
 /**
- * Controller for the Overview page.
+ * Controller for the caget endpoint, a one-time read of one or more PVs.
+ *
+ * <p>All PVs are read in parallel, each with its own deadline, and a PV that fails is reported with
+ * an error in its entry instead of failing the whole request. By default the response is a single
+ * JSON object sent once every PV has answered. With stream=true (and no jsonp) each PV is instead
+ * written as a line of JSON (NDJSON) as soon as its value arrives, so a page isn't held up by its
+ * slowest PV.
  *
  * @author slominskir
  */
 @WebServlet(
     name = "CAGet",
-    urlPatterns = {"/caget"})
+    urlPatterns = {"/caget"},
+    asyncSupported = true)
 public class CAGet extends HttpServlet {
 
   private static final Logger LOGGER = Logger.getLogger(CAGet.class.getName());
 
+  /** Safety net only; every PV read has a much shorter deadline of its own */
+  private static final long ASYNC_TIMEOUT_MILLIS = 30_000;
+
   /**
    * Handles the HTTP <code>GET</code> method.
    *
@@ -41,61 +56,129 @@ public class CAGet extends HttpServlet {
   protected void doGet(HttpServletRequest request, HttpServletResponse response)
       throws ServletException, IOException {
 
-    // TODO: We should also offer caget over websocket too and make it async
+    String[] pvs = request.getParameterValues("pv");
+    String jsonp = request.getParameter("jsonp");
+    String n = request.getParameter("n");
+    boolean stream = jsonp == null && Boolean.parseBoolean(request.getParameter("stream"));
 
-    // TODO: We should probably make this an aysnc servlet and use async CA calls otherwise this
-    // isn't going to scale at all.
+    boolean enumLabel = true;
 
-    String errorReason = null;
-    List<DBR> dbrList = null;
-    String jsonp = null;
-    String[] pvs = null;
+    if (n != null) {
+      enumLabel = false;
+    }
+
+    if (pvs == null) {
+      pvs = new String[0];
+    }
+
+    List<CompletableFuture<DBR>> futures;
 
     try {
-      pvs = request.getParameterValues("pv");
-      jsonp = request.getParameter("jsonp");
-      String n = request.getParameter("n");
+      futures = Application.channelManager.getAsync(pvs, enumLabel);
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.SEVERE, "Unable to obtain dbr list", e);
+      JsonObject error =
+          Json.createObjectBuilder()
+              .add("error", e.getClass().getSimpleName() + ": " + e.getMessage())
+              .build();
+      response.setContentType("application/json");
+      write(response.getWriter(), error.toString(), jsonp);
+      return;
+    }
 
-      boolean enumLabel = true;
+    response.setContentType(stream ? "application/x-ndjson" : "application/json");
 
-      if (n != null) {
-        enumLabel = false;
+    if (pvs.length == 0) {
+      if (!stream) {
+        write(response.getWriter(), toResponse(new JsonObject[0]), jsonp);
       }
-
-      dbrList = Application.channelManager.get(pvs, enumLabel);
-    } catch (Exception e) {
-      LOGGER.log(Level.SEVERE, "Unable to obtain dbr list", e);
-      errorReason = e.getClass().getSimpleName() + ": " + e.getMessage();
+      return;
     }
 
-    response.setContentType("application/json");
+    AsyncContext async = request.startAsync();
+    async.setTimeout(ASYNC_TIMEOUT_MILLIS);
+
+    JsonObject[] entries = new JsonObject[pvs.length];
+    AtomicInteger remaining = new AtomicInteger(pvs.length);
+
+    // Writes block, and a read that times out completes on the shared timeout thread
+    Executor executor = Application.getCallbackExecutor();
+
+    for (int i = 0; i < pvs.length; i++) {
+      int index = i;
+      String pv = pvs[i];
 
-    PrintWriter pw = response.getWriter();
+      futures
+          .get(i)
+          .whenCompleteAsync(
+              (dbr, failure) -> {
+                entries[index] = toEntry(pv, dbr, failure);
+
+                if (stream) {
+                  writeLine(async, entries[index]);
+                }
+
+                if (remaining.decrementAndGet() == 0) {
+                  finish(async, stream ? null : toResponse(entries), jsonp);
+                }
+              },
+              executor);
+    }
+  }
 
+  private static JsonObject toEntry(String pv, DBR dbr, Throwable failure) {
     JsonObjectBuilder builder = Json.createObjectBuilder();
+    builder.add("name", pv);
 
-    SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm");
+    if (failure == null) {
+      Application.channelManager.addValueToJSON(builder, dbr);
+    } else {
+      if (failure instanceof CompletionException && failure.getCause() != null) {
+        failure = failure.getCause();
+      }
+      builder.add("error", failure.getClass().getSimpleName() + ": " + failure.getMessage());
+    }
+
+    return builder.build();
+  }
+
+  private static String toResponse(JsonObject[] entries) {
+    JsonArrayBuilder arrBld = Json.createArrayBuilder();
+
+    for (JsonObject entry : entries) {
+      arrBld.add(entry);
+    }
 
-    if (errorReason == null) {
-      JsonArrayBuilder arrBld = Json.createArrayBuilder();
-      if (dbrList != null && pvs != null && dbrList.size() == pvs.length) {
-        int i = 0;
-        for (DBR dbr : dbrList) {
-          JsonObjectBuilder incBld = Json.createObjectBuilder();
-          incBld.add("name", pvs[i++]);
+    return Json.createObjectBuilder().add("data", arrBld.build()).build().toString();
+  }
 
-          Application.channelManager.addValueToJSON(incBld, dbr);
+  private static void writeLine(AsyncContext async, JsonObject entry) {
+    try {
+      PrintWriter pw = async.getResponse().getWriter();
 
-          arrBld.add(incBld.build());
-        }
+      // Entries complete on different threads
+      synchronized (async) {
+        pw.write(entry.toString());
+        pw.write('\n');
+        pw.flush();
       }
-      builder.add("data", arrBld.build());
-    } else {
-      builder.add("error", errorReason);
+    } catch (IOException | RuntimeException e) { // Client gone or request timed out
+      LOGGER.log(Level.FINE, "Unable to write caget response line", e);
     }
+  }
 
-    String jsonStr = builder.build().toString();
+  private static void finish(AsyncContext async, String jsonStr, String jsonp) {
+    try {
+      if (jsonStr != null) {
+        write(async.getResponse().getWriter(), jsonStr, jsonp);
+      }
+      async.complete();
+    } catch (IOException | RuntimeException e) { // Client gone or request timed out
+      LOGGER.log(Level.FINE, "Unable to complete caget response", e);
+    }
+  }
 
+  private static void write(PrintWriter pw, String jsonStr, String jsonp) {
     if (jsonp != null) {
       jsonStr = jsonp + "(" + jsonStr + ");";
     }
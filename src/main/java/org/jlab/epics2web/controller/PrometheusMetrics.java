@@ -0,0 +1,276 @@
+package org.jlab.epics2web.controller;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jlab.epics2web.Application;
+import org.jlab.epics2web.epics.ChannelManager;
+import org.jlab.epics2web.epics.ChannelMonitor;
+import org.jlab.epics2web.epics.UpdateDispatcher;
+import org.jlab.epics2web.metrics.LatencyHistogram;
+import org.jlab.epics2web.metrics.Metrics;
+import org.jlab.epics2web.metrics.PrometheusWriter;
+import org.jlab.epics2web.websocket.ClientQuotas;
+import org.jlab.epics2web.websocket.SessionWriteQueue;
+import org.jlab.epics2web.websocket.WebSocketSessionManager;
+
+/**
+ * Controller for the metrics endpoint. Returns data path metrics in Prometheus text format.
+ */
+@WebServlet(
+    name = "PrometheusMetrics",
+    urlPatterns = {"/metrics"})
+public class PrometheusMetrics extends HttpServlet {
+
+  private static final Logger LOGGER = Logger.getLogger(PrometheusMetrics.class.getName());
+
+  /**
+   * Handles the HTTP <code>GET</code> method.
+   *
+   * @param request servlet request
+   * @param response servlet response
+   * @throws ServletException if a servlet-specific error occurs
+   * @throws IOException if an I/O error occurs
+   */
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws ServletException, IOException {
+
+    ChannelManager channelManager = Application.channelManager;
+    WebSocketSessionManager sessionManager = Application.sessionManager;
+
+    PrometheusWriter writer = new PrometheusWriter();
+
+    writer.family("epics2web_events_total", "counter", "Monitor events received by context");
+    for (Map.Entry<String, LongAdder> entry : Metrics.getContextEvents().entrySet()) {
+      writer.sample("epics2web_events_total", entry.getValue().sum(), "context", entry.getKey());
+    }
+
+    Map<ChannelMonitor.MonitorState, Integer> stateCounts =
+        new EnumMap<>(ChannelMonitor.MonitorState.class);
+    for (ChannelMonitor.MonitorState state : ChannelMonitor.MonitorState.values()) {
+      stateCounts.put(state, 0);
+    }
+    if (channelManager != null) {
+      for (ChannelMonitor monitor : channelManager.getMonitorMap().values()) {
+        stateCounts.merge(monitor.getState(), 1, Integer::sum);
+      }
+    }
+    writer.family("epics2web_monitors", "gauge", "Channel monitors by state");
+    for (Map.Entry<ChannelMonitor.MonitorState, Integer> entry : stateCounts.entrySet()) {
+      writer.sample("epics2web_monitors", entry.getValue(), "state", entry.getKey().name());
+    }
+
+    writer.timing(
+        "epics2web_channel_create_seconds", "Time spent creating channels", Metrics.CHANNEL_CREATE);
+    writer.timing(
+        "epics2web_channel_destroy_seconds",
+        "Time spent destroying channels",
+        Metrics.CHANNEL_DESTROY);
+    writer.timing(
+        "epics2web_manager_lock_wait_seconds",
+        "Time spent waiting for the ChannelManager lock",
+        Metrics.MANAGER_LOCK_WAIT);
+
+    writer.gauge(
+        "epics2web_callback_backlog",
+        "Callback executor tasks submitted but not yet completed",
+        channelManager == null ? 0 : channelManager.getCallbackBacklog());
+
+    UpdateDispatcher dispatcher = Application.updateDispatcher;
+    writer.family(
+        "epics2web_dispatch_ring_occupancy", "gauge", "Events waiting for a dispatcher thread");
+    if (dispatcher != null) {
+      int[] occupancy = dispatcher.getOccupancy();
+      for (int i = 0; i < occupancy.length; i++) {
+        writer.sample(
+            "epics2web_dispatch_ring_occupancy", occupancy[i], "partition", String.valueOf(i));
+      }
+    }
+    writer.gauge(
+        "epics2web_dispatch_ring_capacity",
+        "Max events waiting per dispatcher thread",
+        dispatcher == null ? 0 : dispatcher.getRingCapacity());
+    writer.counter(
+        "epics2web_dispatch_overflows_total",
+        "Events not dispatched because the ring was full; listeners get a resync instead",
+        Metrics.DISPATCH_OVERFLOWS.sum());
+    writer.latency(
+        "epics2web_dispatch_lag_seconds",
+        "Time events wait in a dispatch ring",
+        "stage",
+        new String[] {"ring"},
+        new LatencyHistogram[] {Metrics.DISPATCH_LAG});
+    writer.counter(
+        "epics2web_info_batches_total",
+        "Batches of connection info delivered, each grouping the changes on one IOC",
+        Metrics.INFO_BATCHES.sum());
+    writer.counter(
+        "epics2web_info_batched_pvs_total",
+        "PVs reported in connection info batches",
+        Metrics.INFO_BATCHED_PVS.sum());
+    writer.counter(
+        "epics2web_parallel_fanouts_total",
+        "Events whose listeners were notified in parallel because the PV has many subscribers",
+        Metrics.PARALLEL_FANOUTS.sum());
+    writer.gauge(
+        "epics2web_negative_cache_entries",
+        "PVs remembered for failing to connect, which are retried with backoff",
+        channelManager == null ? 0 : channelManager.getNegativeCacheSize());
+    writer.counter(
+        "epics2web_negative_cache_hits_total",
+        "Monitors and gets answered as disconnected because the PV recently failed to connect",
+        Metrics.NEGATIVE_CACHE_HITS.sum());
+    writer.family("epics2web_get_values_total", "counter", "One-time get values by origin");
+    writer.sample(
+        "epics2web_get_values_total", Metrics.GET_VALUES_CACHED.sum(), "source", "cache");
+    writer.sample("epics2web_get_values_total", Metrics.GET_VALUES_READ.sum(), "source", "read");
+
+    writer.gauge(
+        "epics2web_sessions", "Open web socket sessions", sessionManager.getMonitors().size());
+    writer.gauge(
+        "epics2web_paused_sessions",
+        "Open web socket sessions paused by their client, such as a hidden browser tab",
+        sessionManager.getPausedCount());
+    writer.counter(
+        "epics2web_paused_notifications_total",
+        "PV notifications not sent to paused sessions",
+        Metrics.PAUSED_NOTIFICATIONS.sum());
+    writer.family(
+        "epics2web_quota_rejections_total",
+        "counter",
+        "Client sessions, requests, and PVs rejected by admission control");
+    writer.sample(
+        "epics2web_quota_rejections_total",
+        Metrics.QUOTA_REJECTED_SESSIONS.sum(),
+        "quota",
+        ClientQuotas.SESSIONS_PER_IP);
+    writer.sample(
+        "epics2web_quota_rejections_total",
+        Metrics.QUOTA_REJECTED_MESSAGES.sum(),
+        "quota",
+        ClientQuotas.MESSAGES_PER_SECOND);
+    writer.sample(
+        "epics2web_quota_rejections_total",
+        Metrics.QUOTA_REJECTED_PVS_PER_SESSION.sum(),
+        "quota",
+        ClientQuotas.PVS_PER_SESSION);
+    writer.sample(
+        "epics2web_quota_rejections_total",
+        Metrics.QUOTA_REJECTED_NEW_PVS.sum(),
+        "quota",
+        ClientQuotas.NEW_PVS_PER_SECOND);
+    writer.counter(
+        "epics2web_sessions_expired_total",
+        "Web socket sessions closed for not responding to pings",
+        Metrics.SESSIONS_EXPIRED.sum());
+
+    String strategy = Application.WRITE_STRATEGY.name();
+    writer.family("epics2web_write_queue_depth", "gauge", "Messages waiting in write queues");
+    writer.sample(
+        "epics2web_write_queue_depth",
+        sessionManager.getTotalWriteQueueDepth(),
+        "strategy",
+        strategy);
+    writer.family(
+        "epics2web_write_queue_depth_max", "gauge", "Messages waiting in the fullest write queue");
+    writer.sample(
+        "epics2web_write_queue_depth_max",
+        sessionManager.getMaxWriteQueueDepth(),
+        "strategy",
+        strategy);
+
+    writer.gauge(
+        "epics2web_write_queue_bytes",
+        "Approximate memory used by all write queues",
+        Application.writeQueueBudget.getUsedBytes());
+    writer.gauge(
+        "epics2web_write_queue_bytes_limit",
+        "Memory budget shared by all write queues",
+        Application.writeQueueBudget.getLimitBytes());
+    writer.counter(
+        "epics2web_write_queue_budget_reclaims_total",
+        "Times the write queue memory budget was exceeded and queued messages were shed",
+        Metrics.BUDGET_RECLAIMS.sum());
+    writer.counter(
+        "epics2web_write_queue_budget_reclaimed_bytes_total",
+        "Approximate memory freed by shedding queued messages",
+        Metrics.BUDGET_RECLAIMED_BYTES.sum());
+
+    writer.counter(
+        "epics2web_messages_sent_total", "Web socket messages sent", Metrics.MESSAGES_SENT.sum());
+    writer.counter(
+        "epics2web_sent_bytes_total",
+        "Web socket message characters sent",
+        Metrics.BYTES_SENT.sum());
+    writer.counter(
+        "epics2web_messages_dropped_total",
+        "Web socket messages dropped due to full write queue or memory budget",
+        Metrics.MESSAGES_DROPPED.sum());
+
+    writer.counter(
+        "epics2web_messages_conflated_total",
+        "Queued updates replaced by a newer update for the same PV",
+        Metrics.MESSAGES_CONFLATED.sum());
+
+    writer.family(
+        "epics2web_slow_consumer_escalations_total",
+        "counter",
+        "Sessions escalated to a slow consumer tier");
+    writer.sample(
+        "epics2web_slow_consumer_escalations_total",
+        Metrics.SESSIONS_CONFLATED.sum(),
+        "tier",
+        SessionWriteQueue.Tier.CONFLATED.name());
+    writer.sample(
+        "epics2web_slow_consumer_escalations_total",
+        Metrics.SESSIONS_THROTTLED.sum(),
+        "tier",
+        SessionWriteQueue.Tier.THROTTLED.name());
+    writer.sample(
+        "epics2web_slow_consumer_escalations_total",
+        Metrics.SESSIONS_CLOSED_SLOW.sum(),
+        "tier",
+        SessionWriteQueue.Tier.CLOSED.name());
+
+    writer.family("epics2web_sessions_by_tier", "gauge", "Web socket sessions by delivery tier");
+    for (Map.Entry<SessionWriteQueue.Tier, Integer> entry :
+        sessionManager.getTierCounts().entrySet()) {
+      writer.sample(
+          "epics2web_sessions_by_tier", entry.getValue(), "tier", entry.getKey().name());
+    }
+
+    writer.latency(
+        "epics2web_update_latency_seconds",
+        "Update latency from CA callback to write queue removal (queue), queue removal to write"
+            + " complete (send), and CA callback to write complete (total)",
+        "stage",
+        new String[] {"queue", "send", "total"},
+        new LatencyHistogram[] {
+          Metrics.UPDATE_QUEUE_LATENCY, Metrics.UPDATE_SEND_LATENCY, Metrics.UPDATE_TOTAL_LATENCY
+        });
+
+    response.setContentType(PrometheusWriter.CONTENT_TYPE);
+
+    PrintWriter pw = response.getWriter();
+
+    pw.write(writer.toString());
+
+    pw.flush();
+
+    boolean error = pw.checkError();
+
+    if (error) {
+      LOGGER.log(Level.SEVERE, "PrintWriter Error");
+    }
+  }
+}
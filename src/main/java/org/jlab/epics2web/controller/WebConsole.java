@@ -11,8 +11,11 @@ import java.util.Set;
 import org.jlab.epics2web.Application;
 import org.jlab.epics2web.epics.ChannelManager;
 import org.jlab.epics2web.epics.ChannelMonitor;
+import org.jlab.epics2web.metrics.LatencyHistogram;
+import org.jlab.epics2web.metrics.Metrics;
 import org.jlab.epics2web.websocket.SessionInfo;
 import org.jlab.epics2web.websocket.WebSocketSessionManager;
+import org.jlab.util.LockAcquisitionTimeoutException;
 
 /**
  * Controller for the Console page.
@@ -40,11 +43,26 @@ public class WebConsole extends HttpServlet {
       throws ServletException, IOException {
 
     Map<String, ChannelMonitor> monitorMap = channelManager.getMonitorMap();
-    Map<SessionInfo, Set<String>> clientMap = sessionManager.getClientMap();
+    Map<SessionInfo, Set<String>> clientMap;
+
+    try {
+      clientMap = sessionManager.getClientMap();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServletException("Interrupted while obtaining client map", e);
+    } catch (LockAcquisitionTimeoutException e) {
+      throw new ServletException("Unable to obtain client map", e);
+    }
 
     request.setAttribute("monitorMap", monitorMap);
     request.setAttribute("clientMap", clientMap);
 
+    LatencyHistogram latency = Metrics.UPDATE_TOTAL_LATENCY;
+    request.setAttribute("latencyCount", latency.getCount());
+    request.setAttribute("latencyP50Millis", latency.getMillisAtQuantile(0.5));
+    request.setAttribute("latencyP99Millis", latency.getMillisAtQuantile(0.99));
+    request.setAttribute("latencyP999Millis", latency.getMillisAtQuantile(0.999));
+
     request.getRequestDispatcher("/WEB-INF/views/console.jsp").forward(request, response);
   }
 }
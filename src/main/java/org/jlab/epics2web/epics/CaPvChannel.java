@@ -0,0 +1,226 @@
+package org.jlab.epics2web.epics;
+
+import com.cosylab.epics.caj.CAJChannel;
+import com.cosylab.epics.caj.CAJContext;
+import gov.aps.jca.CAException;
+import gov.aps.jca.Monitor;
+import gov.aps.jca.dbr.DBRType;
+import gov.aps.jca.dbr.DBR_LABELS_Enum;
+import gov.aps.jca.event.ConnectionEvent;
+import gov.aps.jca.event.ConnectionListener;
+import gov.aps.jca.event.GetEvent;
+import gov.aps.jca.event.GetListener;
+import gov.aps.jca.event.MonitorEvent;
+import gov.aps.jca.event.MonitorListener;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An EPICS Channel Access channel. Handles connect, reconnect, and enum label fetch, and creates a
+ * single CA monitor which is reused across reconnects.
+ */
+class CaPvChannel implements PvChannel {
+
+  private static final Logger LOGGER = Logger.getLogger(CaPvChannel.class.getName());
+
+  private Monitor monitor =
+      null; // Keep track of singleton monitor to avoid creating multiple on reconnect after
+  // disconnect
+
+  private final CAJChannel channel;
+  private final CAJContext context;
+  private final ScheduledExecutorService timeoutExecutor;
+  private final ExecutorService callbackExecutor;
+  private final PvChannelHandler handler;
+  private final String pv;
+
+  CaPvChannel(
+      String pv,
+      PvChannelHandler handler,
+      CAJContext context,
+      ScheduledExecutorService timeoutExecutor,
+      ExecutorService callbackExecutor)
+      throws CAException {
+    this.pv = pv;
+    this.handler = handler;
+    this.context = context;
+    this.timeoutExecutor = timeoutExecutor;
+    this.callbackExecutor = callbackExecutor;
+
+    channel = (CAJChannel) context.createChannel(pv, new ChannelConnectionListener());
+    context.flushIO();
+  }
+
+  @Override
+  public String getHost() {
+    try {
+      return channel.getHostName();
+    } catch (IllegalStateException e) { // Destroyed
+      return null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      // channel.destroy(); // method is unsafe (can deadlock)
+      // so use context method instead
+      context.destroyChannel(
+          channel, false); // Don't force because ChannelManager.get() also uses same context!
+    } catch (CAException e) {
+      throw new IOException("Unable to close channel", e);
+    }
+  }
+
+  /** Private inner helper class to respond to connection status changes. */
+  private class ChannelConnectionListener implements ConnectionListener {
+
+    /**
+     * Handle a connection event.
+     *
+     * @param ce The ConnectionEvent
+     */
+    @Override
+    public void connectionChanged(ConnectionEvent ce) {
+      // Action sometimes calls back into CA lib, which isn't re-entrant so we use a separate thread
+      callbackExecutor.submit(
+          new Runnable() {
+            @Override
+            public void run() {
+              LOGGER.log(
+                  Level.FINEST,
+                  "Channel {0} Connection Changed - Connected: {1}",
+                  new Object[] {pv, ce.isConnected()});
+
+              try {
+                if (ce.isConnected()) {
+                  DBRType type = channel.getFieldType();
+
+                  if (type == DBRType.ENUM) {
+                    handleEnumConnection();
+                  } else {
+                    handleRegularConnectionOrReconnect(null);
+                  }
+                } else {
+                  LOGGER.log(Level.FINEST, "Notifying clients of disconnect from channel: {0}", pv);
+
+                  handler.disconnected();
+                }
+              } catch (CAException e) {
+                LOGGER.log(Level.SEVERE, "Unable to monitor channel", e);
+                handler.disconnected();
+              }
+            }
+          });
+    }
+
+    /**
+     * Setup a connection or reconnect.
+     *
+     * @param enumLabels The enum labels if datatype is ENUM, null otherwise
+     * @throws IllegalStateException If unable to initialize
+     * @throws CAException If unable to initialize
+     */
+    private void handleRegularConnectionOrReconnect(String[] enumLabels)
+        throws IllegalStateException, CAException {
+      // We generally don't handle arrays,
+      // except for BYTE[], where we assume a "long string"
+      int count = 1;
+      if (channel.getFieldType().isBYTE() && channel.getElementCount() > 1)
+        count = channel.getElementCount();
+
+      // Only create monitor on first connect, afterward reconnect uses same old monitor
+      synchronized (this) {
+        if (monitor == null) {
+          LOGGER.log(Level.FINEST, "Creating {0} Channel Monitor", pv);
+          monitor =
+              channel.addMonitor(
+                  channel.getFieldType(), count, Monitor.VALUE, new ChannelMonitorListener());
+          context.flushIO();
+        } else {
+          LOGGER.log(Level.FINEST, "Reusing existing {0} Channel Monitor", pv);
+        }
+      }
+
+      handler.connected(channel.getFieldType(), channel.getElementCount(), enumLabels);
+    }
+
+    /**
+     * Setup an enum connection. A connection of an enum-valued PV requires additional metadata -
+     * the enum labels.
+     *
+     * @throws IllegalStateException If unable to initialize
+     * @throws CAException If unable to initialize
+     */
+    private void handleEnumConnection() throws IllegalStateException, CAException {
+      LOGGER.log(Level.FINEST, "Fetching enum labels for {0}", pv);
+      channel.get(DBRType.LABELS_ENUM, 1, new TimedChannelEnumGetListener());
+
+      context.flushIO();
+    }
+
+    /** A private inner class to respond to an enum label caget. */
+    private class TimedChannelEnumGetListener implements GetListener {
+
+      private final ScheduledFuture future;
+
+      public TimedChannelEnumGetListener() {
+        future =
+            timeoutExecutor.schedule(
+                new Callable<Void>() {
+                  @Override
+                  public Void call() throws Exception {
+                    handler.disconnected();
+
+                    return null;
+                  }
+                },
+                ChannelMonitor.TIMEOUT_MILLIS,
+                TimeUnit.MILLISECONDS);
+      }
+
+      @Override
+      public void getCompleted(GetEvent ge) {
+        // Action sometimes calls back into CA lib, which isn't re-entrant so we use a separate
+        // thread
+        callbackExecutor.submit(
+            new Runnable() {
+              @Override
+              public void run() {
+                future.cancel(false);
+                DBR_LABELS_Enum labelRecord = (DBR_LABELS_Enum) ge.getDBR();
+
+                try {
+                  handleRegularConnectionOrReconnect(labelRecord.getLabels());
+                } catch (Exception e) {
+                  LOGGER.log(Level.WARNING, "Unable to register monitor after enum label fetch", e);
+                }
+              }
+            });
+      }
+    }
+  }
+
+  /** Private inner class to handle monitor callbacks. */
+  private class ChannelMonitorListener implements MonitorListener {
+
+    /**
+     * Handles a monitor event.
+     *
+     * @param me The MonitorEvent
+     */
+    @Override
+    public void monitorChanged(MonitorEvent me) {
+      // Make sure handlers do not call back into CA lib on this callback thread.
+      // We could call in separate thread, but that's costly and then you must
+      // then be careful not to pass dbr out-of-order
+      handler.update(me.getDBR(), System.nanoTime());
+    }
+  }
+}
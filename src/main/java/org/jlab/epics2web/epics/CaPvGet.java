@@ -0,0 +1,166 @@
+package org.jlab.epics2web.epics;
+
+import com.cosylab.epics.caj.CAJChannel;
+import com.cosylab.epics.caj.CAJContext;
+import gov.aps.jca.CAException;
+import gov.aps.jca.TimeoutException;
+import gov.aps.jca.dbr.DBR;
+import gov.aps.jca.dbr.DBRType;
+import gov.aps.jca.event.ConnectionEvent;
+import gov.aps.jca.event.ConnectionListener;
+import gov.aps.jca.event.GetEvent;
+import gov.aps.jca.event.GetListener;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A one-time asynchronous Channel Access read of a single PV. Creates a channel, issues a get once
+ * it connects, and destroys the channel when the get completes, fails, or times out. Unlike the
+ * blocking get, no thread waits on pendIO.
+ */
+class CaPvGet implements ConnectionListener, GetListener {
+
+  private static final Logger LOGGER = Logger.getLogger(CaPvGet.class.getName());
+
+  private final String pv;
+  private final boolean enumLabel;
+  private final CAJContext context;
+  private final ExecutorService callbackExecutor;
+  private final CompletableFuture<DBR> future = new CompletableFuture<>();
+  private final AtomicBoolean requested = new AtomicBoolean(false);
+  private final AtomicBoolean destroyed = new AtomicBoolean(false);
+  private final ScheduledFuture<?> timeout;
+  private volatile CAJChannel channel;
+
+  /**
+   * Create the channel and start the read. The caller must flush IO.
+   *
+   * @param pv The PV name
+   * @param enumLabel true if result should be enum label (ignored if not of type enum); false for
+   *     numeric value
+   * @param context EPICS channel access context
+   * @param timeoutExecutor Thread pool for the read timeout
+   * @param callbackExecutor Thread pool for calls back into CA, which isn't re-entrant
+   * @param timeoutMillis How long to wait for the value
+   */
+  CaPvGet(
+      String pv,
+      boolean enumLabel,
+      CAJContext context,
+      ScheduledExecutorService timeoutExecutor,
+      ExecutorService callbackExecutor,
+      long timeoutMillis) {
+    this.pv = pv;
+    this.enumLabel = enumLabel;
+    this.context = context;
+    this.callbackExecutor = callbackExecutor;
+
+    timeout =
+        timeoutExecutor.schedule(
+            () ->
+                fail(
+                    requested.get()
+                        ? new TimeoutException("Timeout getting channel " + pv)
+                        : new ConnectTimeoutException("Timeout connecting to channel " + pv)),
+            timeoutMillis,
+            TimeUnit.MILLISECONDS);
+
+    try {
+      channel = (CAJChannel) context.createChannel(pv, this);
+    } catch (CAException | RuntimeException e) {
+      fail(new CAException("Could not create channel " + pv, e));
+    }
+
+    if (future.isDone()) { // Timed out before the channel was assigned
+      runInBackground(this::destroy);
+    }
+  }
+
+  /**
+   * Return the value, which completes exceptionally if the read fails or times out.
+   *
+   * @return The future value
+   */
+  CompletableFuture<DBR> getFuture() {
+    return future;
+  }
+
+  @Override
+  public void connectionChanged(ConnectionEvent ce) {
+    if (ce.isConnected() && requested.compareAndSet(false, true)) {
+      // May connect before createChannel returns, so take the channel from the event
+      CAJChannel c = (CAJChannel) ce.getSource();
+
+      // Calling back into CA lib on its own callback thread isn't safe
+      runInBackground(() -> requestValue(c));
+    }
+  }
+
+  @Override
+  public void getCompleted(GetEvent ge) {
+    // Complete off the CA callback thread as whoever waits on the future continues on this thread
+    runInBackground(
+        () -> {
+          if (ge.getStatus() != null && !ge.getStatus().isSuccessful()) {
+            fail(
+                new CAException(
+                    "Could not get channel " + pv + ": " + ge.getStatus().getMessage()));
+          } else {
+            timeout.cancel(false);
+            future.complete(ge.getDBR());
+            destroy();
+          }
+        });
+  }
+
+  private void requestValue(CAJChannel c) {
+    if (future.isDone()) {
+      return;
+    }
+
+    try {
+      if (enumLabel && c.getFieldType().isENUM()) {
+        c.get(DBRType.STRING, 1, this);
+      } else {
+        c.get(c.getFieldType(), c.getElementCount(), this);
+      }
+      context.flushIO();
+    } catch (CAException | RuntimeException e) {
+      fail(new CAException("Could not get channel " + pv, e));
+    }
+  }
+
+  private void fail(Exception e) {
+    timeout.cancel(false);
+    if (future.completeExceptionally(e)) {
+      runInBackground(this::destroy);
+    }
+  }
+
+  private void destroy() {
+    CAJChannel c = channel;
+
+    if (c != null && destroyed.compareAndSet(false, true)) {
+      try {
+        context.destroyChannel(c, false); // ChannelMonitor.close() also uses this context
+      } catch (CAException | RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Unable to destroy channel " + pv, e);
+      }
+    }
+  }
+
+  private void runInBackground(Runnable task) {
+    try {
+      callbackExecutor.execute(task);
+    } catch (RejectedExecutionException e) { // Shutting down
+      task.run();
+    }
+  }
+}
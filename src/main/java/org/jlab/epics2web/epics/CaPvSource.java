@@ -0,0 +1,140 @@
+package org.jlab.epics2web.epics;
+
+import com.cosylab.epics.caj.CAJChannel;
+import com.cosylab.epics.caj.CAJContext;
+import gov.aps.jca.CAException;
+import gov.aps.jca.TimeoutException;
+import gov.aps.jca.dbr.DBR;
+import gov.aps.jca.dbr.DBRType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The EPICS Channel Access PV source. Accepts any PV name so it should be the last source
+ * consulted.
+ */
+public class CaPvSource implements PvSource {
+
+  /** Name of the source reported in metrics. */
+  public static final String NAME = "ca";
+
+  /** Number of seconds to wait for IO operations before a timeout exception occurs. */
+  public static final double PEND_TIMEOUT_SECONDS = 2.0d;
+
+  private final CAJContext context;
+  private final ScheduledExecutorService timeoutExecutor;
+  private final ExecutorService callbackExecutor;
+
+  /**
+   * Create a new CaPvSource.
+   *
+   * @param context EPICS channel access context
+   * @param timeoutExecutor Thread pool for enum label fetch timeout
+   * @param callbackExecutor Thread pool for callbacks
+   */
+  public CaPvSource(
+      CAJContext context,
+      ScheduledExecutorService timeoutExecutor,
+      ExecutorService callbackExecutor) {
+    this.context = context;
+    this.timeoutExecutor = timeoutExecutor;
+    this.callbackExecutor = callbackExecutor;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public boolean accepts(String pv) {
+    return true;
+  }
+
+  @Override
+  public PvChannel createChannel(String pv, PvChannelHandler handler) throws CAException {
+    return new CaPvChannel(pv, handler, context, timeoutExecutor, callbackExecutor);
+  }
+
+  @Override
+  public List<DBR> get(String[] pvs, boolean enumLabel) throws CAException, TimeoutException {
+
+    List<DBR> dbrList = new ArrayList<>();
+
+    if (pvs != null && pvs.length > 0) {
+      CAJChannel[] channels = new CAJChannel[pvs.length];
+
+      try {
+        for (int i = 0; i < pvs.length; i++) {
+          channels[i] = (CAJChannel) context.createChannel(pvs[i]);
+        }
+
+        context.pendIO(PEND_TIMEOUT_SECONDS);
+
+        for (int i = 0; i < pvs.length; i++) {
+          dbrList.add(doGet(channels[i], enumLabel));
+        }
+
+        context.pendIO(PEND_TIMEOUT_SECONDS);
+      } finally {
+        for (int i = 0; i < pvs.length; i++) {
+          if (channels[i] != null) {
+            context.destroyChannel(
+                channels[i], false); // ChannelMonitor.close() also uses this context so don't force
+            // channels[i].destroy(); // This can deadlock
+          }
+        }
+      }
+    }
+
+    return dbrList;
+  }
+
+  @Override
+  public List<CompletableFuture<DBR>> getAsync(String[] pvs, boolean enumLabel) {
+    List<CompletableFuture<DBR>> futures = new ArrayList<>();
+
+    for (String pv : pvs) {
+      CaPvGet get =
+          new CaPvGet(
+              pv,
+              enumLabel,
+              context,
+              timeoutExecutor,
+              callbackExecutor,
+              (long) (PEND_TIMEOUT_SECONDS * 1000));
+      futures.add(get.getFuture());
+    }
+
+    try {
+      context.flushIO();
+    } catch (CAException | RuntimeException e) {
+      CAException wrapped = new CAException("Unable to flush IO", e);
+      for (CompletableFuture<DBR> future : futures) {
+        future.completeExceptionally(wrapped);
+      }
+    }
+
+    return futures;
+  }
+
+  private DBR doGet(CAJChannel channel, boolean enumLabel) throws CAException {
+    DBR dbr;
+
+    try {
+      if (enumLabel && channel.getFieldType().isENUM()) {
+        dbr = channel.get(DBRType.STRING, 1);
+      } else {
+        dbr = channel.get();
+      }
+    } catch (Exception e) { // wrap and add channel name to help with debugging (catch runtime
+      // IllegalStateException).
+      throw new CAException("Could not get channel " + channel.getName(), e);
+    }
+
+    return dbr;
+  }
+}
@@ -1,43 +1,49 @@
 package org.jlab.epics2web.epics;
 
-import com.cosylab.epics.caj.CAJChannel;
-import com.cosylab.epics.caj.CAJContext;
 import gov.aps.jca.CAException;
 import gov.aps.jca.TimeoutException;
 import gov.aps.jca.dbr.DBR;
-import gov.aps.jca.dbr.DBRType;
 import jakarta.json.JsonObjectBuilder;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.jlab.epics2web.metrics.Metrics;
+import org.jlab.util.IntHashSet;
 import org.jlab.util.LockAcquisitionTimeoutException;
 
 public class ChannelManager {
 
-  /** Number of seconds to wait for IO operations before a timeout exception occurs. */
-  public static final double PEND_TIMEOUT_SECONDS = 2.0d;
-
   private static final Logger LOGGER = Logger.getLogger(ChannelManager.class.getName());
 
   private final Map<String, ChannelMonitor> monitorMap = new ConcurrentHashMap<>();
-  private final Map<PvListener, Set<String>> clientMap = new ConcurrentHashMap<>();
+  /* Subscriptions are stored as PV ids; sets are only accessed while holding managerLock */
+  private final Map<PvListener, IntHashSet> clientMap = new ConcurrentHashMap<>();
+  private final PvRegistry registry = new PvRegistry();
 
-  private volatile CAJContext context;
+  private final List<PvSource> sources;
   private final ScheduledExecutorService timeoutExecutor;
   private final ExecutorService callbackExecutor;
+  private final UpdateDispatcher dispatcher;
+  private final InfoBatcher batcher;
+  private final NegativeCache negativeCache;
 
   private final ReentrantLock managerLock = new ReentrantLock();
 
@@ -50,20 +56,48 @@ public class ChannelManager {
   /** After 15 minutes we assume better to leak resource than stay stuck */
   private final long CLEANUP_RESOURCE_TIMEOUT_SECONDS = 900;
 
+  /**
+   * Connection changes on the same IOC within this window are reported together; long enough to
+   * catch most of an IOC's channels reconnecting after a reboot, short enough to go unnoticed.
+   */
+  private static final long INFO_BATCH_WINDOW_MILLIS = 100;
+
+  private static final int NEGATIVE_CACHE_MAX_ENTRIES = 100_000;
+
   /**
    * Create a new ChannelMonitorManager.
    *
-   * @param context EPICS channel access context
+   * @param sources PV sources, consulted in order; the first that accepts a PV name is used
    * @param timeoutExecutor Thread pool for connection timeout
    * @param callbackExecutor Thread pool for callbacks
+   * @param dispatcher Notifies listeners of updates off the source callback threads, or null to
+   *     notify them on the callback threads
+   * @param negativeCacheInitialBackoffSeconds A PV that fails to connect is searched for again
+   *     after this long, doubling with each failure up to the max; 0 to keep searching for PVs that
+   *     don't connect for as long as they are monitored
+   * @param negativeCacheMaxBackoffSeconds The longest wait between searches for a PV that fails to
+   *     connect; this is also how long a PV can go unnoticed after its IOC comes back
    */
   public ChannelManager(
-      CAJContext context,
+      List<PvSource> sources,
       ScheduledExecutorService timeoutExecutor,
-      ExecutorService callbackExecutor) {
-    this.context = context;
+      ExecutorService callbackExecutor,
+      UpdateDispatcher dispatcher,
+      long negativeCacheInitialBackoffSeconds,
+      long negativeCacheMaxBackoffSeconds) {
+    this.sources = List.copyOf(sources);
     this.timeoutExecutor = timeoutExecutor;
     this.callbackExecutor = callbackExecutor;
+    this.dispatcher = dispatcher;
+    this.batcher = new InfoBatcher(timeoutExecutor, callbackExecutor, INFO_BATCH_WINDOW_MILLIS);
+    this.negativeCache =
+        negativeCacheInitialBackoffSeconds <= 0
+            ? null
+            : new NegativeCache(
+                TimeUnit.SECONDS.toNanos(negativeCacheInitialBackoffSeconds),
+                TimeUnit.SECONDS.toNanos(
+                    Math.max(negativeCacheInitialBackoffSeconds, negativeCacheMaxBackoffSeconds)),
+                NEGATIVE_CACHE_MAX_ENTRIES);
   }
 
   public static String getDbrValueAsString(DBR dbr) {
@@ -180,65 +214,140 @@ public class ChannelManager {
   }
 
   /**
-   * Perform a synchronous (blocking) CA-GET request of the given PVs.
+   * Perform a synchronous (blocking) get of the given PVs. Waits on getAsync, so monitored PVs are
+   * answered from their latest value and PVs that recently failed to connect fail fast.
    *
-   * @param pvs The EPICS CA PV names
+   * @param pvs The PV names
    * @param enumLabel true if result should be enum label (ignored if not of type enum); false for
    *     numeric value
-   * @return The EPICS DataBaseRecord
-   * @throws CAException If unable to perform the CA-GET due to IO
-   * @throws TimeoutException If unable to perform the CA-GET in a timely fashion
+   * @return The EPICS DataBaseRecords, in the same order as the PV names
+   * @throws CAException If unable to perform the get due to IO
+   * @throws TimeoutException If unable to perform the get in a timely fashion
    */
   public List<DBR> get(String[] pvs, boolean enumLabel) throws CAException, TimeoutException {
-
-    // TODO: If we were really clever we could check if a PV is currently being monitored and just
-    // return the most recent value.
     List<DBR> dbrList = new ArrayList<>();
 
     if (pvs != null && pvs.length > 0) {
-      CAJChannel[] channels = new CAJChannel[pvs.length];
+      // Every source read has its own timeout so waiting without one always ends
+      for (CompletableFuture<DBR> future : getAsync(pvs, enumLabel)) {
+        try {
+          dbrList.add(future.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new CAException("Interrupted waiting for get", e);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+
+          if (cause instanceof TimeoutException) {
+            throw (TimeoutException) cause;
+          } else if (cause instanceof CAException) {
+            throw (CAException) cause;
+          }
 
-      try {
-        for (int i = 0; i < pvs.length; i++) {
-          channels[i] = (CAJChannel) context.createChannel(pvs[i]);
+          throw new CAException("Unable to get", cause);
         }
+      }
+    }
 
-        context.pendIO(PEND_TIMEOUT_SECONDS);
+    return dbrList;
+  }
 
-        for (int i = 0; i < pvs.length; i++) {
-          dbrList.add(doGet(channels[i], enumLabel));
-        }
+  /**
+   * Perform an asynchronous get of the given PVs, with each PV succeeding or failing on its own.
+   * PVs that are already monitored are answered with their latest value. The rest are grouped by
+   * source and each source is asked for its PVs in a single batch.
+   *
+   * @param pvs The PV names
+   * @param enumLabel true if result should be enum label (ignored if not of type enum); false for
+   *     numeric value
+   * @return The future EPICS DataBaseRecords, in the same order as the PV names
+   */
+  public List<CompletableFuture<DBR>> getAsync(String[] pvs, boolean enumLabel) {
+    List<CompletableFuture<DBR>> futures = new ArrayList<>();
+    Map<PvSource, List<Integer>> indexMap = new LinkedHashMap<>();
+
+    for (int i = 0; i < pvs.length; i++) {
+      ChannelMonitor monitor = monitorMap.get(pvs[i]);
+      DBR cached = monitor == null ? null : monitor.getCachedValue(enumLabel);
+
+      if (cached != null) {
+        futures.add(CompletableFuture.completedFuture(cached));
+        Metrics.GET_VALUES_CACHED.increment();
+        continue;
+      }
 
-        context.pendIO(PEND_TIMEOUT_SECONDS);
-      } finally {
-        for (int i = 0; i < pvs.length; i++) {
-          if (channels[i] != null) {
-            context.destroyChannel(
-                channels[i], false); // ChannelMonitor.close() also uses this context so don't force
-            // channels[i].destroy(); // This can deadlock
-          }
-        }
+      long retryNanos =
+          negativeCache == null ? 0 : negativeCache.getRetryDelayNanos(pvs[i], System.nanoTime());
+
+      if (retryNanos > 0) {
+        CompletableFuture<DBR> future = new CompletableFuture<>();
+        future.completeExceptionally(
+            new CAException(
+                "Channel "
+                    + pvs[i]
+                    + " failed to connect recently; next attempt in "
+                    + TimeUnit.NANOSECONDS.toSeconds(retryNanos)
+                    + " seconds"));
+        futures.add(future);
+        Metrics.NEGATIVE_CACHE_HITS.increment();
+        continue;
+      }
+
+      futures.add(null); // Filled in below
+      try {
+        indexMap.computeIfAbsent(getSource(pvs[i]), k -> new ArrayList<>()).add(i);
+      } catch (CAException e) {
+        CompletableFuture<DBR> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        futures.set(i, future);
       }
     }
 
-    return dbrList;
-  }
+    for (Map.Entry<PvSource, List<Integer>> entry : indexMap.entrySet()) {
+      List<Integer> indexes = entry.getValue();
+      String[] subset = new String[indexes.size()];
 
-  private DBR doGet(CAJChannel channel, boolean enumLabel) throws CAException {
-    DBR dbr;
+      for (int i = 0; i < subset.length; i++) {
+        subset[i] = pvs[indexes.get(i)];
+      }
 
-    try {
-      if (enumLabel && channel.getFieldType().isENUM()) {
-        dbr = channel.get(DBRType.STRING, 1);
-      } else {
-        dbr = channel.get();
+      List<CompletableFuture<DBR>> result = entry.getKey().getAsync(subset, enumLabel);
+
+      for (int i = 0; i < subset.length; i++) {
+        String pv = subset[i];
+        futures.set(
+            indexes.get(i),
+            result
+                .get(i)
+                .whenComplete(
+                    (dbr, e) -> {
+                      if (e instanceof ConnectTimeoutException && negativeCache != null) {
+                        negativeCache.recordFailure(pv, System.nanoTime());
+                      }
+                    }));
       }
-    } catch (Exception e) { // wrap and add channel name to help with debugging (catch runtime
-      // IllegalStateException).
-      throw new CAException("Could not get channel " + channel.getName(), e);
+
+      Metrics.GET_VALUES_READ.add(subset.length);
     }
 
-    return dbr;
+    return futures;
+  }
+
+  /**
+   * Return the first source that accepts the given PV.
+   *
+   * @param pv The PV name
+   * @return The PV source
+   * @throws CAException If no source accepts the PV
+   */
+  private PvSource getSource(String pv) throws CAException {
+    for (PvSource source : sources) {
+      if (source.accepts(pv)) {
+        return source;
+      }
+    }
+
+    throw new CAException("No PV source accepts " + pv);
   }
 
   /**
@@ -252,32 +361,108 @@ public class ChannelManager {
    */
   public void addPv(PvListener listener, String pv)
       throws InterruptedException, CAException, LockAcquisitionTimeoutException {
+    ChannelMonitor monitor = attachPv(listener, pv);
+
+    // EXTERNAL NO LOCK
+    monitor.notifyAttached(listener);
+  }
+
+  /**
+   * Registers PV monitors on the supplied PVs for the given listener, as with addPv. Instead of an
+   * info and update per PV, the listener is sent a single snapshot of every PV that has already
+   * connected (or failed to) once all are registered; PVs still connecting are reported as they
+   * resolve.
+   *
+   * @param listener The PvListener to receive notifications
+   * @param pvs The PVs to monitor
+   * @return a map of PV names to Exceptions for any PVs that were unable to be added
+   */
+  public Map<String, Exception> addPvs(PvListener listener, Collection<String> pvs) {
+    Map<String, Exception> failed = new HashMap<>();
+    List<ChannelMonitor> attached = new ArrayList<>(pvs.size());
+
+    for (String pv : pvs) {
+      try {
+        attached.add(attachPv(listener, pv));
+      } catch (InterruptedException | CAException | LockAcquisitionTimeoutException e) {
+        failed.put(pv, e);
+      }
+    }
+
+    // EXTERNAL NO LOCK; snapshot last so values are as fresh as possible
+    List<PvSnapshot> snapshots = new ArrayList<>(attached.size());
+
+    for (ChannelMonitor monitor : attached) {
+      PvSnapshot snapshot = monitor.getSnapshot();
+      if (snapshot != null) {
+        snapshots.add(snapshot);
+      }
+    }
+
+    if (!snapshots.isEmpty()) {
+      listener.notifyPvSnapshot(snapshots);
+    }
+
+    return failed;
+  }
+
+  /**
+   * Attach the listener to the PV's monitor, creating the monitor if needed, without notifying the
+   * listener of anything.
+   *
+   * @param listener The PvListener
+   * @param pv The PV
+   * @return The monitor
+   */
+  private ChannelMonitor attachPv(PvListener listener, String pv)
+      throws InterruptedException, CAException, LockAcquisitionTimeoutException {
     LOGGER.log(Level.FINEST, "addPv: {0} {1}", new Object[] {listener, pv});
     ChannelMonitor monitor = null;
-    monitor = monitorMap.get(pv);
 
     // INTERNAL HOLDING LOCK
-    if (managerLock.tryLock(ACQUIRE_RESOURCE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+    if (tryLockTimed(ACQUIRE_RESOURCE_TIMEOUT_SECONDS)) {
       try {
+        // Look up under the lock so we never join a monitor that is being torn down
+        monitor = monitorMap.get(pv);
+        int id = registry.acquire(pv);
+        String name = registry.getName(id); // Share one String instance per PV
+
         if (monitor == null) {
           // LOGGER.log(Level.FINEST, "Opening ChannelMonitor: {0}", pv);
           // HERE IS THE HEAVYWEIGHT ACTION: It's an async create channel request, but is still
           // bottleneck; We're holding a lock while we wait...
-          monitor = new ChannelMonitor(pv, context, timeoutExecutor, callbackExecutor);
-          monitorMap.put(pv, monitor);
+          try {
+            monitor =
+                new ChannelMonitor(
+                    name,
+                    getSource(name),
+                    timeoutExecutor,
+                    callbackExecutor,
+                    dispatcher,
+                    batcher,
+                    negativeCache);
+          } catch (CAException | RuntimeException e) {
+            registry.release(id);
+            throw e;
+          }
+          monitorMap.put(name, monitor);
         } else {
           // LOGGER.log(Level.FINEST, "Joining ChannelMonitor: {0}", pv);
         }
 
-        Set<String> clientPvSet = clientMap.get(listener);
+        IntHashSet clientPvSet = clientMap.get(listener);
 
         if (clientPvSet == null) {
-          clientPvSet = new HashSet<>();
+          clientPvSet = new IntHashSet();
+          clientMap.put(listener, clientPvSet);
         }
 
-        clientPvSet.add(pv);
+        if (!clientPvSet.add(id)) {
+          registry.release(id); // Already subscribed; only one reference per subscription
+        }
 
-        clientMap.put(listener, clientPvSet);
+        // Attach under the lock so a concurrent remove can't close the monitor out from under us
+        monitor.attach(listener);
       } finally {
         managerLock.unlock();
       }
@@ -285,8 +470,7 @@ public class ChannelManager {
       throw new LockAcquisitionTimeoutException("Timeout while acquiring managerLock in addPv");
     }
 
-    // EXTERNAL NO LOCK
-    monitor.addListener(listener);
+    return monitor;
   }
 
   /**
@@ -307,7 +491,7 @@ public class ChannelManager {
     }
 
     // INTERNAL HOLDING LOCK
-    if (managerLock.tryLock(CLEANUP_RESOURCE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+    if (tryLockTimed(CLEANUP_RESOURCE_TIMEOUT_SECONDS)) {
       if (monitor != null) {
         listenerCount = monitor.getListenerCount();
         if (listenerCount == 0) {
@@ -316,10 +500,11 @@ public class ChannelManager {
       }
 
       try {
-        Set<String> clientPvSet = clientMap.get(listener);
+        IntHashSet clientPvSet = clientMap.get(listener);
+        int id = registry.getId(pv);
 
-        if (clientPvSet != null) {
-          clientPvSet.remove(pv);
+        if (clientPvSet != null && id >= 0 && clientPvSet.remove(id)) {
+          registry.release(id);
         }
       } finally {
         managerLock.unlock();
@@ -339,29 +524,107 @@ public class ChannelManager {
   }
 
   /**
-   * Removes the specified listener and unregisters any PVs the listener was interested in.
+   * Try to acquire the manager lock, recording the time spent waiting for it.
+   *
+   * @param timeoutSeconds Max seconds to wait
+   * @return true if the lock was acquired
+   * @throws InterruptedException If interrupted while waiting
+   */
+  private boolean tryLockTimed(long timeoutSeconds) throws InterruptedException {
+    long start = System.nanoTime();
+    try {
+      return managerLock.tryLock(timeoutSeconds, TimeUnit.SECONDS);
+    } finally {
+      Metrics.MANAGER_LOCK_WAIT.recordSince(start);
+    }
+  }
+
+  /**
+   * Removes the specified listener and unregisters any PVs the listener was interested in. The
+   * listener is detached from all of its monitors in one pass under a single lock acquisition, and
+   * monitors left with no listeners are closed in the background.
    *
    * @param listener The PvListener
-   * @return a map of PV names to Exceptions for any PVs that were unable to be removed
+   * @return a map of PV names to Exceptions for any PVs that were unable to be removed (keyed by
+   *     the listener instead if its PVs couldn't be determined)
    */
   public Map<String, Exception> removeAll(PvListener listener) {
     LOGGER.log(Level.FINEST, "removeAll: {0}", listener);
-    Set<String> pvSet = clientMap.remove(listener);
-
     Map<String, Exception> failed = new HashMap<>();
-    if (pvSet != null) {
-      for (String pv : pvSet) {
+    List<ChannelMonitor> unused = new ArrayList<>();
+
+    try {
+      // INTERNAL HOLDING LOCK
+      if (tryLockTimed(CLEANUP_RESOURCE_TIMEOUT_SECONDS)) {
         try {
-          removePv(listener, pv);
-        } catch (InterruptedException | LockAcquisitionTimeoutException e) {
-          failed.put(pv, e);
+          IntHashSet idSet = clientMap.remove(listener);
+
+          if (idSet != null) {
+            idSet.forEach(
+                id -> {
+                  String pv = registry.getName(id);
+                  registry.release(id);
+
+                  ChannelMonitor monitor = monitorMap.get(pv);
+                  if (monitor != null) {
+                    monitor.removeListener(listener);
+                    if (monitor.getListenerCount() == 0) {
+                      monitorMap.remove(pv);
+                      unused.add(monitor);
+                    }
+                  }
+                });
+          }
+        } finally {
+          managerLock.unlock();
         }
+      } else {
+        throw new LockAcquisitionTimeoutException(
+            "Timeout while acquiring managerLock in removeAll");
       }
+    } catch (InterruptedException | LockAcquisitionTimeoutException e) {
+      failed.put(String.valueOf(listener), e);
+    }
+
+    // EXTERNAL NO LOCK
+    if (!unused.isEmpty()) {
+      closeInBackground(unused);
     }
 
     return failed;
   }
 
+  /**
+   * Close monitors on the callback executor since closing a channel may block.
+   *
+   * @param monitors The monitors to close
+   */
+  private void closeInBackground(List<ChannelMonitor> monitors) {
+    Runnable teardown =
+        new Runnable() {
+          @Override
+          public void run() {
+            for (ChannelMonitor monitor : monitors) {
+              try {
+                monitor.close();
+              } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Unable to close monitor", e);
+              }
+            }
+          }
+        };
+
+    if (callbackExecutor == null) {
+      teardown.run();
+    } else {
+      try {
+        callbackExecutor.execute(teardown);
+      } catch (RejectedExecutionException e) { // Shutting down
+        teardown.run();
+      }
+    }
+  }
+
   /**
    * Returns a map of PVs to count of listeners for informational purposes.
    *
@@ -373,11 +636,144 @@ public class ChannelManager {
   }
 
   /**
-   * Returns an unmodifiable map of listeners to their PVs for informational purposes.
+   * Returns the number of callback tasks submitted but not yet completed (queued or running) for
+   * informational purposes.
+   *
+   * @return The callback backlog, or -1 if unknown
+   */
+  public long getCallbackBacklog() {
+    if (callbackExecutor instanceof ThreadPoolExecutor) {
+      ThreadPoolExecutor pool = (ThreadPoolExecutor) callbackExecutor;
+      return pool.getTaskCount() - pool.getCompletedTaskCount();
+    }
+
+    return -1;
+  }
+
+  /**
+   * Return the number of PVs the listener is subscribed to.
+   *
+   * @param listener The listener
+   * @return The number of PVs
+   * @throws InterruptedException If interrupted while waiting for the lock
+   * @throws LockAcquisitionTimeoutException If unable to obtain the lock in time
+   */
+  public int getPvCount(PvListener listener)
+      throws InterruptedException, LockAcquisitionTimeoutException {
+    // INTERNAL HOLDING LOCK
+    if (tryLockTimed(ACQUIRE_RESOURCE_TIMEOUT_SECONDS)) {
+      try {
+        IntHashSet clientPvSet = clientMap.get(listener);
+
+        return clientPvSet == null ? 0 : clientPvSet.size();
+      } finally {
+        managerLock.unlock();
+      }
+    } else {
+      throw new LockAcquisitionTimeoutException(
+          "Timeout while acquiring managerLock in getPvCount");
+    }
+  }
+
+  /**
+   * Return the current info and value of the given PVs, skipping any the listener is no longer
+   * subscribed to and any still connecting.
+   *
+   * @param listener The listener
+   * @param pvs The PVs
+   * @return The snapshots
+   * @throws InterruptedException If interrupted while waiting for the lock
+   * @throws LockAcquisitionTimeoutException If unable to obtain the lock in time
+   */
+  public List<PvSnapshot> getSnapshots(PvListener listener, Collection<String> pvs)
+      throws InterruptedException, LockAcquisitionTimeoutException {
+    List<ChannelMonitor> subscribed = new ArrayList<>(pvs.size());
+
+    // INTERNAL HOLDING LOCK
+    if (tryLockTimed(ACQUIRE_RESOURCE_TIMEOUT_SECONDS)) {
+      try {
+        IntHashSet clientPvSet = clientMap.get(listener);
+
+        if (clientPvSet != null) {
+          for (String pv : pvs) {
+            ChannelMonitor monitor = monitorMap.get(pv);
+            int id = registry.getId(pv);
+            if (monitor != null && id >= 0 && clientPvSet.contains(id)) {
+              subscribed.add(monitor);
+            }
+          }
+        }
+      } finally {
+        managerLock.unlock();
+      }
+    } else {
+      throw new LockAcquisitionTimeoutException(
+          "Timeout while acquiring managerLock in getSnapshots");
+    }
+
+    // EXTERNAL NO LOCK
+    List<PvSnapshot> snapshots = new ArrayList<>(subscribed.size());
+
+    for (ChannelMonitor monitor : subscribed) {
+      PvSnapshot snapshot = monitor.getSnapshot();
+      if (snapshot != null) {
+        snapshots.add(snapshot);
+      }
+    }
+
+    return snapshots;
+  }
+
+  /**
+   * Return the number of PV names remembered for failing to connect.
+   *
+   * @return The number of names, 0 if PVs that fail to connect aren't remembered
+   */
+  public int getNegativeCacheSize() {
+    return negativeCache == null ? 0 : negativeCache.size();
+  }
+
+  /**
+   * Returns a snapshot of listeners to their PVs for informational purposes. Only the ids are
+   * copied while holding the lock; names are looked up afterwards, so a PV cleared in between may
+   * be missing.
    *
    * @return The listener to PVs map
+   * @throws InterruptedException If interrupted while waiting for the lock
+   * @throws LockAcquisitionTimeoutException If unable to obtain the lock in time
    */
-  public Map<PvListener, Set<String>> getListenerMap() {
-    return Collections.unmodifiableMap(clientMap);
+  public Map<PvListener, Set<String>> getListenerMap()
+      throws InterruptedException, LockAcquisitionTimeoutException {
+    Map<PvListener, int[]> ids = new HashMap<>();
+
+    // INTERNAL HOLDING LOCK
+    if (tryLockTimed(ACQUIRE_RESOURCE_TIMEOUT_SECONDS)) {
+      try {
+        for (Map.Entry<PvListener, IntHashSet> entry : clientMap.entrySet()) {
+          ids.put(entry.getKey(), entry.getValue().toArray());
+        }
+      } finally {
+        managerLock.unlock();
+      }
+    } else {
+      throw new LockAcquisitionTimeoutException(
+          "Timeout while acquiring managerLock in getListenerMap");
+    }
+
+    // EXTERNAL NO LOCK
+    Map<PvListener, Set<String>> snapshot = new HashMap<>();
+
+    for (Map.Entry<PvListener, int[]> entry : ids.entrySet()) {
+      Set<String> pvSet = new HashSet<>();
+      for (int id : entry.getValue()) {
+        String pv = registry.getName(id);
+        if (pv != null) {
+          pvSet.add(pv);
+        }
+      }
+      snapshot.put(entry.getKey(), pvSet);
+    }
+
+    return snapshot;
   }
 }
@@ -1,26 +1,23 @@
 package org.jlab.epics2web.epics;
 
-import com.cosylab.epics.caj.CAJChannel;
-import com.cosylab.epics.caj.CAJContext;
 import gov.aps.jca.CAException;
-import gov.aps.jca.Monitor;
 import gov.aps.jca.dbr.DBR;
 import gov.aps.jca.dbr.DBRType;
-import gov.aps.jca.dbr.DBR_LABELS_Enum;
-import gov.aps.jca.event.ConnectionEvent;
-import gov.aps.jca.event.ConnectionListener;
-import gov.aps.jca.event.GetEvent;
-import gov.aps.jca.event.GetListener;
-import gov.aps.jca.event.MonitorEvent;
-import gov.aps.jca.event.MonitorListener;
+import gov.aps.jca.dbr.DBR_String;
+import gov.aps.jca.dbr.ENUM;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Date;
-import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.jlab.epics2web.metrics.Metrics;
+import org.jlab.util.ListenerSet;
 
 /**
  * Responsible for monitoring an EPICS channel and notifying registered listeners.
@@ -41,26 +38,43 @@ public class ChannelMonitor implements Closeable {
    */
   private volatile Date lastTimestamp = null;
 
+  private volatile long lastReceivedNanos = PvListener.NOT_TIMESTAMPED;
+
+  /* Host serving the channel as of the last connect, so disconnects are grouped with its peers */
+  private volatile String host = null;
+
+  /* Set when an update couldn't be dispatched; see UpdateDispatcher */
+  final AtomicBoolean resyncPending = new AtomicBoolean(false);
+
+  /* Batches holding connection info for this monitor; updates are withheld while non-zero */
+  final AtomicInteger infoPending = new AtomicInteger(0);
+
   private final AtomicReference<MonitorState> state =
       new AtomicReference<>(
           MonitorState
-              .CONNECTING); // We don't use CAJChannel.getConnectionState() because we want to still
+              .CONNECTING); // We don't use the channel connection state because we want to still
   // be "connecting" during enum label fetch
-  private final AtomicReference<String[]> enumLabels =
+  private final AtomicReference<ChannelInfo> info =
       new AtomicReference<>(
-          null); // volatile arrays are unsafe due to individual indicies so use AtomicReference
-  // instead
-  private Monitor monitor =
-      null; // Keep track of singleton monitor to avoid creating multiple on reconnect after
-  // disconnect
-
-  /*We use a thread-safe set for listeners so that adding/removing/iterating can be done safely*/
-  private final Set<PvListener> listeners = new CopyOnWriteArraySet<>();
-  private final CAJChannel channel;
-  private final CAJContext context;
+          null); // type, count, and labels are replaced together on each (re)connect
+
+  /*Thread-safe with O(1) add/remove and lock-free iteration, so hot PVs can have many listeners*/
+  private final ListenerSet<PvListener> listeners = new ListenerSet<>();
+  private final LongAdder eventCounter;
+  private final String pv;
+  private final PvSource source;
   private final ScheduledExecutorService timeoutExecutor;
   private final ExecutorService callbackExecutor;
-  private final String pv;
+  private final UpdateDispatcher dispatcher;
+  private final InfoBatcher batcher;
+  private final NegativeCache negativeCache;
+
+  /* Guards replacing the channel on retry against close; never held while notifying or closing */
+  private final Object channelLock = new Object();
+  private PvChannel channel; // Null while waiting to retry or once closed
+  private boolean closed = false;
+  private volatile ScheduledFuture<?> future; // Initial connection timeout of current attempt
+  private volatile ScheduledFuture<?> retryFuture;
 
   public enum MonitorState {
     CONNECTING,
@@ -69,48 +83,203 @@ public class ChannelMonitor implements Closeable {
   }
 
   /**
-   * Create a new ChannelMonitor for the given EPICS PV using the supplied CA Context.
+   * Create a new ChannelMonitor for the given PV using the supplied PV source.
    *
-   * <p>NOTE: Updates including metadata info, may be pushed to clients out-of-order, though this
-   * should be rare. Serializing CAJ callbacks up until the websocket write queue is costly and
-   * unnecessary. If updates come in quickly then an out-of-order update will soon be overwritten
-   * anyways. Worst case is probably metadata info during IOC disconnect and reconnect, especially
-   * for a client connecting to epics2web during a reconnect. Clients are encouraged to interpret a
-   * value update as meaning state connected in the event it arrives after a disconnected metadata
-   * update.
+   * <p>NOTE: With a dispatcher, updates for a PV are delivered to existing listeners in order by a
+   * single thread, and with a batcher updates are withheld until the connection info ahead of them
+   * is delivered. Without them, updates including metadata info, may be pushed to clients
+   * out-of-order, though this should be rare. Either way the initial info and value sent to a newly
+   * added listener may race with a concurrent event. If updates come in quickly then an
+   * out-of-order update will soon be overwritten anyways. Worst case is probably metadata info
+   * during IOC disconnect and reconnect, especially for a client connecting to epics2web during a
+   * reconnect. Clients are encouraged to interpret a value update as meaning state connected in the
+   * event it arrives after a disconnected metadata update.
    *
    * @param pv The PV name
-   * @param context The EPICS CA Context
+   * @param source The PV source
    * @param timeoutExecutor The thread pool to use for connection timeout
+   * @param callbackExecutor The thread pool abandoned channels are closed on, since closing may
+   *     block
+   * @param dispatcher The dispatcher listeners are notified of updates on, or null to notify them
+   *     on the source callback thread
+   * @param batcher Groups connection changes into batches by host, or null to notify listeners of
+   *     each change right away on the source callback thread
+   * @param negativeCache PVs that recently failed to connect, or null to keep searching for a PV
+   *     that doesn't connect for as long as it is monitored
    */
   public ChannelMonitor(
       String pv,
-      CAJContext context,
+      PvSource source,
       ScheduledExecutorService timeoutExecutor,
-      ExecutorService callbackExecutor)
+      ExecutorService callbackExecutor,
+      UpdateDispatcher dispatcher,
+      InfoBatcher batcher,
+      NegativeCache negativeCache)
       throws CAException {
     this.pv = pv;
-    this.context = context;
+    this.source = source;
     this.timeoutExecutor = timeoutExecutor;
     this.callbackExecutor = callbackExecutor;
+    this.dispatcher = dispatcher;
+    this.batcher = batcher;
+    this.negativeCache = negativeCache;
+    this.eventCounter = Metrics.contextEvents(source.getName());
+
+    long retryNanos =
+        negativeCache == null ? 0 : negativeCache.getRetryDelayNanos(pv, System.nanoTime());
+
+    if (retryNanos > 0) {
+      // Failed to connect recently; report disconnected right away and search again later
+      Metrics.NEGATIVE_CACHE_HITS.increment();
+      state.set(MonitorState.DISCONNECTED);
+      scheduleRetry(retryNanos);
+    } else {
+      connect();
+    }
+  }
+
+  /**
+   * Create the channel, and time out if it doesn't connect.
+   *
+   * @throws CAException If unable to create the channel
+   */
+  private void connect() throws CAException {
+    MonitorChannelHandler h = new MonitorChannelHandler();
+    ScheduledFuture<?> timeout =
+        timeoutExecutor.schedule(() -> timedOut(h), TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    future = timeout;
+
+    long start = System.nanoTime();
+    PvChannel c;
+    try {
+      c = source.createChannel(pv, h);
+    } catch (CAException | RuntimeException e) {
+      timeout.cancel(false);
+      throw e;
+    }
 
-    long start = System.currentTimeMillis();
-    channel = (CAJChannel) context.createChannel(pv, new TimedChannelConnectionListener());
-    context.flushIO();
-    long stop = System.currentTimeMillis();
-    float elapsedSeconds = (stop - start) / 1000.0f;
+    boolean wasClosed;
+    synchronized (channelLock) {
+      wasClosed = closed;
+      if (!wasClosed) {
+        channel = c;
+      }
+    }
+
+    if (wasClosed) { // Closed during a retry
+      timeout.cancel(false);
+      closeQuietly(c);
+      return;
+    }
+
+    long elapsedNanos = System.nanoTime() - start;
+    Metrics.CHANNEL_CREATE.record(elapsedNanos);
+    float elapsedSeconds = elapsedNanos / 1_000_000_000.0f;
     LOGGER.log(
         Level.FINEST, "Created channel {0} in {1} seconds", new Object[] {pv, elapsedSeconds});
   }
 
+  /**
+   * Called when a connection attempt times out. Listeners are told the PV is disconnected, and with
+   * a negative cache the channel is closed so it stops searching, to be retried after a backoff.
+   *
+   * @param h The handler of the attempt
+   */
+  private void timedOut(MonitorChannelHandler h) {
+    PvChannel abandoned = null;
+
+    synchronized (channelLock) {
+      if (closed || state.get() == MonitorState.CONNECTED) {
+        return;
+      }
+
+      if (negativeCache != null) {
+        h.abandoned = true; // Any late callbacks for this channel are ignored
+        abandoned = channel;
+        channel = null;
+      }
+    }
+
+    LOGGER.log(Level.FINE, "Unable to connect to channel {0} (timeout)", pv);
+
+    if (state.compareAndSet(MonitorState.CONNECTING, MonitorState.DISCONNECTED)) {
+      announce(false);
+    }
+
+    if (negativeCache != null) {
+      if (abandoned != null) {
+        closeInBackground(abandoned); // Not on the timeout thread, which many timers share
+      }
+
+      scheduleRetry(negativeCache.recordFailure(pv, System.nanoTime()));
+    }
+  }
+
+  private void closeInBackground(PvChannel c) {
+    try {
+      callbackExecutor.execute(() -> closeQuietly(c));
+    } catch (RejectedExecutionException e) { // Shutting down
+      closeQuietly(c);
+    }
+  }
+
+  private void closeQuietly(PvChannel c) {
+    try {
+      c.close();
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Unable to close channel " + pv, e);
+    }
+  }
+
+  private void scheduleRetry(long delayNanos) {
+    try {
+      retryFuture = timeoutExecutor.schedule(this::retry, delayNanos, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) { // Shutting down
+      LOGGER.log(Level.FINEST, "Not retrying channel {0}; shutting down", pv);
+    }
+  }
+
+  private void retry() {
+    synchronized (channelLock) {
+      if (closed) {
+        return;
+      }
+    }
+
+    try {
+      connect();
+    } catch (CAException | RuntimeException e) {
+      LOGGER.log(Level.FINE, "Unable to create channel " + pv, e);
+      scheduleRetry(negativeCache.recordFailure(pv, System.nanoTime()));
+    }
+  }
+
   /**
    * Add a new PvListener.
    *
    * @param listener The PvListener
    */
   public void addListener(PvListener listener) {
+    attach(listener);
+    notifyAttached(listener);
+  }
+
+  /**
+   * Add a PvListener without notifying it of the current state. Cheap enough to call while holding
+   * a lock; follow up with notifyAttached once the lock is released.
+   *
+   * @param listener The PvListener
+   */
+  void attach(PvListener listener) {
     listeners.add(listener);
+  }
 
+  /**
+   * Notify a newly attached PvListener of the current info and value, if known.
+   *
+   * @param listener The PvListener
+   */
+  void notifyAttached(PvListener listener) {
     switch (state.get()) {
       case CONNECTED:
         notifyPvInfo(listener, true);
@@ -118,7 +287,7 @@ public class ChannelMonitor implements Closeable {
         DBR dbr = lastDbr;
 
         if (dbr != null) {
-          notifyPvUpdate(listener, dbr);
+          notifyPvUpdate(listener, dbr, PvListener.NOT_TIMESTAMPED);
         }
         break;
       case DISCONNECTED:
@@ -147,6 +316,10 @@ public class ChannelMonitor implements Closeable {
     return listeners.size();
   }
 
+  String getPv() {
+    return pv;
+  }
+
   public MonitorState getState() {
     return state.get();
   }
@@ -167,246 +340,310 @@ public class ChannelMonitor implements Closeable {
   @Override
   public void close() throws IOException {
     // LOGGER.log(Level.FINEST, "close");
-    if (channel != null) {
-      try {
-        // channel.destroy(); // method is unsafe (can deadlock)
-        // so use context method instead
-        long start = System.currentTimeMillis();
-        context.destroyChannel(
-            channel, false); // Don't force because ChannelManager.get() also uses same context!
-        long stop = System.currentTimeMillis();
-        float elapsedSeconds = (stop - start) / 1000.0f;
-        LOGGER.log(
-            Level.FINEST, "Closed Channel {0} in {1} seconds", new Object[] {pv, elapsedSeconds});
-      } catch (CAException e) {
-        throw new IOException("Unable to close channel", e);
-      }
+    PvChannel c;
+
+    synchronized (channelLock) {
+      closed = true;
+      c = channel;
+      channel = null;
+    }
+
+    cancel(future);
+    cancel(retryFuture);
+
+    if (c != null) {
+      long start = System.nanoTime();
+      c.close();
+      long elapsedNanos = System.nanoTime() - start;
+      Metrics.CHANNEL_DESTROY.record(elapsedNanos);
+      float elapsedSeconds = elapsedNanos / 1_000_000_000.0f;
+      LOGGER.log(
+          Level.FINEST, "Closed Channel {0} in {1} seconds", new Object[] {pv, elapsedSeconds});
     }
   }
 
-  /** Notify all listeners of the channel info metadata. */
-  private void notifyPvInfoAll(boolean connected) {
-    for (PvListener l : listeners) {
-      notifyPvInfo(l, connected);
+  private static void cancel(ScheduledFuture<?> f) {
+    if (f != null) {
+      f.cancel(false);
     }
   }
 
   /**
-   * Notify a given listener of the channel info metadata.
+   * Notify listeners of a connection change; through the batcher if there is one.
    *
-   * @param listener The PvListener
+   * @param connected true if the channel connected, false otherwise
    */
-  private void notifyPvInfo(PvListener listener, boolean connected) {
-    DBRType type = null;
-    Integer count = null;
+  private void announce(boolean connected) {
+    if (batcher == null) {
+      notifyPvInfoAll(connected);
+    } else {
+      batcher.add(this, host);
+    }
+  }
 
-    if (connected) {
-      type = channel.getFieldType();
-      count = channel.getElementCount();
+  /**
+   * Notify listeners of an update now if there is no dispatcher, otherwise hand off to the
+   * dispatcher.
+   *
+   * @param dbr The value
+   * @param receivedNanos The System.nanoTime() the update was received
+   */
+  private void dispatch(DBR dbr, long receivedNanos) {
+    if (dispatcher == null) {
+      deliver(dbr, receivedNanos);
+    } else {
+      dispatcher.publish(this, dbr, receivedNanos);
     }
+  }
 
-    // ABSOLUTELY DO NOT CALL NOTIFY WHILE HOLDING A LOCK
-    listener.notifyPvInfo(pv, connected, type, count, enumLabels.get());
+  /**
+   * Notify all listeners of an update. Called on the dispatcher thread, or the source callback
+   * thread if there is no dispatcher.
+   *
+   * @param dbr The value
+   * @param receivedNanos The System.nanoTime() the update was received
+   */
+  void deliver(DBR dbr, long receivedNanos) {
+    // Stale or ahead of its info; listeners get the latest value once the info is delivered
+    if (infoPending.get() > 0 || state.get() != MonitorState.CONNECTED) {
+      return;
+    }
+
+    notifyPvUpdateAll(dbr, receivedNanos);
   }
 
-  /** Notify all listeners of a channel value update. */
-  private void notifyPvUpdateAll(DBR dbr) {
-    for (PvListener s : listeners) {
-      notifyPvUpdate(s, dbr);
+  /**
+   * Notify all listeners of the latest value, after updates couldn't be dispatched or were
+   * withheld. Called on the dispatcher thread, or the batcher thread if there is no dispatcher.
+   */
+  void resync() {
+    resyncPending.set(false);
+
+    DBR dbr = lastDbr;
+
+    if (infoPending.get() == 0 && state.get() == MonitorState.CONNECTED && dbr != null) {
+      notifyPvUpdateAll(dbr, lastReceivedNanos);
     }
   }
 
   /**
-   * Notify a given listener of a channel value update.
+   * Return the current connection info, for delivery in a batch.
    *
-   * @param listener The PvListener
+   * @return The info
    */
-  private void notifyPvUpdate(PvListener listener, DBR dbr) {
-    // ABSOLUTELY DO NOT CALL NOTIFY WHILE HOLDING A LOCK
-    listener.notifyPvUpdate(pv, dbr);
+  PvInfo getCurrentInfo() {
+    return toInfo(state.get() == MonitorState.CONNECTED);
   }
 
-  /** Private inner helper class to respond to connection status changes. */
-  private class TimedChannelConnectionListener implements ConnectionListener {
+  /**
+   * Return the current info and value for a newly attached listener.
+   *
+   * @return The snapshot, or null if still connecting
+   */
+  PvSnapshot getSnapshot() {
+    switch (state.get()) {
+      case CONNECTED:
+        return new PvSnapshot(toInfo(true), lastDbr);
+      case DISCONNECTED:
+        return new PvSnapshot(toInfo(false), null);
+      default: // CONNECTING
+        return null; // Wait for timer or connected callback
+    }
+  }
 
-    private final ScheduledFuture future;
+  /**
+   * Return the latest value, sparing a one-time get a round trip to the IOC when the PV is already
+   * monitored.
+   *
+   * @param enumLabel true if an enum value should be returned as its label
+   * @return The value, or null if not connected, no value yet, or the label is unknown
+   */
+  DBR getCachedValue(boolean enumLabel) {
+    DBR dbr = lastDbr;
 
-    /** Creates a new ChannelConnectionListener. */
-    public TimedChannelConnectionListener() {
-      future =
-          timeoutExecutor.schedule(
-              new Callable<Void>() {
-                @Override
-                public Void call() throws Exception {
-                  boolean connected = (state.get() == MonitorState.CONNECTED);
+    if (state.get() != MonitorState.CONNECTED || dbr == null) {
+      return null;
+    }
 
-                  if (!connected) {
-                    LOGGER.log(Level.FINE, "Unable to connect to channel {0} (timeout)", pv);
+    if (enumLabel && dbr.isENUM()) {
+      ChannelInfo i = info.get();
+      short[] value = ((ENUM) dbr).getEnumValue();
 
-                    notifyPvInfoAll(false);
-                  }
+      if (i == null
+          || i.enumLabels == null
+          || value.length == 0
+          || value[0] < 0
+          || value[0] >= i.enumLabels.length) {
+        return null;
+      }
 
-                  return null;
-                }
-              },
-              TIMEOUT_MILLIS,
-              TimeUnit.MILLISECONDS);
+      return new DBR_String(i.enumLabels[value[0]]);
     }
 
-    /**
-     * Handle a connection event.
-     *
-     * @param ce The ConnectionEvent
-     */
-    @Override
-    public void connectionChanged(ConnectionEvent ce) {
-      // Action sometimes calls back into CA lib, which isn't re-entrant so we use a separate thread
-      callbackExecutor.submit(
-          new Runnable() {
-            @Override
-            public void run() {
-              LOGGER.log(
-                  Level.FINEST,
-                  "Channel {0} Connection Changed - Connected: {1}",
-                  new Object[] {pv, ce.isConnected()});
-
-              try {
-                future.cancel(
-                    false); // only needed for initial connection, on reconnects this will result in
-                // "false" return value, which is ignored
-
-                if (ce.isConnected()) {
-                  DBRType type = channel.getFieldType();
-
-                  if (type == DBRType.ENUM) {
-                    handleEnumConnection();
-                  } else {
-                    handleRegularConnectionOrReconnect();
-                  }
-                } else {
-                  LOGGER.log(Level.FINEST, "Notifying clients of disconnect from channel: {0}", pv);
-
-                  state.set(MonitorState.DISCONNECTED);
-                  notifyPvInfoAll(false);
-                }
-              } catch (CAException e) {
-                LOGGER.log(Level.SEVERE, "Unable to monitor channel", e);
-                state.set(MonitorState.DISCONNECTED);
-                notifyPvInfoAll(false);
-              }
-            }
-          });
+    return dbr;
+  }
+
+  /**
+   * Return the listeners, for delivery in a batch.
+   *
+   * @return The listeners
+   */
+  Iterable<PvListener> getListeners() {
+    return listeners;
+  }
+
+  /** Called by the batcher once a batch holding this monitor's info has been delivered. */
+  void infoDelivered() {
+    if (infoPending.decrementAndGet() == 0 && state.get() == MonitorState.CONNECTED) {
+      if (dispatcher == null) {
+        resync();
+      } else {
+        dispatcher.resync(this);
+      }
     }
+  }
 
-    /**
-     * Setup a connection or reconnect.
-     *
-     * @throws IllegalStateException If unable to initialize
-     * @throws CAException If unable to initialize
-     */
-    private void handleRegularConnectionOrReconnect() throws IllegalStateException, CAException {
-      // Only create monitor on first connect, afterward reconnect uses same old monitor
-      synchronized (this) {
-        if (monitor == null) {
-          LOGGER.log(Level.FINEST, "Creating {0} Channel Monitor", pv);
-          // We generally don't handle arrays,
-          // except for BYTE[], where we assume a "long string"
-          int count = 1;
-          if (channel.getFieldType().isBYTE() && channel.getElementCount() > 1)
-            count = channel.getElementCount();
-          monitor =
-              channel.addMonitor(
-                  channel.getFieldType(), count, Monitor.VALUE, new ChannelMonitorListener());
-          context.flushIO();
-        } else {
-          LOGGER.log(Level.FINEST, "Reusing existing {0} Channel Monitor", pv);
-        }
+  /**
+   * Pass each listener to the action; in parallel when the dispatcher has a fan-out and there are
+   * enough listeners, otherwise serially on this thread.
+   *
+   * @param action The action
+   */
+  private void forEachListener(Consumer<PvListener> action) {
+    ParallelFanout fanout = dispatcher == null ? null : dispatcher.getFanout();
+
+    if (fanout == null) {
+      for (PvListener l : listeners) {
+        action.accept(l);
       }
+    } else {
+      fanout.forEach(listeners, action);
+    }
+  }
+
+  /** Notify all listeners of the channel info metadata. */
+  private void notifyPvInfoAll(boolean connected) {
+    forEachListener(l -> notifyPvInfo(l, connected));
+  }
 
-      state.set(MonitorState.CONNECTED);
-      notifyPvInfoAll(true);
+  /**
+   * Notify a given listener of the channel info metadata.
+   *
+   * @param listener The PvListener
+   */
+  private void notifyPvInfo(PvListener listener, boolean connected) {
+    PvInfo i = toInfo(connected);
+
+    // ABSOLUTELY DO NOT CALL NOTIFY WHILE HOLDING A LOCK
+    listener.notifyPvInfo(pv, connected, i.getType(), i.getCount(), i.getEnumLabels());
+  }
+
+  private PvInfo toInfo(boolean connected) {
+    DBRType type = null;
+    Integer count = null;
+    String[] enumLabels = null;
+
+    ChannelInfo i = info.get();
+
+    if (i != null) {
+      enumLabels = i.enumLabels;
+
+      if (connected) {
+        type = i.type;
+        count = i.count;
+      }
     }
 
-    /**
-     * Setup an enum connection. A connection of an enum-valued PV requires additional metadata -
-     * the enum labels.
-     *
-     * @throws IllegalStateException If unable to initialize
-     * @throws CAException If unable to initialize
-     */
-    private void handleEnumConnection() throws IllegalStateException, CAException {
-      LOGGER.log(Level.FINEST, "Fetching enum labels for {0}", pv);
-      channel.get(DBRType.LABELS_ENUM, 1, new TimedChannelEnumGetListener());
-
-      context.flushIO();
+    return new PvInfo(pv, connected, type, count, enumLabels);
+  }
+
+  /** Notify all listeners of a channel value update. Package-private for benchmarks. */
+  void notifyPvUpdateAll(DBR dbr, long receivedNanos) {
+    forEachListener(l -> notifyPvUpdate(l, dbr, receivedNanos));
+  }
+
+  /**
+   * Notify a given listener of a channel value update.
+   *
+   * @param listener The PvListener
+   */
+  private void notifyPvUpdate(PvListener listener, DBR dbr, long receivedNanos) {
+    // ABSOLUTELY DO NOT CALL NOTIFY WHILE HOLDING A LOCK
+    listener.notifyPvUpdate(pv, dbr, receivedNanos);
+  }
+
+  /** Channel metadata captured on connect. */
+  private static class ChannelInfo {
+    private final DBRType type;
+    private final int count;
+    private final String[] enumLabels;
+
+    ChannelInfo(DBRType type, int count, String[] enumLabels) {
+      this.type = type;
+      this.count = count;
+      this.enumLabels = enumLabels;
     }
+  }
+
+  /** Private inner class to handle channel callbacks from the PV source. */
+  private class MonitorChannelHandler implements PvChannelHandler {
 
-    /** A private inner class to respond to an enum label caget. */
-    private class TimedChannelEnumGetListener implements GetListener {
+    /* Set once the connection attempt timed out and its channel was closed */
+    private volatile boolean abandoned = false;
 
-      private final ScheduledFuture future;
+    @Override
+    public void connected(DBRType type, int count, String[] enumLabels) {
+      synchronized (channelLock) {
+        if (abandoned) { // A late connect must not cancel the timeout of the current attempt
+          return;
+        }
 
-      public TimedChannelEnumGetListener() {
-        future =
-            timeoutExecutor.schedule(
-                new Callable<Void>() {
-                  @Override
-                  public Void call() throws Exception {
-                    state.set(MonitorState.DISCONNECTED);
+        cancel(future); // only needed for initial connection, ignored on reconnects
 
-                    notifyPvInfoAll(false);
+        PvChannel c = channel; // Null if connected before the constructor returned
+        host = c == null ? null : c.getHost();
 
-                    return null;
-                  }
-                },
-                TIMEOUT_MILLIS,
-                TimeUnit.MILLISECONDS);
+        info.set(new ChannelInfo(type, count, enumLabels));
+        state.set(MonitorState.CONNECTED);
       }
 
-      @Override
-      public void getCompleted(GetEvent ge) {
-        // Action sometimes calls back into CA lib, which isn't re-entrant so we use a separate
-        // thread
-        callbackExecutor.submit(
-            new Runnable() {
-              @Override
-              public void run() {
-                future.cancel(false);
-                DBR_LABELS_Enum labelRecord = (DBR_LABELS_Enum) ge.getDBR();
-                enumLabels.set(labelRecord.getLabels());
-
-                try {
-                  handleRegularConnectionOrReconnect();
-                } catch (Exception e) {
-                  LOGGER.log(Level.WARNING, "Unable to register monitor after enum label fetch", e);
-                }
-              }
-            });
+      if (negativeCache != null) {
+        negativeCache.recordSuccess(pv);
       }
+
+      announce(true);
     }
-  }
 
-  /** Private inner class to handle monitor callbacks. */
-  private class ChannelMonitorListener implements MonitorListener {
+    @Override
+    public void disconnected() {
+      if (abandoned) {
+        return;
+      }
+
+      cancel(future);
+
+      state.set(MonitorState.DISCONNECTED);
+      announce(false);
+    }
 
-    /**
-     * Handles a monitor event.
-     *
-     * @param me The MonitorEvent
-     */
     @Override
-    public void monitorChanged(MonitorEvent me) {
-      DBR dbr = me.getDBR();
+    public void update(DBR dbr, long receivedNanos) {
+      if (abandoned) {
+        return;
+      }
+
+      eventCounter.increment();
 
       lastDbr = dbr;
+      lastReceivedNanos = receivedNanos;
       lastTimestamp = new Date();
 
-      // Make sure handlers do not call back into CA lib on this callback thread.
-      // We could call in separate thread, but that's costly and then you must
-      // then be careful not to pass dbr out-of-order (use lastDbr directly, which could skip
-      // intermediate
-      // updates and duplicate lastDbr)
-      notifyPvUpdateAll(lastDbr);
+      // Fan-out happens on the PV's dispatcher thread so this callback thread returns right away.
+      // Each PV is always dispatched by the same thread so its updates stay in order. Updates
+      // withheld while info is pending are sent (latest only) once it is delivered.
+      if (infoPending.get() == 0) {
+        dispatch(dbr, receivedNanos);
+      }
     }
   }
 }
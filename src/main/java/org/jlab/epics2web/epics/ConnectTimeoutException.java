@@ -0,0 +1,19 @@
+package org.jlab.epics2web.epics;
+
+import gov.aps.jca.TimeoutException;
+
+/**
+ * Signals that a channel didn't connect in time, as opposed to connecting but not answering. Such
+ * PVs are remembered in the negative cache.
+ */
+public class ConnectTimeoutException extends TimeoutException {
+
+  /**
+   * Create a new ConnectTimeoutException.
+   *
+   * @param message The detail message
+   */
+  public ConnectTimeoutException(String message) {
+    super(message);
+  }
+}
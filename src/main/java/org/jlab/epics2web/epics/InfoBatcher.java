@@ -0,0 +1,147 @@
+package org.jlab.epics2web.epics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jlab.epics2web.metrics.Metrics;
+
+/**
+ * Groups PV connection changes by host (IOC) and coalesces them over a short window, so each
+ * listener gets one batch of info per host instead of one info per PV. When an IOC with thousands
+ * of PVs reboots, every one of its channels disconnects and later reconnects at about the same
+ * time; notifying each separately floods every session watching the IOC.
+ *
+ * <p>A monitor withholds value updates while it has info waiting in a batch, and once the batch is
+ * delivered its listeners get the latest value, so updates never arrive ahead of the info that
+ * describes them. A PV that changes state more than once in a window is reported once, with its
+ * state at delivery time.
+ */
+class InfoBatcher {
+
+  private static final Logger LOGGER = Logger.getLogger(InfoBatcher.class.getName());
+
+  private final ScheduledExecutorService timer;
+  private final Executor executor;
+  private final long windowMillis;
+
+  /* Monitors waiting to be reported by host (null if unknown); only accessed while synchronized */
+  private final Map<String, Set<ChannelMonitor>> pending = new HashMap<>();
+
+  /**
+   * Create a new InfoBatcher.
+   *
+   * @param timer Schedules the end of each window
+   * @param executor Notifies listeners of each batch, or null to notify on the timer thread
+   * @param windowMillis How long to collect connection changes for a host before reporting them
+   */
+  InfoBatcher(ScheduledExecutorService timer, Executor executor, long windowMillis) {
+    this.timer = timer;
+    this.executor = executor;
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * Report a monitor's connection change to its listeners at the end of the current window for its
+   * host.
+   *
+   * @param monitor The monitor
+   * @param host The host serving the monitor's channel, or null if unknown
+   */
+  void add(ChannelMonitor monitor, String host) {
+    synchronized (this) {
+      Set<ChannelMonitor> batch = pending.get(host);
+
+      if (batch != null) {
+        if (batch.add(monitor)) {
+          monitor.infoPending.incrementAndGet();
+        }
+        return;
+      }
+
+      batch = new LinkedHashSet<>();
+      batch.add(monitor);
+      monitor.infoPending.incrementAndGet();
+      pending.put(host, batch);
+    }
+
+    // First change for this host in a while so start the window
+    try {
+      timer.schedule(() -> flushInBackground(host), windowMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) { // Shutting down
+      flushInBackground(host);
+    }
+  }
+
+  private void flushInBackground(String host) {
+    Runnable flush =
+        new Runnable() {
+          @Override
+          public void run() {
+            Set<ChannelMonitor> batch;
+
+            synchronized (InfoBatcher.this) {
+              batch = pending.remove(host);
+            }
+
+            if (batch != null) {
+              deliver(host, batch);
+            }
+          }
+        };
+
+    if (executor == null) {
+      flush.run();
+    } else {
+      try {
+        executor.execute(flush);
+      } catch (RejectedExecutionException e) { // Shutting down
+        flush.run();
+      }
+    }
+  }
+
+  /**
+   * Notify each listener of every PV in the batch it listens to, then release the monitors' held
+   * back updates.
+   *
+   * @param host The host
+   * @param batch The monitors
+   */
+  private void deliver(String host, Set<ChannelMonitor> batch) {
+    try {
+      Map<PvListener, List<PvInfo>> infos = new HashMap<>();
+
+      for (ChannelMonitor monitor : batch) {
+        PvInfo info = monitor.getCurrentInfo();
+        for (PvListener listener : monitor.getListeners()) {
+          infos.computeIfAbsent(listener, k -> new ArrayList<>()).add(info);
+        }
+      }
+
+      for (Map.Entry<PvListener, List<PvInfo>> entry : infos.entrySet()) {
+        try {
+          // ABSOLUTELY DO NOT CALL NOTIFY WHILE HOLDING A LOCK
+          entry.getKey().notifyPvInfoBatch(host, entry.getValue());
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.WARNING, "Unable to notify listener of PV info", e);
+        }
+      }
+
+      Metrics.INFO_BATCHES.increment();
+      Metrics.INFO_BATCHED_PVS.add(batch.size());
+    } finally {
+      for (ChannelMonitor monitor : batch) {
+        monitor.infoDelivered();
+      }
+    }
+  }
+}
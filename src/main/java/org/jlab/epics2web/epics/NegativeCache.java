@@ -0,0 +1,113 @@
+package org.jlab.epics2web.epics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers PV names that failed to connect, so misspelled or retired PVs don't keep a channel
+ * searching forever and aren't searched for again every time a client reloads. Each failure backs
+ * off exponentially; until a name's retry time comes, monitors for it report disconnected right
+ * away and one-time gets fail fast. A single retry per name is shared by every client.
+ *
+ * <p>Names are forgotten once they connect or when the cache is full (least recently used first).
+ * A name that fails again after going unretried for longer than the max backoff starts over at the
+ * initial backoff.
+ */
+class NegativeCache {
+
+  private final long initialBackoffNanos;
+  private final long maxBackoffNanos;
+  private final int maxEntries;
+
+  /* Access ordered for LRU eviction; only accessed while synchronized */
+  private final Map<String, Entry> entries;
+
+  /**
+   * Create a new NegativeCache.
+   *
+   * @param initialBackoffNanos How long to wait before retrying a name after its first failure
+   * @param maxBackoffNanos Longest wait between retries
+   * @param maxEntries Max names remembered
+   */
+  NegativeCache(long initialBackoffNanos, long maxBackoffNanos, int maxEntries) {
+    this.initialBackoffNanos = initialBackoffNanos;
+    this.maxBackoffNanos = maxBackoffNanos;
+    this.maxEntries = maxEntries;
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > NegativeCache.this.maxEntries;
+          }
+        };
+  }
+
+  /**
+   * Return how long until the given PV should be tried again.
+   *
+   * @param pv The PV name
+   * @param nowNanos The current System.nanoTime()
+   * @return Nanoseconds to wait, or 0 if the PV may be tried now
+   */
+  synchronized long getRetryDelayNanos(String pv, long nowNanos) {
+    Entry entry = entries.get(pv);
+
+    return entry == null ? 0 : Math.max(0, entry.retryAtNanos - nowNanos);
+  }
+
+  /**
+   * Record that the given PV failed to connect. Failures reported while the PV is already backing
+   * off (such as several gets timing out together) count once.
+   *
+   * @param pv The PV name
+   * @param nowNanos The current System.nanoTime()
+   * @return Nanoseconds until the PV should be tried again
+   */
+  synchronized long recordFailure(String pv, long nowNanos) {
+    Entry entry = entries.get(pv);
+
+    if (entry != null && nowNanos < entry.retryAtNanos) {
+      return entry.retryAtNanos - nowNanos;
+    }
+
+    long backoff;
+
+    if (entry == null || nowNanos - entry.retryAtNanos > maxBackoffNanos) {
+      backoff = initialBackoffNanos;
+    } else {
+      backoff = Math.min(maxBackoffNanos, entry.backoffNanos * 2);
+    }
+
+    entries.put(pv, new Entry(backoff, nowNanos + backoff));
+
+    return backoff;
+  }
+
+  /**
+   * Forget the given PV, which has connected.
+   *
+   * @param pv The PV name
+   */
+  synchronized void recordSuccess(String pv) {
+    entries.remove(pv);
+  }
+
+  /**
+   * Return the number of PV names remembered.
+   *
+   * @return The number of names
+   */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  private static class Entry {
+    private final long backoffNanos;
+    private final long retryAtNanos;
+
+    Entry(long backoffNanos, long retryAtNanos) {
+      this.backoffNanos = backoffNanos;
+      this.retryAtNanos = retryAtNanos;
+    }
+  }
+}
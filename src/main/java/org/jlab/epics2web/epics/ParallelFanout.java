@@ -0,0 +1,110 @@
+package org.jlab.epics2web.epics;
+
+import java.io.Closeable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import org.jlab.epics2web.metrics.Metrics;
+import org.jlab.util.ListenerSet;
+
+/**
+ * Notifies the listeners of widely watched PVs in parallel. Serial fan-out makes the last listener
+ * in the set wait for every listener ahead of it, so for a PV with thousands of subscribers tail
+ * latency grows with the audience. Sets at or above a threshold are instead split into partitions
+ * of listener slots and processed on a work-stealing pool; smaller sets stay on the cheap serial
+ * path.
+ *
+ * <p>The caller waits until every partition is done, so events for a PV are still delivered in
+ * order.
+ */
+public class ParallelFanout implements Closeable {
+
+  /** Listener slots notified serially by one task; larger ranges are split in two. */
+  static final int PARTITION_SIZE = 256;
+
+  private final ForkJoinPool pool;
+  private final int threshold;
+
+  /**
+   * Create a new ParallelFanout.
+   *
+   * @param parallelism The number of pool threads
+   * @param threshold The min number of listeners notified in parallel
+   */
+  public ParallelFanout(int parallelism, int threshold) {
+    this.threshold = Math.max(PARTITION_SIZE, threshold);
+    this.pool =
+        new ForkJoinPool(
+            parallelism,
+            p -> {
+              ForkJoinWorkerThread thread =
+                  ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+              thread.setName("Fanout-" + thread.getPoolIndex());
+              return thread;
+            },
+            null,
+            false);
+  }
+
+  /**
+   * Pass each listener to the action, in parallel if there are enough of them, and return once all
+   * have been passed.
+   *
+   * @param listeners The listeners
+   * @param action The action
+   * @param <T> The listener type
+   */
+  <T> void forEach(ListenerSet<T> listeners, Consumer<? super T> action) {
+    ListenerSet.Slots<T> slots = listeners.slots();
+
+    if (listeners.size() >= threshold) {
+      try {
+        pool.invoke(new PartitionTask<>(slots, 0, slots.count(), action));
+        Metrics.PARALLEL_FANOUTS.increment();
+        return;
+      } catch (RejectedExecutionException e) {
+        // Shutting down; fall through to serial
+      }
+    }
+
+    slots.forEach(0, slots.count(), action);
+  }
+
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /** Stop the pool threads. */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  private static class PartitionTask<T> extends RecursiveAction {
+    private final ListenerSet.Slots<T> slots;
+    private final int from;
+    private final int to;
+    private final Consumer<? super T> action;
+
+    PartitionTask(ListenerSet.Slots<T> slots, int from, int to, Consumer<? super T> action) {
+      this.slots = slots;
+      this.from = from;
+      this.to = to;
+      this.action = action;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= PARTITION_SIZE) {
+        slots.forEach(from, to, action);
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(
+            new PartitionTask<>(slots, from, mid, action),
+            new PartitionTask<>(slots, mid, to, action));
+      }
+    }
+  }
+}
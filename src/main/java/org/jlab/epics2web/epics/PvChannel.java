@@ -0,0 +1,21 @@
+package org.jlab.epics2web.epics;
+
+import java.io.Closeable;
+
+/**
+ * A channel created by a PvSource. Closing the channel stops all further notifications to its
+ * handler and releases any resources held by the source.
+ */
+public interface PvChannel extends Closeable {
+
+  /**
+   * Return the host currently (or most recently) serving this channel, such as the IOC address.
+   * Connection events are grouped by host, so channels on the same server should return the same
+   * value.
+   *
+   * @return The host, or null if unknown
+   */
+  public default String getHost() {
+    return null;
+  }
+}
@@ -0,0 +1,34 @@
+package org.jlab.epics2web.epics;
+
+import gov.aps.jca.dbr.DBR;
+import gov.aps.jca.dbr.DBRType;
+
+/**
+ * Callbacks from a PvChannel to its owner.
+ *
+ * <p>Connection callbacks are made on a thread where it is safe to call back into the source.
+ * Update callbacks may be made on the source's IO thread so handlers must not block or call back
+ * into the source from them.
+ */
+public interface PvChannelHandler {
+
+  /**
+   * The channel connected (or reconnected) and is now delivering updates.
+   *
+   * @param type The EPICS datatype of the channel
+   * @param count The EPICS item count
+   * @param enumLabels labels for the EPICS enumeration state if datatype is ENUM, null otherwise
+   */
+  public void connected(DBRType type, int count, String[] enumLabels);
+
+  /** The channel disconnected or could not be set up. */
+  public void disconnected();
+
+  /**
+   * The channel value changed.
+   *
+   * @param dbr The EPICS DataBaseRecord
+   * @param receivedNanos The System.nanoTime() the update was received
+   */
+  public void update(DBR dbr, long receivedNanos);
+}
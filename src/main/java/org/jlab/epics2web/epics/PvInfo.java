@@ -0,0 +1,51 @@
+package org.jlab.epics2web.epics;
+
+import gov.aps.jca.dbr.DBRType;
+
+/** PV metadata, as passed to PvListener.notifyPvInfo, for delivery in a batch. */
+public class PvInfo {
+
+  private final String pv;
+  private final boolean couldConnect;
+  private final DBRType type;
+  private final Integer count;
+  private final String[] enumLabels;
+
+  /**
+   * Create a new PvInfo.
+   *
+   * @param pv The PV
+   * @param couldConnect true if the channel connected, false otherwise
+   * @param type The EPICS datatype of the channel
+   * @param count The EPICS item count
+   * @param enumLabels labels for the EPICS enumeration state if datatype is ENUM, null otherwise
+   */
+  public PvInfo(
+      String pv, boolean couldConnect, DBRType type, Integer count, String[] enumLabels) {
+    this.pv = pv;
+    this.couldConnect = couldConnect;
+    this.type = type;
+    this.count = count;
+    this.enumLabels = enumLabels;
+  }
+
+  public String getPv() {
+    return pv;
+  }
+
+  public boolean isCouldConnect() {
+    return couldConnect;
+  }
+
+  public DBRType getType() {
+    return type;
+  }
+
+  public Integer getCount() {
+    return count;
+  }
+
+  public String[] getEnumLabels() {
+    return enumLabels;
+  }
+}
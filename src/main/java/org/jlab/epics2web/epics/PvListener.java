@@ -2,6 +2,7 @@ package org.jlab.epics2web.epics;
 
 import gov.aps.jca.dbr.DBR;
 import gov.aps.jca.dbr.DBRType;
+import java.util.List;
 
 /**
  * A contract for classes interested in notifications from an EPICS channel monitor.
@@ -10,6 +11,12 @@ import gov.aps.jca.dbr.DBRType;
  */
 public interface PvListener {
 
+  /**
+   * Value of receivedNanos for updates that were not just received from CA, such as the cached
+   * value sent to a newly registered listener.
+   */
+  public static final long NOT_TIMESTAMPED = 0L;
+
   /**
    * Notification of PV metadata sent after registering a PV with a ChannelMonitor.
    *
@@ -22,11 +29,55 @@ public interface PvListener {
   public void notifyPvInfo(
       String pv, boolean couldConnect, DBRType type, Integer count, String[] enumLabels);
 
+  /**
+   * Notification of PV metadata for a group of PVs whose connection changed at about the same time,
+   * such as every PV on an IOC that rebooted. By default each PV is passed to notifyPvInfo.
+   *
+   * @param host The host serving the PVs, such as the IOC address, or null if unknown
+   * @param infos The PV metadata
+   */
+  public default void notifyPvInfoBatch(String host, List<PvInfo> infos) {
+    for (PvInfo info : infos) {
+      notifyPvInfo(
+          info.getPv(),
+          info.isCouldConnect(),
+          info.getType(),
+          info.getCount(),
+          info.getEnumLabels());
+    }
+  }
+
+  /**
+   * Notification of the metadata and latest value of each PV from a subscribe request that has
+   * already connected (or failed to), sent once the PVs are registered. PVs still connecting are
+   * reported later with notifyPvInfo or notifyPvInfoBatch. By default each PV is passed to
+   * notifyPvInfo and then, if it has a value, to notifyPvUpdate.
+   *
+   * @param snapshots The PV metadata and values
+   */
+  public default void notifyPvSnapshot(List<PvSnapshot> snapshots) {
+    for (PvSnapshot snapshot : snapshots) {
+      PvInfo info = snapshot.getInfo();
+
+      notifyPvInfo(
+          info.getPv(),
+          info.isCouldConnect(),
+          info.getType(),
+          info.getCount(),
+          info.getEnumLabels());
+
+      if (snapshot.getDbr() != null) {
+        notifyPvUpdate(info.getPv(), snapshot.getDbr(), NOT_TIMESTAMPED);
+      }
+    }
+  }
+
   /**
    * Notification of PV value change.
    *
    * @param pv The PV
    * @param dbr The EPICS DataBaseRecord
+   * @param receivedNanos The System.nanoTime() the update was received from CA, or NOT_TIMESTAMPED
    */
-  public void notifyPvUpdate(String pv, DBR dbr);
+  public void notifyPvUpdate(String pv, DBR dbr, long receivedNanos);
 }
@@ -0,0 +1,101 @@
+package org.jlab.epics2web.epics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns PV names to small integer ids so subscription bookkeeping can store ints instead of a
+ * String (and a HashSet node) per subscription, and so every subscriber shares one String instance
+ * per PV. Ids are reference counted: each acquire must be paired with a release, and once the
+ * count drops to zero the id may be reused for a different PV.
+ */
+public class PvRegistry {
+
+  private final Map<String, Integer> ids = new HashMap<>();
+  private String[] names = new String[1024];
+  private int[] refCounts = new int[1024];
+  private int[] free = new int[16];
+  private int freeCount = 0;
+  private int nextId = 0;
+
+  /**
+   * Return the id for a PV, assigning one if needed, and increment its reference count.
+   *
+   * @param pv The PV name
+   * @return The id
+   */
+  public synchronized int acquire(String pv) {
+    Integer id = ids.get(pv);
+
+    if (id == null) {
+      if (freeCount > 0) {
+        id = free[--freeCount];
+      } else {
+        id = nextId++;
+        if (id == names.length) {
+          names = Arrays.copyOf(names, names.length * 2);
+          refCounts = Arrays.copyOf(refCounts, refCounts.length * 2);
+        }
+      }
+
+      names[id] = pv;
+      ids.put(pv, id);
+    }
+
+    refCounts[id]++;
+
+    return id;
+  }
+
+  /**
+   * Decrement the reference count of an id, freeing it for reuse if it drops to zero.
+   *
+   * @param id The id
+   */
+  public synchronized void release(int id) {
+    if (id < 0 || id >= nextId || refCounts[id] == 0) {
+      throw new IllegalArgumentException("id not in use: " + id);
+    }
+
+    if (--refCounts[id] == 0) {
+      ids.remove(names[id]);
+      names[id] = null;
+
+      if (freeCount == free.length) {
+        free = Arrays.copyOf(free, free.length * 2);
+      }
+      free[freeCount++] = id;
+    }
+  }
+
+  /**
+   * Return the id for a PV.
+   *
+   * @param pv The PV name
+   * @return The id, or -1 if the PV isn't registered
+   */
+  public synchronized int getId(String pv) {
+    Integer id = ids.get(pv);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Return the (shared) name for an id.
+   *
+   * @param id The id
+   * @return The PV name, or null if the id isn't in use
+   */
+  public synchronized String getName(int id) {
+    return id >= 0 && id < nextId ? names[id] : null;
+  }
+
+  /**
+   * Return the number of registered PVs.
+   *
+   * @return The size
+   */
+  public synchronized int size() {
+    return ids.size();
+  }
+}
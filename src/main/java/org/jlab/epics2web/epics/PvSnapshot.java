@@ -0,0 +1,29 @@
+package org.jlab.epics2web.epics;
+
+import gov.aps.jca.dbr.DBR;
+
+/** The metadata and latest value of a PV, as sent to a newly subscribed listener. */
+public class PvSnapshot {
+
+  private final PvInfo info;
+  private final DBR dbr;
+
+  /**
+   * Create a new PvSnapshot.
+   *
+   * @param info The PV metadata
+   * @param dbr The latest value, or null if none (such as when not connected)
+   */
+  public PvSnapshot(PvInfo info, DBR dbr) {
+    this.info = info;
+    this.dbr = dbr;
+  }
+
+  public PvInfo getInfo() {
+    return info;
+  }
+
+  public DBR getDbr() {
+    return dbr;
+  }
+}
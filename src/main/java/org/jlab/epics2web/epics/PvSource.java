@@ -0,0 +1,81 @@
+package org.jlab.epics2web.epics;
+
+import gov.aps.jca.CAException;
+import gov.aps.jca.TimeoutException;
+import gov.aps.jca.dbr.DBR;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A provider of PV channels, such as EPICS Channel Access. The ChannelManager consults its sources
+ * in order and uses the first one that accepts a given PV name.
+ */
+public interface PvSource {
+
+  /**
+   * Return the short name of this source, used to label metrics (for example "ca").
+   *
+   * @return The source name
+   */
+  public String getName();
+
+  /**
+   * Return whether this source is responsible for the given PV name.
+   *
+   * @param pv The PV name
+   * @return true if this source handles the PV
+   */
+  public boolean accepts(String pv);
+
+  /**
+   * Create a channel for the given PV. Creation is asynchronous: the handler is notified once the
+   * channel connects (or disconnects) and for each value update. A channel that never connects
+   * simply never notifies the handler.
+   *
+   * @param pv The PV name
+   * @param handler The handler to notify
+   * @return The channel, which must be closed when no longer needed
+   * @throws CAException If unable to create the channel
+   */
+  public PvChannel createChannel(String pv, PvChannelHandler handler) throws CAException;
+
+  /**
+   * Perform a synchronous (blocking) get of the given PVs.
+   *
+   * @param pvs The PV names
+   * @param enumLabel true if result should be enum label (ignored if not of type enum); false for
+   *     numeric value
+   * @return The EPICS DataBaseRecords, in the same order as the PV names
+   * @throws CAException If unable to perform the get due to IO
+   * @throws TimeoutException If unable to perform the get in a timely fashion
+   */
+  public List<DBR> get(String[] pvs, boolean enumLabel) throws CAException, TimeoutException;
+
+  /**
+   * Perform an asynchronous get of the given PVs, with each PV succeeding or failing on its own.
+   * The default implementation performs a synchronous get of each PV on the calling thread, which
+   * suits sources that don't do IO.
+   *
+   * @param pvs The PV names
+   * @param enumLabel true if result should be enum label (ignored if not of type enum); false for
+   *     numeric value
+   * @return The future EPICS DataBaseRecords, in the same order as the PV names
+   */
+  public default List<CompletableFuture<DBR>> getAsync(String[] pvs, boolean enumLabel) {
+    List<CompletableFuture<DBR>> futures = new ArrayList<>();
+
+    // One PV at a time, since a synchronous get fails as a whole if any PV fails
+    for (String pv : pvs) {
+      CompletableFuture<DBR> future = new CompletableFuture<>();
+      try {
+        future.complete(get(new String[] {pv}, enumLabel).get(0));
+      } catch (CAException | TimeoutException | RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+      futures.add(future);
+    }
+
+    return futures;
+  }
+}
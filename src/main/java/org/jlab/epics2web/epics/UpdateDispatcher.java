@@ -0,0 +1,201 @@
+package org.jlab.epics2web.epics;
+
+import gov.aps.jca.dbr.DBR;
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jlab.epics2web.metrics.Metrics;
+import org.jlab.util.MpscRing;
+
+/**
+ * Moves value update notification off PV source callback threads. A callback only publishes the
+ * update into a ring buffer and returns; dispatcher threads take events off the rings and do the
+ * fan-out (JSON encoding and write queue offers for every session). Monitors are partitioned across
+ * the dispatchers by PV name so each PV's updates are delivered in order by a single thread.
+ *
+ * <p>A callback never blocks, even if its ring is full. Instead the monitor is marked for a resync
+ * which, once every event published ahead of it has been delivered, sends listeners the monitor's
+ * latest value. Intermediate values are lost but the last one never is.
+ */
+public class UpdateDispatcher implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(UpdateDispatcher.class.getName());
+
+  /** Max time an idle dispatcher sleeps between checks for resyncs. */
+  private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final Partition[] partitions;
+  private final ParallelFanout fanout;
+
+  /**
+   * Create and start a new UpdateDispatcher.
+   *
+   * @param threads The number of dispatcher threads (partitions)
+   * @param ringCapacity The max events waiting per partition
+   * @param threadFactory Creates the dispatcher threads
+   * @param fanout Notifies large listener sets in parallel, or null to always notify serially
+   */
+  public UpdateDispatcher(
+      int threads, int ringCapacity, ThreadFactory threadFactory, ParallelFanout fanout) {
+    this.partitions = new Partition[threads];
+    this.fanout = fanout;
+
+    for (int i = 0; i < threads; i++) {
+      partitions[i] = new Partition(ringCapacity);
+      partitions[i].thread = threadFactory.newThread(partitions[i]);
+      partitions[i].thread.setDaemon(true);
+      partitions[i].thread.start();
+    }
+  }
+
+  /**
+   * Publish an update for delivery on the monitor's dispatcher thread. Never blocks.
+   *
+   * @param monitor The monitor
+   * @param dbr The value
+   * @param receivedNanos The System.nanoTime() the update was received
+   */
+  void publish(ChannelMonitor monitor, DBR dbr, long receivedNanos) {
+    Partition partition = partitionFor(monitor);
+
+    if (partition.ring.offer(new Event(monitor, dbr, receivedNanos, System.nanoTime()))) {
+      partition.wake();
+    } else {
+      Metrics.DISPATCH_OVERFLOWS.increment();
+      resync(partition, monitor);
+    }
+  }
+
+  /**
+   * Send listeners the monitor's latest value on its dispatcher thread, after every update already
+   * published for it. Never blocks.
+   *
+   * @param monitor The monitor
+   */
+  void resync(ChannelMonitor monitor) {
+    resync(partitionFor(monitor), monitor);
+  }
+
+  private void resync(Partition partition, ChannelMonitor monitor) {
+    if (monitor.resyncPending.compareAndSet(false, true)) {
+      partition.resyncs.offer(new Resync(monitor, partition.ring.getTail()));
+      partition.wake();
+    }
+  }
+
+  private Partition partitionFor(ChannelMonitor monitor) {
+    return partitions[Math.floorMod(monitor.getPv().hashCode(), partitions.length)];
+  }
+
+  /**
+   * Return the number of events waiting in each partition for informational purposes.
+   *
+   * @return The ring occupancy by partition
+   */
+  public int[] getOccupancy() {
+    int[] occupancy = new int[partitions.length];
+    for (int i = 0; i < partitions.length; i++) {
+      occupancy[i] = partitions[i].ring.size() + partitions[i].resyncs.size();
+    }
+    return occupancy;
+  }
+
+  /**
+   * Return the parallel fan-out used for large listener sets.
+   *
+   * @return The fan-out, or null if listeners are always notified serially
+   */
+  ParallelFanout getFanout() {
+    return fanout;
+  }
+
+  public int getRingCapacity() {
+    return partitions[0].ring.capacity();
+  }
+
+  /** Stop the dispatcher threads. Events still waiting are discarded. */
+  @Override
+  public void close() {
+    for (Partition partition : partitions) {
+      partition.running = false;
+      partition.thread.interrupt();
+    }
+  }
+
+  private static class Event {
+    private final ChannelMonitor monitor;
+    private final DBR dbr;
+    private final long receivedNanos;
+    private final long publishedNanos;
+
+    Event(ChannelMonitor monitor, DBR dbr, long receivedNanos, long publishedNanos) {
+      this.monitor = monitor;
+      this.dbr = dbr;
+      this.receivedNanos = receivedNanos;
+      this.publishedNanos = publishedNanos;
+    }
+  }
+
+  private static class Resync {
+    private final ChannelMonitor monitor;
+
+    /** Due once the ring head reaches this, i.e. every event published before it is delivered */
+    private final long dueSequence;
+
+    Resync(ChannelMonitor monitor, long dueSequence) {
+      this.monitor = monitor;
+      this.dueSequence = dueSequence;
+    }
+  }
+
+  private static class Partition implements Runnable {
+    private final MpscRing<Event> ring;
+    private final Queue<Resync> resyncs = new ConcurrentLinkedQueue<>();
+    private Thread thread;
+    private volatile boolean sleeping = false;
+    private volatile boolean running = true;
+
+    Partition(int ringCapacity) {
+      this.ring = new MpscRing<>(ringCapacity);
+    }
+
+    void wake() {
+      if (sleeping) {
+        LockSupport.unpark(thread);
+      }
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          Event event = ring.poll();
+
+          if (event != null) {
+            Metrics.DISPATCH_LAG.record(System.nanoTime() - event.publishedNanos);
+            event.monitor.deliver(event.dbr, event.receivedNanos);
+          }
+
+          Resync resync = resyncs.peek();
+          if (resync != null && ring.getHead() >= resync.dueSequence) {
+            resyncs.poll();
+            resync.monitor.resync();
+          } else if (event == null) {
+            sleeping = true;
+            if (ring.isEmpty()) {
+              LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            sleeping = false;
+          }
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.WARNING, "Unable to dispatch PV event", e);
+        }
+      }
+    }
+  }
+}
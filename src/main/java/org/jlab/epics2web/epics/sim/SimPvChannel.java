@@ -0,0 +1,77 @@
+package org.jlab.epics2web.epics.sim;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jlab.epics2web.epics.PvChannel;
+import org.jlab.epics2web.epics.PvChannelHandler;
+
+/**
+ * A simulated channel. Connects immediately and then publishes a value at the configured rate on
+ * the source's scheduler.
+ */
+final class SimPvChannel implements PvChannel, Runnable {
+
+  private static final Logger LOGGER = Logger.getLogger(SimPvChannel.class.getName());
+
+  private final SimPvSpec spec;
+  private final PvChannelHandler handler;
+  private final long startNanos;
+  private final ScheduledFuture<?> future;
+
+  /** Only accessed by the update task, which never runs concurrently with itself */
+  private boolean connected = false;
+
+  private volatile boolean closed = false;
+
+  SimPvChannel(
+      SimPvSpec spec,
+      PvChannelHandler handler,
+      ScheduledExecutorService scheduler,
+      long startNanos) {
+    this.spec = spec;
+    this.handler = handler;
+    this.startNanos = startNanos;
+
+    long periodNanos = spec.getUpdatePeriodNanos();
+
+    if (periodNanos > 0) {
+      future = scheduler.scheduleAtFixedRate(this, 0, periodNanos, TimeUnit.NANOSECONDS);
+    } else {
+      future = scheduler.schedule(this, 0, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public void run() {
+    if (closed) {
+      return;
+    }
+
+    try {
+      if (!connected) {
+        connected = true;
+        handler.connected(spec.getType(), spec.getCount(), spec.getEnumLabels());
+      }
+
+      long now = System.nanoTime();
+      handler.update(spec.valueAt((now - startNanos) / 1_000_000_000.0d), now);
+    } catch (RuntimeException e) {
+      // An exception would silently cancel the periodic task
+      LOGGER.log(Level.WARNING, "Unable to publish simulated value", e);
+    }
+  }
+
+  @Override
+  public String getHost() {
+    return "sim";
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    future.cancel(false);
+  }
+}
@@ -0,0 +1,93 @@
+package org.jlab.epics2web.epics.sim;
+
+import gov.aps.jca.CAException;
+import gov.aps.jca.dbr.DBR;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jlab.epics2web.CustomPrefixThreadFactory;
+import org.jlab.epics2web.epics.PvChannel;
+import org.jlab.epics2web.epics.PvChannelHandler;
+import org.jlab.epics2web.epics.PvSource;
+
+/**
+ * A PV source of simulated sine, ramp, noise, enum, and waveform PVs named with the sim:// prefix,
+ * for example sim://sine?hz=100. Requires no IOC, which makes it useful for demos, benchmarks, and
+ * profiling the web socket path at high update rates. See SimPvSpec for the parameters.
+ */
+public class SimPvSource implements PvSource, Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(SimPvSource.class.getName());
+
+  /** Name of the source reported in metrics. */
+  public static final String NAME = "sim";
+
+  private final long startNanos = System.nanoTime();
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Create a new SimPvSource.
+   *
+   * @param threads Number of threads publishing updates
+   */
+  public SimPvSource(int threads) {
+    scheduler =
+        Executors.newScheduledThreadPool(threads, new CustomPrefixThreadFactory("Sim-PV-"));
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public boolean accepts(String pv) {
+    return pv != null && pv.startsWith(SimPvSpec.PREFIX);
+  }
+
+  @Override
+  public PvChannel createChannel(String pv, PvChannelHandler handler) {
+    SimPvSpec spec;
+
+    try {
+      spec = SimPvSpec.parse(pv);
+    } catch (IllegalArgumentException e) {
+      LOGGER.log(Level.FINE, "Invalid simulated PV {0}: {1}", new Object[] {pv, e.getMessage()});
+
+      // Like a CA PV that doesn't exist: never connects so the monitor times out
+      return () -> {};
+    }
+
+    return new SimPvChannel(spec, handler, scheduler, startNanos);
+  }
+
+  @Override
+  public List<DBR> get(String[] pvs, boolean enumLabel) throws CAException {
+    List<DBR> dbrList = new ArrayList<>();
+    double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0d;
+
+    for (String pv : pvs) {
+      SimPvSpec spec;
+
+      try {
+        spec = SimPvSpec.parse(pv);
+      } catch (IllegalArgumentException e) {
+        throw new CAException("Could not get channel " + pv, e);
+      }
+
+      dbrList.add(enumLabel ? spec.labelAt(seconds) : spec.valueAt(seconds));
+    }
+
+    return dbrList;
+  }
+
+  /** Stop publishing updates. */
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+}
@@ -0,0 +1,210 @@
+package org.jlab.epics2web.epics.sim;
+
+import gov.aps.jca.dbr.DBR;
+import gov.aps.jca.dbr.DBRType;
+import gov.aps.jca.dbr.DBR_Double;
+import gov.aps.jca.dbr.DBR_Enum;
+import gov.aps.jca.dbr.DBR_String;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A parsed simulated PV name of the form sim://shape?param=value&amp;param=value, for example
+ * sim://sine?hz=100&amp;period=5&amp;min=-1&amp;max=1. Values are a function of time so every
+ * channel and get of the same name agree.
+ *
+ * <p>Parameters:
+ *
+ * <ul>
+ *   <li>hz - updates per second, 0 for a static value (default 1, max 1000)
+ *   <li>period - seconds per cycle of the signal (default 10)
+ *   <li>min, max - range of the signal (default 0 and 10)
+ *   <li>states - number of enum states (enum only, default 4)
+ *   <li>count - number of elements (waveform only, default 100, max 10000)
+ * </ul>
+ */
+final class SimPvSpec {
+
+  static final String PREFIX = "sim://";
+
+  /** Max update rate per channel. */
+  static final double MAX_HZ = 1_000;
+
+  /** Max waveform elements; every element is computed on each update. */
+  static final int MAX_COUNT = 10_000;
+
+  enum Shape {
+    SINE,
+    RAMP,
+    NOISE,
+    ENUM,
+    WAVEFORM;
+  }
+
+  private final Shape shape;
+  private double hz = 1;
+  private double period = 10;
+  private double min = 0;
+  private double max = 10;
+  private int states = 4;
+  private int count = 1;
+  private String[] labels = null;
+
+  private SimPvSpec(Shape shape) {
+    this.shape = shape;
+
+    if (shape == Shape.WAVEFORM) {
+      count = 100;
+    }
+  }
+
+  /**
+   * Parse a simulated PV name.
+   *
+   * @param pv The PV name
+   * @return The spec
+   * @throws IllegalArgumentException If the name is not a valid simulated PV
+   */
+  static SimPvSpec parse(String pv) throws IllegalArgumentException {
+    if (pv == null || !pv.startsWith(PREFIX)) {
+      throw new IllegalArgumentException("Not a simulated PV: " + pv);
+    }
+
+    String[] parts = pv.substring(PREFIX.length()).split("\\?", 2);
+
+    SimPvSpec spec = new SimPvSpec(Shape.valueOf(parts[0].toUpperCase(Locale.ROOT)));
+
+    if (parts.length > 1 && !parts[1].isEmpty()) {
+      for (String param : parts[1].split("&")) {
+        String[] pair = param.split("=", 2);
+
+        if (pair.length != 2) {
+          throw new IllegalArgumentException("Missing value for parameter: " + param);
+        }
+
+        spec.set(pair[0], pair[1]);
+      }
+    }
+
+    if (!(spec.hz >= 0 && spec.hz <= MAX_HZ)) {
+      throw new IllegalArgumentException("hz must be between 0 and " + MAX_HZ);
+    }
+
+    if (!(spec.period > 0)) {
+      throw new IllegalArgumentException("period must be greater than 0");
+    }
+
+    if (spec.states < 1 || spec.states > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("states must be between 1 and " + Short.MAX_VALUE);
+    }
+
+    if (spec.count < 1 || spec.count > MAX_COUNT) {
+      throw new IllegalArgumentException("count must be between 1 and " + MAX_COUNT);
+    }
+
+    if (spec.shape == Shape.ENUM) {
+      spec.labels = new String[spec.states];
+      for (int i = 0; i < spec.states; i++) {
+        spec.labels[i] = "State " + i;
+      }
+    }
+
+    return spec;
+  }
+
+  private void set(String name, String value) {
+    switch (name) {
+      case "hz":
+        hz = Double.parseDouble(value);
+        break;
+      case "period":
+        period = Double.parseDouble(value);
+        break;
+      case "min":
+        min = Double.parseDouble(value);
+        break;
+      case "max":
+        max = Double.parseDouble(value);
+        break;
+      case "states":
+        states = Integer.parseInt(value);
+        break;
+      case "count":
+        if (shape != Shape.WAVEFORM) {
+          throw new IllegalArgumentException("count only applies to waveform");
+        }
+        count = Integer.parseInt(value);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown parameter: " + name);
+    }
+  }
+
+  DBRType getType() {
+    return shape == Shape.ENUM ? DBRType.ENUM : DBRType.DOUBLE;
+  }
+
+  int getCount() {
+    return count;
+  }
+
+  String[] getEnumLabels() {
+    return labels;
+  }
+
+  /**
+   * Return the nanoseconds between updates.
+   *
+   * @return The update period, or 0 if the value is static
+   */
+  long getUpdatePeriodNanos() {
+    return hz == 0 ? 0 : Math.max(1, (long) (1_000_000_000L / hz));
+  }
+
+  /**
+   * Return the value at the given time.
+   *
+   * @param seconds Seconds since the simulation started
+   * @return The value
+   */
+  DBR valueAt(double seconds) {
+    double phase = seconds / period;
+    double fraction = phase - Math.floor(phase);
+    double mid = (min + max) / 2;
+    double amplitude = (max - min) / 2;
+
+    switch (shape) {
+      case RAMP:
+        return new DBR_Double(new double[] {min + (max - min) * fraction});
+      case NOISE:
+        return new DBR_Double(
+            new double[] {min + (max - min) * ThreadLocalRandom.current().nextDouble()});
+      case ENUM:
+        return new DBR_Enum(new short[] {(short) Math.min(states - 1, (int) (fraction * states))});
+      case WAVEFORM:
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+          values[i] = mid + amplitude * Math.sin(2 * Math.PI * (phase + (double) i / count));
+        }
+        return new DBR_Double(values);
+      default: // SINE
+        return new DBR_Double(new double[] {mid + amplitude * Math.sin(2 * Math.PI * phase)});
+    }
+  }
+
+  /**
+   * Return the value at the given time with enum values replaced by their label.
+   *
+   * @param seconds Seconds since the simulation started
+   * @return The value
+   */
+  DBR labelAt(double seconds) {
+    DBR dbr = valueAt(seconds);
+
+    if (shape == Shape.ENUM) {
+      dbr = new DBR_String(new String[] {labels[((DBR_Enum) dbr).getEnumValue()[0]]});
+    }
+
+    return dbr;
+  }
+}
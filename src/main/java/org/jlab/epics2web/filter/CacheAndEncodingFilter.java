@@ -28,6 +28,7 @@ import java.util.Arrays;
 @WebFilter(
     filterName = "CacheAndEncodingFilter",
     urlPatterns = {"/*"},
+    asyncSupported = true,
     dispatcherTypes = {DispatcherType.REQUEST, DispatcherType.FORWARD})
 public class CacheAndEncodingFilter implements Filter {
 
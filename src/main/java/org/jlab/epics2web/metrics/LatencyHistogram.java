@@ -0,0 +1,112 @@
+package org.jlab.epics2web.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of nanosecond latencies. Each power of two range is split into eight linear
+ * sub-buckets so reported percentiles are within 12.5% of the true value, using a fixed array of
+ * counters regardless of how many values are recorded. Recording is a single lock-free increment.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder totalNanos = new LongAdder();
+
+  /**
+   * Record a latency.
+   *
+   * @param nanos The latency in nanoseconds; negative values are recorded as zero
+   */
+  public void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    counts.incrementAndGet(indexOf(value));
+    totalNanos.add(value);
+  }
+
+  /**
+   * Return the sum of all recorded values.
+   *
+   * @return The sum in nanoseconds
+   */
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  /**
+   * Return the total number of recorded values.
+   *
+   * @return The count
+   */
+  public long getCount() {
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      total = total + counts.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * Return the latency at the given quantile. Concurrent recording may skew the result slightly;
+   * that is acceptable for monitoring.
+   *
+   * @param quantile The quantile between 0 and 1 (for example 0.99)
+   * @return The latency in nanoseconds, or 0 if nothing has been recorded
+   */
+  public long getValueAtQuantile(double quantile) {
+    long[] snapshot = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = counts.get(i);
+      total = total + snapshot[i];
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen = seen + snapshot[i];
+      if (seen >= rank) {
+        return highestEquivalentValue(i);
+      }
+    }
+
+    return highestEquivalentValue(BUCKET_COUNT - 1);
+  }
+
+  /**
+   * Return the latency at the given quantile in milliseconds.
+   *
+   * @param quantile The quantile between 0 and 1
+   * @return The latency in milliseconds
+   */
+  public double getMillisAtQuantile(double quantile) {
+    return getValueAtQuantile(quantile) / 1_000_000.0d;
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+    return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  static long highestEquivalentValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long lowest = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,169 @@
+package org.jlab.epics2web.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.jlab.epics2web.epics.PvListener;
+
+/**
+ * Application wide counters for the data path from CA callback to web socket write.
+ *
+ * <p>All counters are LongAdder based so incrementing them from CAJ callback threads and writer
+ * threads never takes a lock. Gauges (queue depths, monitor states, executor backlog) are not kept
+ * here; they are computed from live objects when the metrics endpoint is scraped.
+ */
+public final class Metrics {
+
+  /** Channels created (ChannelMonitor constructor) and time spent in createChannel + flushIO. */
+  public static final Timing CHANNEL_CREATE = new Timing();
+
+  /** Channels destroyed (ChannelMonitor close) and time spent in destroyChannel. */
+  public static final Timing CHANNEL_DESTROY = new Timing();
+
+  /** Time spent waiting to acquire the ChannelManager lock. */
+  public static final Timing MANAGER_LOCK_WAIT = new Timing();
+
+  /** Web socket messages successfully handed to the container. */
+  public static final LongAdder MESSAGES_SENT = new LongAdder();
+
+  /**
+   * Size of web socket messages successfully handed to the container. Counted in characters, which
+   * equals bytes for the mostly ASCII JSON we send, to avoid encoding on the hot path.
+   */
+  public static final LongAdder BYTES_SENT = new LongAdder();
+
+  /** Web socket messages dropped because a session write queue was full. */
+  public static final LongAdder MESSAGES_DROPPED = new LongAdder();
+
+  /** Queued updates replaced by a newer update for the same PV in a conflating write queue. */
+  public static final LongAdder MESSAGES_CONFLATED = new LongAdder();
+
+  /** Times the server wide write queue memory budget was exceeded and reclamation ran. */
+  public static final LongAdder BUDGET_RECLAIMS = new LongAdder();
+
+  /** Bytes of queued messages shed to bring the write queue memory budget back under its limit. */
+  public static final LongAdder BUDGET_RECLAIMED_BYTES = new LongAdder();
+
+  /** Events a PV source callback couldn't publish because its dispatch ring was full. */
+  public static final LongAdder DISPATCH_OVERFLOWS = new LongAdder();
+
+  /** Time events wait in a dispatch ring before a dispatcher thread takes them. */
+  public static final LatencyHistogram DISPATCH_LAG = new LatencyHistogram();
+
+  /** Events whose listeners were notified in parallel because the PV has many subscribers. */
+  public static final LongAdder PARALLEL_FANOUTS = new LongAdder();
+
+  /** Batches of connection info delivered, each grouping the changes on one host. */
+  public static final LongAdder INFO_BATCHES = new LongAdder();
+
+  /** PVs reported in connection info batches. */
+  public static final LongAdder INFO_BATCHED_PVS = new LongAdder();
+
+  /** Monitors and one-time gets answered right away because the PV recently failed to connect. */
+  public static final LongAdder NEGATIVE_CACHE_HITS = new LongAdder();
+
+  /** One-time get values answered from the latest value of an existing monitor. */
+  public static final LongAdder GET_VALUES_CACHED = new LongAdder();
+
+  /** One-time get values read from a PV source. */
+  public static final LongAdder GET_VALUES_READ = new LongAdder();
+
+  /** PV notifications not sent because the session was paused; folded into a snapshot on resume. */
+  public static final LongAdder PAUSED_NOTIFICATIONS = new LongAdder();
+
+  /** Sessions closed on open because their IP address already had the max number of sessions. */
+  public static final LongAdder QUOTA_REJECTED_SESSIONS = new LongAdder();
+
+  /** Client requests rejected for exceeding the messages per second quota. */
+  public static final LongAdder QUOTA_REJECTED_MESSAGES = new LongAdder();
+
+  /** PVs in monitor requests rejected for exceeding the PVs per session quota. */
+  public static final LongAdder QUOTA_REJECTED_PVS_PER_SESSION = new LongAdder();
+
+  /** PVs in monitor and get requests rejected for exceeding the new PVs per second quota. */
+  public static final LongAdder QUOTA_REJECTED_NEW_PVS = new LongAdder();
+
+  /** Sessions closed because they stopped responding to pings. */
+  public static final LongAdder SESSIONS_EXPIRED = new LongAdder();
+
+  /** Slow consumer sessions escalated to conflated delivery. */
+  public static final LongAdder SESSIONS_CONFLATED = new LongAdder();
+
+  /** Slow consumer sessions escalated to a reduced bandwidth budget. */
+  public static final LongAdder SESSIONS_THROTTLED = new LongAdder();
+
+  /** Slow consumer sessions closed. */
+  public static final LongAdder SESSIONS_CLOSED_SLOW = new LongAdder();
+
+  /** Latency of updates from CA callback until taken off a session write queue. */
+  public static final LatencyHistogram UPDATE_QUEUE_LATENCY = new LatencyHistogram();
+
+  /** Latency of updates from being taken off a session write queue until the write completes. */
+  public static final LatencyHistogram UPDATE_SEND_LATENCY = new LatencyHistogram();
+
+  /** Latency of updates from CA callback until the web socket write completes. */
+  public static final LatencyHistogram UPDATE_TOTAL_LATENCY = new LatencyHistogram();
+
+  private static final Map<String, LongAdder> CONTEXT_EVENTS = new ConcurrentHashMap<>();
+
+  private Metrics() {
+    // cannot instantiate publicly
+  }
+
+  /**
+   * Return the monitor event counter for the named context. Callers on the hot path should obtain
+   * the counter once and keep a reference to it.
+   *
+   * @param context The context name
+   * @return The counter
+   */
+  public static LongAdder contextEvents(String context) {
+    return CONTEXT_EVENTS.computeIfAbsent(context, k -> new LongAdder());
+  }
+
+  /**
+   * Return an unmodifiable view of the monitor event counters by context name.
+   *
+   * @return The counters
+   */
+  public static Map<String, LongAdder> getContextEvents() {
+    return Collections.unmodifiableMap(CONTEXT_EVENTS);
+  }
+
+  /**
+   * Record a successful web socket send.
+   *
+   * @param msg The message that was sent
+   */
+  public static void recordSent(String msg) {
+    MESSAGES_SENT.increment();
+    BYTES_SENT.add(msg.length());
+  }
+
+  /**
+   * Record the end-to-end latency of an update. Messages that were not stamped at CA callback time
+   * (info, pong, initial values) are ignored.
+   *
+   * @param eventNanos The System.nanoTime() the update was received from CA
+   * @param dequeueNanos The System.nanoTime() the message was taken off the write queue
+   * @param completeNanos The System.nanoTime() the write completed
+   * @param sessionHistogram The session specific histogram to also record the total in, or null
+   */
+  public static void recordUpdateLatency(
+      long eventNanos, long dequeueNanos, long completeNanos, LatencyHistogram sessionHistogram) {
+    if (eventNanos == PvListener.NOT_TIMESTAMPED) {
+      return;
+    }
+
+    long total = completeNanos - eventNanos;
+
+    UPDATE_QUEUE_LATENCY.record(dequeueNanos - eventNanos);
+    UPDATE_SEND_LATENCY.record(completeNanos - dequeueNanos);
+    UPDATE_TOTAL_LATENCY.record(total);
+
+    if (sessionHistogram != null) {
+      sessionHistogram.record(total);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package org.jlab.epics2web.metrics;
+
+/**
+ * Minimal writer for the Prometheus text exposition format (version 0.0.4).
+ *
+ * <p>Each metric family must be written with a single call to {@link #family(String, String,
+ * String)} followed by its samples.
+ */
+public class PrometheusWriter {
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final double NANOS_PER_SECOND = 1_000_000_000.0d;
+
+  private static final String[] QUANTILES = new String[] {"0.5", "0.99", "0.999"};
+
+  private final StringBuilder builder = new StringBuilder(4096);
+
+  /**
+   * Write the HELP and TYPE header lines of a metric family.
+   *
+   * @param name The metric name
+   * @param type The metric type (counter, gauge, summary)
+   * @param help The help text
+   * @return This writer
+   */
+  public PrometheusWriter family(String name, String type, String help) {
+    builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    return this;
+  }
+
+  /**
+   * Write a sample line.
+   *
+   * @param name The sample name
+   * @param value The sample value
+   * @param labels Alternating label names and values; may be empty
+   * @return This writer
+   */
+  public PrometheusWriter sample(String name, double value, String... labels) {
+    builder.append(name);
+
+    if (labels.length > 0) {
+      builder.append('{');
+      for (int i = 0; i + 1 < labels.length; i = i + 2) {
+        if (i > 0) {
+          builder.append(',');
+        }
+        builder.append(labels[i]).append("=\"");
+        escape(labels[i + 1]);
+        builder.append('"');
+      }
+      builder.append('}');
+    }
+
+    builder.append(' ');
+
+    if (value == Math.rint(value) && !Double.isInfinite(value)) {
+      builder.append((long) value);
+    } else {
+      builder.append(value);
+    }
+
+    builder.append('\n');
+    return this;
+  }
+
+  /**
+   * Write a counter family with a single unlabeled sample.
+   *
+   * @param name The metric name
+   * @param help The help text
+   * @param value The value
+   * @return This writer
+   */
+  public PrometheusWriter counter(String name, String help, long value) {
+    return family(name, "counter", help).sample(name, value);
+  }
+
+  /**
+   * Write a gauge family with a single unlabeled sample.
+   *
+   * @param name The metric name
+   * @param help The help text
+   * @param value The value
+   * @return This writer
+   */
+  public PrometheusWriter gauge(String name, String help, double value) {
+    return family(name, "gauge", help).sample(name, value);
+  }
+
+  /**
+   * Write a Timing as a summary in seconds (count and sum) plus a companion max gauge.
+   *
+   * @param name The metric base name, which should end in _seconds
+   * @param help The help text
+   * @param timing The timing
+   * @return This writer
+   */
+  public PrometheusWriter timing(String name, String help, Timing timing) {
+    family(name, "summary", help);
+    sample(name + "_count", timing.getCount());
+    sample(name + "_sum", timing.getTotalNanos() / NANOS_PER_SECOND);
+    family(name + "_max", "gauge", "Maximum of " + name);
+    sample(name + "_max", timing.getMaxNanos() / NANOS_PER_SECOND);
+    return this;
+  }
+
+  /**
+   * Write LatencyHistograms as a summary in seconds with p50, p99, and p999 quantiles. Each
+   * histogram is distinguished by a label.
+   *
+   * @param name The metric base name, which should end in _seconds
+   * @param help The help text
+   * @param label The label name
+   * @param labelValues The label value for each histogram
+   * @param histograms The histograms
+   * @return This writer
+   */
+  public PrometheusWriter latency(
+      String name, String help, String label, String[] labelValues, LatencyHistogram[] histograms) {
+    family(name, "summary", help);
+    for (int i = 0; i < histograms.length; i++) {
+      LatencyHistogram h = histograms[i];
+      for (String quantile : QUANTILES) {
+        sample(
+            name,
+            h.getValueAtQuantile(Double.parseDouble(quantile)) / NANOS_PER_SECOND,
+            label,
+            labelValues[i],
+            "quantile",
+            quantile);
+      }
+      sample(name + "_count", h.getCount(), label, labelValues[i]);
+      sample(name + "_sum", h.getTotalNanos() / NANOS_PER_SECOND, label, labelValues[i]);
+    }
+    return this;
+  }
+
+  private void escape(String value) {
+    if (value == null) {
+      return;
+    }
+
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' || c == '"') {
+        builder.append('\\').append(c);
+      } else if (c == '\n') {
+        builder.append("\\n");
+      } else {
+        builder.append(c);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return builder.toString();
+  }
+}
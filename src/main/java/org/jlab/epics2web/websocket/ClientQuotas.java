@@ -0,0 +1,134 @@
+package org.jlab.epics2web.websocket;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.jlab.util.TokenBucket;
+
+/**
+ * Admission control limits applied to each web socket client, so one misbehaving script can't
+ * swamp the CA network or the ChannelManager. A limit of zero means unlimited.
+ *
+ * <ul>
+ *   <li>Sessions per IP - checked when a session opens; extra sessions are closed immediately
+ *   <li>PVs per session - PVs in a monitor request beyond the limit are rejected
+ *   <li>New PVs per second per session - PVs in monitor and get requests beyond the rate are
+ *       rejected
+ *   <li>Messages per second per session - requests other than ping beyond the rate are rejected
+ * </ul>
+ *
+ * <p>Rates are enforced with token buckets that hold RATE_BURST_SECONDS worth of tokens, so a
+ * client can subscribe to a full page of PVs at once but not churn subscriptions in a loop.
+ */
+public final class ClientQuotas {
+
+  /** Quota names, as reported to clients and in metrics. */
+  public static final String SESSIONS_PER_IP = "sessions-per-ip";
+
+  public static final String PVS_PER_SESSION = "pvs-per-session";
+  public static final String NEW_PVS_PER_SECOND = "new-pvs-per-second";
+  public static final String MESSAGES_PER_SECOND = "messages-per-second";
+
+  /** Close code for a session over the sessions per IP limit; clients should wait to reconnect */
+  public static final int SESSION_LIMIT_CLOSE_CODE = 4002;
+
+  public static final String SESSION_LIMIT_CLOSE_REASON = "Too many sessions";
+
+  /** No limits. */
+  public static final ClientQuotas UNLIMITED = new ClientQuotas(0, 0, 0, 0);
+
+  /** Rate limited clients may burst this many seconds worth of requests. */
+  static final int RATE_BURST_SECONDS = 10;
+
+  private final int maxSessionsPerIp;
+  private final int maxPvsPerSession;
+  private final int newPvsPerSecond;
+  private final int messagesPerSecond;
+
+  /* Open sessions by IP; only accessed while synchronized as sessions open and close rarely */
+  private final Map<String, Integer> sessionsByIp = new HashMap<>();
+
+  /**
+   * Create a new ClientQuotas.
+   *
+   * @param maxSessionsPerIp Max open sessions from one IP address, or 0 for unlimited
+   * @param maxPvsPerSession Max PVs one session may monitor, or 0 for unlimited
+   * @param newPvsPerSecond Max PVs per second one session may monitor or get, or 0 for unlimited
+   * @param messagesPerSecond Max requests per second from one session, or 0 for unlimited
+   */
+  public ClientQuotas(
+      int maxSessionsPerIp, int maxPvsPerSession, int newPvsPerSecond, int messagesPerSecond) {
+    this.maxSessionsPerIp = maxSessionsPerIp;
+    this.maxPvsPerSession = maxPvsPerSession;
+    this.newPvsPerSecond = newPvsPerSecond;
+    this.messagesPerSecond = messagesPerSecond;
+  }
+
+  /**
+   * Count a new session from the given IP address if under the limit. A session that is admitted
+   * must be released with sessionClosed.
+   *
+   * @param ip The client IP address, or null if unknown (never limited)
+   * @return true if admitted, false if the IP already has the max number of sessions
+   */
+  synchronized boolean tryOpenSession(String ip) {
+    if (maxSessionsPerIp <= 0 || ip == null) {
+      return true;
+    }
+
+    int count = sessionsByIp.getOrDefault(ip, 0);
+
+    if (count >= maxSessionsPerIp) {
+      return false;
+    }
+
+    sessionsByIp.put(ip, count + 1);
+
+    return true;
+  }
+
+  /**
+   * Release a session admitted by tryOpenSession.
+   *
+   * @param ip The client IP address, or null if unknown
+   */
+  synchronized void sessionClosed(String ip) {
+    if (maxSessionsPerIp <= 0 || ip == null) {
+      return;
+    }
+
+    sessionsByIp.computeIfPresent(ip, (k, count) -> count <= 1 ? null : count - 1);
+  }
+
+  /**
+   * Return the max PVs one session may monitor.
+   *
+   * @return The limit, or 0 for unlimited
+   */
+  int getMaxPvsPerSession() {
+    return maxPvsPerSession;
+  }
+
+  /**
+   * Create the bucket limiting how fast a session may add PVs.
+   *
+   * @return The bucket, or null if unlimited
+   */
+  TokenBucket newPvBucket() {
+    return newBucket(newPvsPerSecond);
+  }
+
+  /**
+   * Create the bucket limiting how fast a session may send requests.
+   *
+   * @return The bucket, or null if unlimited
+   */
+  TokenBucket newMessageBucket() {
+    return newBucket(messagesPerSecond);
+  }
+
+  private static TokenBucket newBucket(int perSecond) {
+    return perSecond <= 0
+        ? null
+        : new TokenBucket(perSecond, (double) perSecond * RATE_BURST_SECONDS);
+  }
+}
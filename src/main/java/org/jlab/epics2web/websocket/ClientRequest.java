@@ -0,0 +1,141 @@
+package org.jlab.epics2web.websocket;
+
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.JsonValue;
+import jakarta.json.stream.JsonParser;
+import java.io.Reader;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A request from a web socket client, such as {"type":"monitor","pvs":["a","b"]}. Requests are
+ * read with the streaming JSON parser so a request naming thousands of PVs goes straight into a set
+ * of names without building a JSON object tree first.
+ */
+final class ClientRequest {
+
+  private static final Logger LOGGER = Logger.getLogger(ClientRequest.class.getName());
+
+  private final String type;
+  private final Set<String> pvs;
+  private final JsonValue id;
+  private final boolean enumLabel;
+
+  private ClientRequest(String type, Set<String> pvs, JsonValue id, boolean enumLabel) {
+    this.type = type;
+    this.pvs = pvs;
+    this.id = id;
+    this.enumLabel = enumLabel;
+  }
+
+  /**
+   * Parse a request. Unknown keys are ignored, as are PVs that aren't strings.
+   *
+   * @param reader The request JSON
+   * @return The request
+   * @throws JsonException If the request isn't a JSON object
+   */
+  static ClientRequest parse(Reader reader) {
+    String type = null;
+    Set<String> pvs = new LinkedHashSet<>();
+    JsonValue id = null;
+    boolean enumLabel = true;
+
+    try (JsonParser parser = Json.createParser(reader)) {
+      if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+        throw new JsonException("Client request is not a JSON object");
+      }
+
+      while (parser.hasNext()) {
+        JsonParser.Event event = parser.next();
+
+        if (event == JsonParser.Event.END_OBJECT) {
+          break;
+        }
+
+        // Otherwise a KEY_NAME
+        String key = parser.getString();
+        JsonParser.Event value = parser.next();
+
+        if ("type".equals(key) && value == JsonParser.Event.VALUE_STRING) {
+          type = parser.getString();
+        } else if ("pvs".equals(key) && value == JsonParser.Event.START_ARRAY) {
+          readPvs(parser, pvs);
+        } else if ("id".equals(key)
+            && (value == JsonParser.Event.VALUE_STRING
+                || value == JsonParser.Event.VALUE_NUMBER)) {
+          id = parser.getValue();
+        } else if ("enumLabel".equals(key) && value == JsonParser.Event.VALUE_FALSE) {
+          enumLabel = false;
+        } else if (value == JsonParser.Event.START_ARRAY) {
+          parser.skipArray();
+        } else if (value == JsonParser.Event.START_OBJECT) {
+          parser.skipObject();
+        }
+      }
+    }
+
+    return new ClientRequest(type, pvs, id, enumLabel);
+  }
+
+  private static void readPvs(JsonParser parser, Set<String> pvs) {
+    while (parser.hasNext()) {
+      JsonParser.Event event = parser.next();
+
+      if (event == JsonParser.Event.END_ARRAY) {
+        return;
+      }
+
+      if (event == JsonParser.Event.VALUE_STRING) {
+        pvs.add(parser.getString());
+      } else {
+        LOGGER.log(Level.WARNING, "PV not a string: {0}", event);
+
+        if (event == JsonParser.Event.START_ARRAY) {
+          parser.skipArray();
+        } else if (event == JsonParser.Event.START_OBJECT) {
+          parser.skipObject();
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the request type, such as "monitor", "clear", "get", or "ping".
+   *
+   * @return The type, or null if missing
+   */
+  String getType() {
+    return type;
+  }
+
+  /**
+   * Return the PVs named in the request.
+   *
+   * @return The PVs in request order, empty if none
+   */
+  Set<String> getPvs() {
+    return pvs;
+  }
+
+  /**
+   * Return the id the client chose to correlate a get with its response.
+   *
+   * @return The id (a JSON string or number), or null if missing
+   */
+  JsonValue getId() {
+    return id;
+  }
+
+  /**
+   * Return whether a get should return enum values as labels.
+   *
+   * @return false if the request has "enumLabel":false, true otherwise
+   */
+  boolean isEnumLabel() {
+    return enumLabel;
+  }
+}
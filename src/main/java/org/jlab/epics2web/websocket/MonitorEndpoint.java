@@ -1,9 +1,5 @@
 package org.jlab.epics2web.websocket;
 
-import jakarta.json.Json;
-import jakarta.json.JsonArray;
-import jakarta.json.JsonObject;
-import jakarta.json.JsonReader;
 import jakarta.websocket.CloseReason;
 import jakarta.websocket.EndpointConfig;
 import jakarta.websocket.OnClose;
@@ -13,6 +9,7 @@ import jakarta.websocket.OnOpen;
 import jakarta.websocket.PongMessage;
 import jakarta.websocket.Session;
 import jakarta.websocket.server.ServerEndpoint;
+import java.io.IOException;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
@@ -20,17 +17,15 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jlab.epics2web.Application;
+import org.jlab.epics2web.metrics.Metrics;
 
 /**
- * Controller for the EPICS web socket monitor.
+ * Controller for the EPICS web socket monitor. The container creates one instance per session.
  *
  * @author slominskir
  */
@@ -39,19 +34,34 @@ public class MonitorEndpoint {
 
   private static final Logger LOGGER = Logger.getLogger(MonitorEndpoint.class.getName());
 
+  /** Max size of a client request; larger requests close the session */
+  private static final int MAX_REQUEST_CHARS = 4 * 1024 * 1024;
+
+  private WebSocketSessionMonitor monitor;
+
+  /* Address the session was counted against in the sessions per IP quota, or null if unknown */
+  private String quotaAddr;
+
+  /* Parts of a request received so far; the container delivers one part at a time per session */
+  private StringBuilder partial;
+
   @OnOpen
   public void onOpen(Session session, EndpointConfig config) {
     // LOGGER.log(Level.FINEST, "open");
 
-    Application.sessionManager.recordInteractionDate(session);
-
     if (session != null) {
       WebSocketAuditContext context = WebSocketAuditContext.getCurrentInstance();
 
+      String ip = null;
+      String name = null;
+      String agent = null;
+
       if (context != null) {
         Map<String, List<String>> headers = context.getHeaders();
 
-        String ip = null;
+        // The client controls X-Forwarded-For, so it is only used for display, never for quotas
+        quotaAddr = context.getRemoteAddr();
+
         List<String> xForwardedForList = headers.get("X-Forwarded-For");
         String xForwardedFor = null;
         if (xForwardedForList != null && !xForwardedForList.isEmpty()) {
@@ -64,7 +74,6 @@ public class MonitorEndpoint {
         }
 
         List<String> agentList = headers.get("user-agent");
-        String agent = null;
         if (agentList != null && !agentList.isEmpty()) {
           agent = agentList.get(0);
         }
@@ -79,11 +88,25 @@ public class MonitorEndpoint {
           }
         }
 
-        String name = "";
-        String q = session.getQueryString();
-        if (q != null) {
-          String[] tokens = q.split("=");
-          if (tokens.length == 2) {
+        // Try to prevent classloader leak
+        WebSocketAuditContext.setCurrentInstance(null);
+      }
+
+      name = "";
+      boolean pvIds = false;
+      boolean infoBatches = false;
+      boolean snapshots = false;
+      String q = session.getQueryString();
+      if (q != null) {
+        for (String param : q.split("&")) {
+          String[] tokens = param.split("=");
+          if (tokens.length == 2 && "pvIds".equals(tokens[0])) {
+            pvIds = Boolean.parseBoolean(tokens[1]);
+          } else if (tokens.length == 2 && "infoBatches".equals(tokens[0])) {
+            infoBatches = Boolean.parseBoolean(tokens[1]);
+          } else if (tokens.length == 2 && "snapshots".equals(tokens[0])) {
+            snapshots = Boolean.parseBoolean(tokens[1]);
+          } else if (tokens.length == 2) { // clientName
             try {
               name = URLDecoder.decode(tokens[1], "UTF-8");
             } catch (UnsupportedEncodingException e) {
@@ -93,61 +116,92 @@ public class MonitorEndpoint {
                   e);
             }
           }
-          if (name == null) {
-            name = "";
-          }
         }
+        if (name == null) {
+          name = "";
+        }
+      }
 
-        session.getUserProperties().put("agent", agent);
-        session.getUserProperties().put("ip", ip);
-        session.getUserProperties().put("name", name);
+      ClientQuotas quotas = Application.clientQuotas;
+      if (!quotas.tryOpenSession(quotaAddr)) {
+        Metrics.QUOTA_REJECTED_SESSIONS.increment();
+        LOGGER.log(Level.INFO, "Rejecting session; too many sessions from {0}", quotaAddr);
+        try {
+          session.close(
+              new CloseReason(
+                  CloseReason.CloseCodes.getCloseCode(ClientQuotas.SESSION_LIMIT_CLOSE_CODE),
+                  ClientQuotas.SESSION_LIMIT_CLOSE_REASON));
+        } catch (IOException e) {
+          LOGGER.log(Level.FINE, "Unable to close session", e);
+        }
+        return;
+      }
 
-        // Try to prevent classloader leak
-        WebSocketAuditContext.setCurrentInstance(null);
+      SessionWriteQueue writequeue = null;
+      if (Application.WRITE_STRATEGY != WriteStrategy.CALLBACK_BLOCKER) {
+        String id = session.getId() + " / " + ip;
+        writequeue =
+            new SessionWriteQueue(
+                id,
+                Application.writeQueueBudget,
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    Application.closeSlowConsumer(session);
+                  }
+                });
       }
 
-      session.getUserProperties().put("droppedMessageCount", new AtomicLong());
-
-      if (Application.WRITE_STRATEGY == WriteStrategy.ASYNC_QUEUE) {
-        session.getUserProperties().put("isWriting", new AtomicBoolean(false));
-        session.getUserProperties().put("writequeue", new ConcurrentLinkedQueue());
-      } else if (Application.WRITE_STRATEGY == WriteStrategy.BLOCKING_QUEUE) {
-        ArrayBlockingQueue<String> writequeue =
-            new ArrayBlockingQueue<>(Application.WRITE_QUEUE_SIZE_LIMIT);
-        session.getUserProperties().put("writequeue", writequeue);
-        Future<?> writeThreadFuture = Application.writeFromBlockingQueue(session);
-        session.getUserProperties().put("writeThreadFuture", writeThreadFuture);
+      monitor =
+          new WebSocketSessionMonitor(
+              session,
+              Application.sessionManager,
+              ip,
+              name,
+              agent,
+              writequeue,
+              pvIds,
+              infoBatches,
+              snapshots,
+              quotas);
+
+      if (Application.WRITE_STRATEGY == WriteStrategy.BLOCKING_QUEUE) {
+        monitor.setWriteThreadFuture(Application.writeFromBlockingQueue(monitor));
       }
 
-      Application.sessionManager.addClient(session);
+      Application.sessionManager.addClient(monitor);
     }
   }
 
   @OnClose
   public void onClose(Session session, CloseReason reason) {
     // LOGGER.log(Level.FINEST, "close; Reason: {0}", reason);
-    if (session != null) {
-
-      if (Application.WRITE_STRATEGY == WriteStrategy.BLOCKING_QUEUE) {
-        Future<?> writeThreadFuture =
-            (Future<?>) session.getUserProperties().get("writeThreadFuture");
+    if (monitor != null) {
+      Future<?> writeThreadFuture = monitor.getWriteThreadFuture();
+      if (writeThreadFuture != null) {
         writeThreadFuture.cancel(true);
       }
 
-      Application.sessionManager.removeClient(session);
+      Application.sessionManager.removeClient(monitor);
+      monitor.getQuotas().sessionClosed(quotaAddr);
 
-      AtomicLong dropCount = (AtomicLong) session.getUserProperties().get("droppedMessageCount");
-      Date lastUpdated = (Date) session.getUserProperties().get("lastUpdated");
-      String host = (String) session.getUserProperties().get("ip");
-      if (host == null) {
-        host = (String) session.getUserProperties().get("remoteAddr");
+      SessionWriteQueue writequeue = monitor.getWriteQueue();
+      long dropCount = 0;
+      if (writequeue != null) {
+        writequeue.dispose();
+        dropCount = writequeue.getDroppedCount();
       }
+      String host = monitor.getIp();
 
-      if (dropCount.get() > 0) {
+      if (dropCount > 0) {
+        Date lastUpdated =
+            new Date(
+                System.currentTimeMillis()
+                    - TimeUnit.NANOSECONDS.toMillis(monitor.getIdleNanos()));
         LOGGER.log(
             Level.INFO,
-            "Closing session; Host: {0}; Drop count: {1}; Last Interaction: {2}",
-            new Object[] {host, dropCount.get(), lastUpdated});
+            "Closing session; Host: {0}; Drop count: {1}; Last Interaction: {2}; Reason: {3}",
+            new Object[] {host, dropCount, lastUpdated, reason.getReasonPhrase()});
       }
     }
   }
@@ -164,46 +218,113 @@ public class MonitorEndpoint {
   @OnMessage
   public void onPong(PongMessage message, Session session) {
     LOGGER.log(Level.FINEST, "WS Pong Received");
-    Application.sessionManager.recordInteractionDate(session);
+    if (monitor != null) {
+      monitor.recordInteraction();
+    }
   }
 
+  /**
+   * Handle a client request. Requests larger than the container's text buffer arrive in parts,
+   * which are collected until the last one so clients can send a large request in one message.
+   *
+   * @param part The request, or part of it
+   * @param last true if this is the last part
+   * @param session The session
+   */
   @OnMessage
-  public String onMessage(String message, Session session) {
-    // LOGGER.log(Level.FINEST, "Client message: {0}", message);
+  public void onMessage(String part, boolean last, Session session) {
+    // LOGGER.log(Level.FINEST, "Client message: {0}", part);
 
-    if (Application.RESTARTING) {
-      return null;
+    if (partial == null && last) {
+      handleRequest(part);
+      return;
     }
 
-    Application.sessionManager.recordInteractionDate(session);
+    if (partial == null) {
+      partial = new StringBuilder(part.length() * 2);
+    }
 
-    try (JsonReader reader = Json.createReader(new StringReader(message))) {
-      JsonObject obj = reader.readObject();
+    if (partial.length() + part.length() > MAX_REQUEST_CHARS) {
+      partial = null;
+      LOGGER.log(Level.WARNING, "Client request exceeds {0} characters", MAX_REQUEST_CHARS);
+      try {
+        session.close(new CloseReason(CloseReason.CloseCodes.TOO_BIG, "Request too large"));
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Unable to close session", e);
+      }
+      return;
+    }
 
-      String type = obj.getString("type");
+    partial.append(part);
+
+    if (last) {
+      String message = partial.toString();
+      partial = null;
+      handleRequest(message);
+    }
+  }
+
+  /**
+   * Return whether a request type is exempt from the messages per second quota.
+   *
+   * @param type The request type
+   * @return true if exempt
+   */
+  private static boolean isExempt(String type) {
+    return "ping".equals(type)
+        || "pause".equals(type)
+        || "resume".equals(type)
+        || "clear".equals(type);
+  }
+
+  private void handleRequest(String message) {
+    if (Application.RESTARTING || monitor == null) {
+      return;
+    }
+
+    monitor.recordInteraction();
+
+    try {
+      ClientRequest request = ClientRequest.parse(new StringReader(message));
+
+      String type = request.getType();
+
+      // Pings are exempt so a rate limited client isn't also considered dead, pause and resume
+      // (idempotent and cheap) so a rejected resume can't leave a visible client paused, and clear
+      // since it only ever reduces load and a rejected one would leave dropped PVs monitored
+      if (!isExempt(type) && !monitor.acquireMessagePermit()) {
+        Metrics.QUOTA_REJECTED_MESSAGES.increment();
+        Application.sessionManager.sendRejected(
+            monitor, type, request.getId(), ClientQuotas.MESSAGES_PER_SECOND, request.getPvs());
+        return;
+      }
 
       if ("ping".equals(type)) {
         /*LOGGER.log(Level.FINEST, "ping recieved");*/
-        Application.sessionManager.sendPong(session);
+        Application.sessionManager.sendPong(monitor);
       } else if ("monitor".equals(type)) {
-        JsonArray pvs = obj.getJsonArray("pvs");
-        Set<String> pvSet = Application.sessionManager.getPvSetFromJson(pvs);
-
-        Application.sessionManager.addPvs(session, pvSet);
+        Application.sessionManager.addPvs(monitor, request.getPvs());
       } else if ("clear".equals(type)) {
-        JsonArray pvs = obj.getJsonArray("pvs");
-        Set<String> pvSet = Application.sessionManager.getPvSetFromJson(pvs);
-
-        Application.sessionManager.removePvs(session, pvSet);
+        Application.sessionManager.removePvs(monitor, request.getPvs());
+      } else if ("pause".equals(type)) {
+        Application.sessionManager.pause(monitor);
+      } else if ("resume".equals(type)) {
+        Application.sessionManager.resume(monitor);
+      } else if ("get".equals(type)) {
+        Application.sessionManager.get(
+            monitor, request.getId(), request.getPvs(), request.isEnumLabel());
       } else {
-        LOGGER.log(Level.WARNING, "Unknown client request: {0}", message);
+        LOGGER.log(Level.WARNING, "Unknown client request type: {0}", type);
       }
     } catch (
         IllegalStateException e) { // state might be bad for various reasons so don't dump stack
       LOGGER.log(Level.INFO, "Unable to handle client message", e.getMessage());
     } catch (Exception e) {
-      LOGGER.log(Level.WARNING, "Unable to handle client message: " + message, e);
+      LOGGER.log(Level.WARNING, "Unable to handle client message: " + abbreviate(message), e);
     }
-    return null;
+  }
+
+  private static String abbreviate(String message) {
+    return message.length() <= 256 ? message : message.substring(0, 256) + "...";
   }
 }
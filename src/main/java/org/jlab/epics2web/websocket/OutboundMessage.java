@@ -0,0 +1,78 @@
+package org.jlab.epics2web.websocket;
+
+/**
+ * A message waiting in a session write queue along with the time the underlying event was received
+ * from CA, so end-to-end latency can be measured when the write completes.
+ *
+ * <p>Messages with a conflation key (the PV of an update) may be replaced in place by a newer
+ * message with the same key while they wait in a SessionWriteQueue that is conflating.
+ */
+public final class OutboundMessage {
+
+  /**
+   * Approximate heap used by a queued message beyond its characters: this object, the String, and
+   * the array header. The JSON we send is mostly Latin-1 so compact strings use a byte per char.
+   */
+  static final int OVERHEAD_BYTES = 64;
+
+  private final String conflationKey;
+  private String text;
+  private long eventNanos;
+
+  /**
+   * Create a new OutboundMessage that is never conflated.
+   *
+   * @param text The message text
+   * @param eventNanos The System.nanoTime() the event was received, or
+   *     PvListener.NOT_TIMESTAMPED
+   */
+  public OutboundMessage(String text, long eventNanos) {
+    this(text, eventNanos, null);
+  }
+
+  /**
+   * Create a new OutboundMessage.
+   *
+   * @param text The message text
+   * @param eventNanos The System.nanoTime() the event was received, or
+   *     PvListener.NOT_TIMESTAMPED
+   * @param conflationKey Messages with the same key may replace one another, or null if never
+   */
+  public OutboundMessage(String text, long eventNanos, String conflationKey) {
+    this.text = text;
+    this.eventNanos = eventNanos;
+    this.conflationKey = conflationKey;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  public long getEventNanos() {
+    return eventNanos;
+  }
+
+  /**
+   * Return the approximate heap used by this message, for write queue memory accounting.
+   *
+   * @return The size in bytes
+   */
+  public long getSizeBytes() {
+    return OVERHEAD_BYTES + text.length();
+  }
+
+  public String getConflationKey() {
+    return conflationKey;
+  }
+
+  /**
+   * Replace the contents of this queued message with a newer one. Must only be called while the
+   * message is in a queue and under the queue lock.
+   *
+   * @param newer The newer message
+   */
+  void replaceWith(OutboundMessage newer) {
+    this.text = newer.text;
+    this.eventNanos = newer.eventNanos;
+  }
+}
@@ -1,5 +1,7 @@
 package org.jlab.epics2web.websocket;
 
+import org.jlab.epics2web.metrics.LatencyHistogram;
+
 /**
  * This class provides a snapshot of websocket information that will not throw Exceptions if you try
  * to interrogate it after the session happens to have closed. There is a race condition if you hand
@@ -13,13 +15,34 @@ public class SessionInfo {
   private String name;
   private String agent;
   private long droppedMessageCount;
+  private String tier;
+  private double idleSeconds;
+  private long latencyCount;
+  private double latencyP50Millis;
+  private double latencyP99Millis;
+  private double latencyP999Millis;
 
-  public SessionInfo(String id, String ip, String name, String agent, long droppedMessageCount) {
+  public SessionInfo(String id, WebSocketSessionMonitor monitor) {
     this.id = id;
-    this.ip = ip;
-    this.name = name;
-    this.agent = agent;
-    this.droppedMessageCount = droppedMessageCount;
+    this.ip = monitor.getIp();
+    this.name = monitor.getName();
+    this.agent = monitor.getAgent();
+    this.idleSeconds = monitor.getIdleNanos() / 1_000_000_000d;
+
+    SessionWriteQueue writequeue = monitor.getWriteQueue();
+    LatencyHistogram latency = monitor.getLatency();
+
+    if (writequeue != null) {
+      this.droppedMessageCount = writequeue.getDroppedCount();
+      this.tier = writequeue.getTier().name();
+    }
+
+    if (latency != null) {
+      this.latencyCount = latency.getCount();
+      this.latencyP50Millis = latency.getMillisAtQuantile(0.5);
+      this.latencyP99Millis = latency.getMillisAtQuantile(0.99);
+      this.latencyP999Millis = latency.getMillisAtQuantile(0.999);
+    }
   }
 
   public String getId() {
@@ -41,4 +64,28 @@ public class SessionInfo {
   public long getDroppedMessageCount() {
     return droppedMessageCount;
   }
+
+  public String getTier() {
+    return tier;
+  }
+
+  public double getIdleSeconds() {
+    return idleSeconds;
+  }
+
+  public long getLatencyCount() {
+    return latencyCount;
+  }
+
+  public double getLatencyP50Millis() {
+    return latencyP50Millis;
+  }
+
+  public double getLatencyP99Millis() {
+    return latencyP99Millis;
+  }
+
+  public double getLatencyP999Millis() {
+    return latencyP999Millis;
+  }
 }
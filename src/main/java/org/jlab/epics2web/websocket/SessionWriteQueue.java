@@ -0,0 +1,507 @@
+package org.jlab.epics2web.websocket;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jlab.epics2web.Application;
+import org.jlab.epics2web.metrics.Metrics;
+import org.jlab.util.TokenBucket;
+
+/**
+ * A session write queue that adapts to slow consumers. Messages are normally delivered in order. As
+ * the queue backs up, or a single write stalls, the session is escalated through tiers:
+ *
+ * <ol>
+ *   <li>CONFLATED - a queued update for a PV is replaced by the newest update for that PV, so the
+ *       client gets the latest values instead of a growing backlog of stale ones
+ *   <li>THROTTLED - the session bandwidth budget is cut so the client costs less server time
+ *   <li>CLOSED - the queue is cleared and the session is closed with SLOW_CONSUMER_CLOSE_CODE
+ * </ol>
+ *
+ * <p>A session drops back one tier after its queue has stayed nearly empty for a while. Every
+ * session is also held to a bandwidth budget (Application.SESSION_CHARS_PER_SECOND_LIMIT) enforced
+ * by the writer before each send.
+ *
+ * <p>Queued bytes are charged to a server wide WriteQueueBudget, which may ask this queue to shed
+ * messages when the budget is exceeded.
+ *
+ * <p>Tiers are evaluated inline on offer and take so no extra thread is needed.
+ */
+public class SessionWriteQueue {
+
+  private static final Logger LOGGER = Logger.getLogger(SessionWriteQueue.class.getName());
+
+  /** Web socket close code sent to a session closed for being a slow consumer. */
+  public static final int SLOW_CONSUMER_CLOSE_CODE = 4001;
+
+  public static final String SLOW_CONSUMER_CLOSE_REASON = "Slow consumer";
+
+  /** Queue depth at which a session starts conflating updates. */
+  static final int CONFLATE_DEPTH = Application.WRITE_QUEUE_SIZE_LIMIT / 4;
+
+  /** Queue depth (while conflating) at which a session is throttled. */
+  static final int THROTTLE_DEPTH = Application.WRITE_QUEUE_SIZE_LIMIT / 2;
+
+  /** Queue depth at or below which a session is considered drained. */
+  static final int RECOVER_DEPTH = Application.WRITE_QUEUE_SIZE_LIMIT / 20;
+
+  /** Single write duration at which a session starts conflating. */
+  static final long CONFLATE_SEND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** Single write duration at which a session is throttled. */
+  static final long THROTTLE_SEND_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  /** Single write duration at which a session is closed. */
+  static final long CLOSE_SEND_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  /** How long a session must stay backed up in a tier before escalating further on depth alone. */
+  static final long ESCALATE_HOLD_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  /** How long a session must stay drained before dropping back a tier. */
+  static final long RECOVER_HOLD_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  /** Divisor applied to the bandwidth budget while throttled. */
+  static final int THROTTLE_DIVISOR = 8;
+
+  public enum Tier {
+    NORMAL,
+    CONFLATED,
+    THROTTLED,
+    CLOSED;
+  }
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final ArrayDeque<OutboundMessage> queue = new ArrayDeque<>();
+
+  /** Queued conflatable messages by key; only maintained while conflating */
+  private final Map<String, OutboundMessage> pending = new HashMap<>();
+
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final WriteQueueBudget budget;
+  private final TokenBucket bandwidth =
+      new TokenBucket(
+          Application.SESSION_CHARS_PER_SECOND_LIMIT, Application.SESSION_CHARS_PER_SECOND_LIMIT);
+  private final String id;
+  private final Runnable slowConsumerCloser;
+
+  private volatile Tier tier = Tier.NORMAL;
+
+  /** Bytes charged to the budget for queued messages; only modified under lock */
+  private volatile long queuedBytes = 0;
+
+  /** System.nanoTime() the current write started, or 0 if no write in progress */
+  private volatile long sendStartNanos = 0;
+
+  /** Set once the session closes so late offers aren't charged to the budget; only read under lock */
+  private boolean disposed = false;
+
+  /** System.nanoTime() the current tier was entered */
+  private long tierSinceNanos = System.nanoTime();
+
+  /** System.nanoTime() the queue was first seen drained in the current tier, or 0 */
+  private long drainedSinceNanos = 0;
+
+  /**
+   * Create a new SessionWriteQueue.
+   *
+   * @param id The session description (for logging)
+   * @param budget The server wide budget queued bytes are charged to
+   * @param slowConsumerCloser Closes the session; called at most once, while holding no locks, when
+   *     the session is escalated to CLOSED
+   */
+  public SessionWriteQueue(String id, WriteQueueBudget budget, Runnable slowConsumerCloser) {
+    this.id = id;
+    this.budget = budget;
+    this.slowConsumerCloser = slowConsumerCloser;
+
+    budget.register(this);
+  }
+
+  /**
+   * Queue a message, conflating it with a queued message of the same key if conflating.
+   *
+   * @param msg The message
+   * @return false if the message was dropped because the queue is full, closed, or disposed, or the
+   *     memory budget is exhausted
+   */
+  public boolean offer(OutboundMessage msg) {
+    boolean close = false;
+    boolean success = false;
+    long bytes = msg.getSizeBytes();
+
+    // Reserve before taking our lock since reclamation may need it
+    if (!budget.reserve(bytes)) {
+      droppedCount.incrementAndGet();
+      return false;
+    }
+
+    lock.lock();
+    try {
+      long now = System.nanoTime();
+
+      // A delivery already in flight when the session closed; the writer is gone
+      if (!disposed) {
+        close = escalate(now);
+      }
+
+      if (!disposed && tier != Tier.CLOSED) {
+        String key = msg.getConflationKey();
+        OutboundMessage queued = null;
+
+        if (key != null && tier != Tier.NORMAL) {
+          queued = pending.get(key);
+        }
+
+        if (queued != null) {
+          long replacedBytes = queued.getSizeBytes();
+          queued.replaceWith(msg);
+          queuedBytes = queuedBytes - replacedBytes + bytes;
+          budget.release(replacedBytes);
+          Metrics.MESSAGES_CONFLATED.increment();
+          success = true;
+        } else if (queue.size() < Application.WRITE_QUEUE_SIZE_LIMIT) {
+          queue.offer(msg);
+          queuedBytes = queuedBytes + bytes;
+          if (key != null && tier != Tier.NORMAL) {
+            pending.put(key, msg);
+          }
+          notEmpty.signal();
+          success = true;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (close) {
+      slowConsumerCloser.run();
+    }
+
+    if (!success) {
+      budget.release(bytes);
+      droppedCount.incrementAndGet();
+    }
+
+    return success;
+  }
+
+  /**
+   * Remove the next message, waiting if necessary.
+   *
+   * @return The message
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public OutboundMessage take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (queue.isEmpty()) {
+        notEmpty.await();
+      }
+
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Remove the next message if there is one.
+   *
+   * @return The message, or null if empty
+   */
+  public OutboundMessage poll() {
+    lock.lock();
+    try {
+      return queue.isEmpty() ? null : dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Return how long the writer must wait before the bandwidth budget allows another send.
+   *
+   * @param nowNanos The current System.nanoTime()
+   * @return Nanoseconds to wait, or 0 if a send is allowed now
+   */
+  public long nanosUntilBandwidth(long nowNanos) {
+    return bandwidth.nanosUntilAvailable(nowNanos);
+  }
+
+  /**
+   * Record that a write of the given message is starting. Charges the bandwidth budget and starts
+   * the stall clock.
+   *
+   * @param msg The message
+   * @param nowNanos The current System.nanoTime()
+   */
+  public void sendStarted(OutboundMessage msg, long nowNanos) {
+    bandwidth.consume(msg.getText().length(), nowNanos);
+    sendStartNanos = nowNanos;
+  }
+
+  /** Record that the current write finished (successfully or not). */
+  public void sendCompleted() {
+    sendStartNanos = 0;
+  }
+
+  /** Remove all queued messages. */
+  public void clear() {
+    lock.lock();
+    try {
+      clearQueued();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Remove all queued messages and stop charging the budget; call once the session closes. Later
+   * offers are refused.
+   */
+  public void dispose() {
+    lock.lock();
+    try {
+      disposed = true;
+      clearQueued();
+    } finally {
+      lock.unlock();
+    }
+
+    budget.unregister(this);
+  }
+
+  /**
+   * Drop queued messages to give memory back to the budget. A queue that isn't already conflating
+   * starts conflating, which may be enough on its own; after that the oldest updates are dropped,
+   * and only then other messages.
+   *
+   * @param wantedBytes The bytes the budget would like back
+   * @return The bytes freed
+   */
+  long shed(long wantedBytes) {
+    long freed = 0;
+    long dropped = 0;
+
+    lock.lock();
+    try {
+      long before = queuedBytes;
+
+      if (tier == Tier.NORMAL) {
+        setTier(Tier.CONFLATED, queue.size());
+      }
+
+      freed = before - queuedBytes;
+
+      for (int pass = 0; pass < 2 && freed < wantedBytes; pass++) {
+        Iterator<OutboundMessage> it = queue.iterator();
+
+        while (it.hasNext() && freed < wantedBytes) {
+          OutboundMessage msg = it.next();
+          String key = msg.getConflationKey();
+
+          // First pass only updates; second pass anything
+          if (key != null || pass == 1) {
+            it.remove();
+            if (key != null) {
+              pending.remove(key, msg);
+            }
+            long bytes = msg.getSizeBytes();
+            queuedBytes = queuedBytes - bytes;
+            budget.release(bytes);
+            freed = freed + bytes;
+            dropped++;
+          }
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (dropped > 0) {
+      droppedCount.addAndGet(dropped);
+      Metrics.MESSAGES_DROPPED.add(dropped);
+    }
+    Metrics.BUDGET_RECLAIMED_BYTES.add(freed);
+
+    return freed;
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public Tier getTier() {
+    return tier;
+  }
+
+  public long getQueuedBytes() {
+    return queuedBytes;
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  private OutboundMessage dequeue() {
+    OutboundMessage msg = queue.poll();
+
+    String key = msg.getConflationKey();
+    if (key != null) {
+      pending.remove(key, msg);
+    }
+
+    long bytes = msg.getSizeBytes();
+    queuedBytes = queuedBytes - bytes;
+    budget.release(bytes);
+
+    recover(System.nanoTime());
+
+    return msg;
+  }
+
+  /**
+   * Move up tiers if the queue is backed up or the current write has stalled. Must hold lock.
+   *
+   * @param now The current System.nanoTime()
+   * @return true if the session was just escalated to CLOSED
+   */
+  private boolean escalate(long now) {
+    if (tier == Tier.CLOSED) {
+      return false;
+    }
+
+    int depth = queue.size();
+    long start = sendStartNanos;
+    long stalled = start == 0 ? 0 : now - start;
+
+    // A stalled write jumps straight to its tier
+    Tier target = Tier.NORMAL;
+    if (stalled >= CLOSE_SEND_NANOS) {
+      target = Tier.CLOSED;
+    } else if (stalled >= THROTTLE_SEND_NANOS) {
+      target = Tier.THROTTLED;
+    } else if (stalled >= CONFLATE_SEND_NANOS) {
+      target = Tier.CONFLATED;
+    }
+
+    // Depth moves one tier at a time, and beyond conflation only if still backed up after a hold
+    // so that a burst of info messages from a large subscribe doesn't escalate a healthy client
+    boolean held = now - tierSinceNanos >= ESCALATE_HOLD_NANOS;
+    if (tier == Tier.NORMAL && depth >= CONFLATE_DEPTH
+        || tier == Tier.CONFLATED && depth >= THROTTLE_DEPTH && held
+        || tier == Tier.THROTTLED && depth >= Application.WRITE_QUEUE_SIZE_LIMIT && held) {
+      target = Tier.values()[Math.max(target.ordinal(), tier.ordinal() + 1)];
+    }
+
+    while (tier.ordinal() < target.ordinal()) {
+      setTier(Tier.values()[tier.ordinal() + 1], depth);
+    }
+
+    return tier == Tier.CLOSED;
+  }
+
+  /**
+   * Move down a tier if the queue has stayed drained long enough. Must hold lock.
+   *
+   * @param now The current System.nanoTime()
+   */
+  private void recover(long now) {
+    if (tier == Tier.NORMAL || tier == Tier.CLOSED) {
+      return;
+    }
+
+    if (queue.size() > RECOVER_DEPTH) {
+      drainedSinceNanos = 0;
+    } else if (drainedSinceNanos == 0) {
+      drainedSinceNanos = now;
+    } else if (now - drainedSinceNanos >= RECOVER_HOLD_NANOS) {
+      setTier(Tier.values()[tier.ordinal() - 1], queue.size());
+    }
+  }
+
+  /**
+   * Change tier and apply its policy. Must hold lock.
+   *
+   * @param next The new tier
+   * @param depth The queue depth (for logging)
+   */
+  private void setTier(Tier next, int depth) {
+    Tier previous = tier;
+    tier = next;
+    tierSinceNanos = System.nanoTime();
+    drainedSinceNanos = 0;
+
+    if (next.ordinal() > previous.ordinal()) {
+      LOGGER.log(
+          Level.INFO,
+          "Session {0} is a slow consumer; {1} -> {2} (queue depth {3})",
+          new Object[] {id, previous, next, depth});
+    } else {
+      LOGGER.log(
+          Level.FINE, "Session {0} recovered; {1} -> {2}", new Object[] {id, previous, next});
+    }
+
+    switch (next) {
+      case CONFLATED:
+        if (previous == Tier.NORMAL) {
+          Metrics.SESSIONS_CONFLATED.increment();
+          conflateQueued();
+        }
+        break;
+      case THROTTLED:
+        Metrics.SESSIONS_THROTTLED.increment();
+        bandwidth.setRate(Application.SESSION_CHARS_PER_SECOND_LIMIT / THROTTLE_DIVISOR);
+        break;
+      case CLOSED:
+        Metrics.SESSIONS_CLOSED_SLOW.increment();
+        clearQueued();
+        break;
+      default: // NORMAL
+        pending.clear();
+    }
+
+    if (previous == Tier.THROTTLED && next == Tier.CONFLATED) {
+      bandwidth.setRate(Application.SESSION_CHARS_PER_SECOND_LIMIT);
+    }
+  }
+
+  /** Collapse already queued messages to the newest per key, keeping queue order. */
+  private void conflateQueued() {
+    Iterator<OutboundMessage> it = queue.descendingIterator();
+
+    while (it.hasNext()) {
+      OutboundMessage msg = it.next();
+      String key = msg.getConflationKey();
+
+      if (key != null && pending.putIfAbsent(key, msg) != null) {
+        it.remove();
+        long bytes = msg.getSizeBytes();
+        queuedBytes = queuedBytes - bytes;
+        budget.release(bytes);
+        Metrics.MESSAGES_CONFLATED.increment();
+      }
+    }
+  }
+
+  /** Remove all queued messages and give their bytes back to the budget. Must hold lock. */
+  private void clearQueued() {
+    queue.clear();
+    pending.clear();
+    budget.release(queuedBytes);
+    queuedBytes = 0;
+  }
+}
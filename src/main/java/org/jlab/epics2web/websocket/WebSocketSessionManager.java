@@ -1,27 +1,37 @@
 package org.jlab.epics2web.websocket;
 
-import gov.aps.jca.CAException;
 import gov.aps.jca.dbr.DBR;
 import gov.aps.jca.dbr.DBRType;
 import jakarta.json.*;
 import jakarta.websocket.Session;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jlab.epics2web.Application;
+import org.jlab.epics2web.epics.PvInfo;
 import org.jlab.epics2web.epics.PvListener;
+import org.jlab.epics2web.epics.PvSnapshot;
+import org.jlab.epics2web.metrics.Metrics;
 import org.jlab.util.LockAcquisitionTimeoutException;
+import org.jlab.util.TimingWheel;
 
 /**
  * Manages web socket sessions and ties them to channel access monitors.
@@ -32,143 +42,175 @@ public class WebSocketSessionManager {
 
   private static final Logger LOGGER = Logger.getLogger(WebSocketSessionManager.class.getName());
 
+  /** Idle sessions are sent a web socket ping after this long */
+  static final long PING_IDLE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  /** Sessions still idle this long after being pinged are closed */
+  static final long PONG_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  private static final long LIVENESS_TICK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** Snapshots are split into frames of roughly this many characters */
+  static final int SNAPSHOT_FRAME_MAX_CHARS = 65536;
+
   private final JsonBuilderFactory factory = Json.createBuilderFactory(null);
 
   /*ConcurrentHashMap provides thread safety on map of listeners*/
   final Map<Session, WebSocketSessionMonitor> listenerMap = new ConcurrentHashMap<>();
 
+  private final TimingWheel<WebSocketSessionMonitor> livenessWheel =
+      new TimingWheel<>(LIVENESS_TICK_NANOS, 128);
+  private volatile Executor livenessExecutor = null;
+
   /**
    * Send a pong reply. This is generally done in response to a client ping.
    *
-   * @param session The web socket session
+   * @param monitor The web socket session monitor
    * @throws IOException If unable to send the message.
    */
-  public void sendPong(Session session) throws IOException {
+  public void sendPong(WebSocketSessionMonitor monitor) throws IOException {
     JsonObjectBuilder objBuilder = Json.createObjectBuilder().add("type", "pong");
     JsonObject obj = objBuilder.build();
     String msg = obj.toString();
-    this.send(session, "pong", msg);
+    this.send(monitor, "pong", msg);
   }
 
-  public void purgeStaleSessions() {
-    for (Session s : listenerMap.keySet()) {
-      purgeIfStale(s);
-    }
+  /**
+   * Start checking session liveness. Sessions idle for PING_IDLE_NANOS are sent a web socket ping,
+   * and sessions still idle PONG_TIMEOUT_NANOS after that are closed. Any client message or pong
+   * counts as an interaction.
+   *
+   * @param timer Advances the timing wheel every tick
+   * @param io Sends pings and expires sessions, either of which may block on a wedged socket
+   * @return The periodic check, which stops when the timer is shut down
+   */
+  public ScheduledFuture<?> startLivenessChecks(ScheduledExecutorService timer, Executor io) {
+    livenessExecutor = io;
+
+    return timer.scheduleAtFixedRate(
+        new Runnable() {
+          @Override
+          public void run() {
+            checkLiveness();
+          }
+        },
+        LIVENESS_TICK_NANOS,
+        LIVENESS_TICK_NANOS,
+        TimeUnit.NANOSECONDS);
   }
 
-  public void purgeIfStale(Session s) {
-    Date lastUpdated = (Date) s.getUserProperties().get("lastUpdated");
-    boolean expired = true;
-
-    Calendar cal = Calendar.getInstance();
-    cal.add(Calendar.MINUTE, -1); // Stale if no interaction for 1 minute
-
-    if (lastUpdated != null && lastUpdated.before(cal.getTime())) {
-      expired = true;
-    }
-
-    if (!s.isOpen() || expired) {
-      LOGGER.log(Level.INFO, "Expiring session: {0}", s.getId());
-      removeClient(s);
-      if (s.isOpen()) {
-        try {
-          s.close();
-        } catch (IOException e) {
-          LOGGER.log(Level.WARNING, "Unable to close expired session", e);
-        }
-      }
-    }
-  }
+  /** Check the sessions falling due on the liveness timing wheel. */
+  public void checkLiveness() {
+    long now = System.nanoTime();
 
-  public void pingAllSessions() {
-    for (Session s : listenerMap.keySet()) {
+    for (WebSocketSessionMonitor monitor : livenessWheel.advance(now)) {
       try {
-        sendWsPing(s);
-      } catch (IllegalArgumentException | IOException e) {
-        LOGGER.log(Level.WARNING, "Unable to send WS ping", e);
-        removeClient(s);
-
-        if (s.isOpen()) {
-          try {
-            s.close();
-          } catch (IOException e2) {
-            LOGGER.log(Level.WARNING, "Unable to close bad session", e2);
-          }
-        }
+        checkLiveness(monitor, now);
+      } catch (Exception e) {
+        LOGGER.log(Level.WARNING, "Unable to check session liveness", e);
       }
     }
   }
 
-  public void sendWsPing(Session session) throws IllegalArgumentException, IOException {
-    if (session.isOpen()) {
-      synchronized (session) {
-        session.getBasicRemote().sendPing(ByteBuffer.allocate(0));
-      }
-    } else {
-      LOGGER.log(Level.WARNING, "session is closed: {0}", session);
-    }
-  }
-
   /**
-   * Parse a client request to extract a set of PVs.
+   * Ping, expire, or reschedule a session that has come due. Interactions don't touch the wheel;
+   * instead a session that turns out to have been active since it was scheduled is just
+   * rescheduled from its last interaction.
    *
-   * @param pvs The JSON array containing PVs
-   * @return The set of PVs
+   * @param monitor The session
+   * @param now The current System.nanoTime()
    */
-  public Set<String> getPvSetFromJson(JsonArray pvs) {
-    Set<String> pvSet = new HashSet<>();
+  private void checkLiveness(WebSocketSessionMonitor monitor, long now) {
+    Session s = monitor.getSession();
 
-    for (JsonValue v : pvs) {
-      if (v.getValueType() == JsonValue.ValueType.STRING) {
-        String pv = ((JsonString) v).getString();
-        pvSet.add(pv);
-      } else {
-        LOGGER.log(Level.WARNING, "PV not a string: {0}", v);
-      }
+    if (listenerMap.get(s) != monitor) {
+      return; // Already removed
     }
 
-    return pvSet;
+    long lastInteraction = monitor.getLastInteractionNanos();
+    long idle = now - lastInteraction;
+
+    if (!s.isOpen() || idle >= PING_IDLE_NANOS + PONG_TIMEOUT_NANOS) {
+      expire(monitor);
+    } else if (idle >= PING_IDLE_NANOS) {
+      sendWsPing(monitor);
+      livenessWheel.schedule(monitor, lastInteraction + PING_IDLE_NANOS + PONG_TIMEOUT_NANOS);
+    } else {
+      livenessWheel.schedule(monitor, lastInteraction + PING_IDLE_NANOS);
+    }
   }
 
-  /**
-   * Record the fact that this session is still active as of "now".
-   *
-   * @param session The Websocket Session
-   */
-  public void recordInteractionDate(Session session) {
-    if (session != null && session.isOpen()) {
-      Map<String, Object> properties = session.getUserProperties();
-      properties.put("lastUpdated", new Date());
+  private void expire(WebSocketSessionMonitor monitor) {
+    Metrics.SESSIONS_EXPIRED.increment();
+
+    livenessExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            Session s = monitor.getSession();
+            LOGGER.log(Level.INFO, "Expiring session: {0}", s.getId());
+            removeClient(monitor);
+            if (s.isOpen()) {
+              try {
+                s.close();
+              } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to close expired session", e);
+              }
+            }
+          }
+        });
+  }
+
+  private void sendWsPing(WebSocketSessionMonitor monitor) {
+    AtomicBoolean pinging = monitor.getPinging();
+
+    // A wedged socket ties up at most one thread
+    if (!pinging.compareAndSet(false, true)) {
+      return;
     }
+
+    livenessExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              monitor.getSession().getAsyncRemote().sendPing(ByteBuffer.allocate(0));
+            } catch (IllegalArgumentException | IllegalStateException | IOException e) {
+              LOGGER.log(Level.FINE, "Unable to send WS ping", e);
+            } finally {
+              pinging.set(false);
+            }
+          }
+        });
   }
 
   /**
    * Add a new client to the manager's list of clients.
    *
-   * @param session The session (client) to manage
+   * @param monitor The session (client) to manage
    */
-  public void addClient(Session session) {
-    // Only a "real" client once actually monitoring something via addPvs()
-    // In other words, let's lazily create state only once needed
+  public void addClient(WebSocketSessionMonitor monitor) {
+    listenerMap.put(monitor.getSession(), monitor);
+    livenessWheel.schedule(monitor, monitor.getLastInteractionNanos() + PING_IDLE_NANOS);
   }
 
   /**
    * Remove a client from the manager's list of clients.
    *
-   * @param session The session (client) to remove
+   * @param monitor The session (client) to remove
    */
-  public void removeClient(Session session) {
-    removePvs(session, null);
+  public void removeClient(WebSocketSessionMonitor monitor) {
+    removePvs(monitor, null);
+    listenerMap.remove(monitor.getSession());
   }
 
   /**
    * Monitor the provided set of PVs for the specified client.
    *
-   * @param session The client session
+   * @param listener The client session
    * @param pvSet The set of PVs
    */
-  public void addPvs(Session session, Set<String> pvSet) {
-    WebSocketSessionMonitor listener = getListener(session);
+  public void addPvs(WebSocketSessionMonitor listener, Set<String> pvSet) {
 
     if (pvSet != null) {
       // Make sure empty string isn't included as a PV as that is invalid and is ignored
@@ -178,26 +220,181 @@ public class WebSocketSessionManager {
         LOGGER.log(Level.FINEST, "Empty string ignored in add PV request");
       }
 
-      for (String pv : pvSet) {
-        try {
-          Application.channelManager.addPv(listener, pv);
-        } catch (InterruptedException | CAException | LockAcquisitionTimeoutException e) {
-          LOGGER.log(Level.WARNING, "Unable to addPv: " + pv, e);
-          // TODO: Retry?
+      admit(listener, pvSet);
+
+      Map<String, Exception> failed = Application.channelManager.addPvs(listener, pvSet);
+
+      for (Map.Entry<String, Exception> entry : failed.entrySet()) {
+        LOGGER.log(Level.WARNING, "Unable to addPv: " + entry.getKey(), entry.getValue());
+        // TODO: Retry?
+      }
+    }
+  }
+
+  /**
+   * Remove PVs from a monitor request that would exceed the client's PVs per session or new PVs per
+   * second quota, and tell the client which were rejected. PVs the client already monitors count
+   * against the new PVs per second quota again.
+   *
+   * @param listener The client session
+   * @param pvSet The requested PVs, which is trimmed to those admitted
+   */
+  private void admit(WebSocketSessionMonitor listener, Set<String> pvSet) {
+    int max = listener.getQuotas().getMaxPvsPerSession();
+
+    if (max > 0) {
+      try {
+        int room = Math.max(0, max - Application.channelManager.getPvCount(listener));
+        List<String> rejected = trim(pvSet, room);
+
+        if (!rejected.isEmpty()) {
+          Metrics.QUOTA_REJECTED_PVS_PER_SESSION.add(rejected.size());
+          sendRejected(listener, "monitor", null, ClientQuotas.PVS_PER_SESSION, rejected);
+        }
+      } catch (InterruptedException | LockAcquisitionTimeoutException e) {
+        // Adding the PVs needs the same lock so it will most likely fail too
+        LOGGER.log(Level.WARNING, "Unable to check PVs per session quota", e);
+      }
+    }
+
+    List<String> rejected = trim(pvSet, listener.acquirePvPermits(pvSet.size()));
+
+    if (!rejected.isEmpty()) {
+      Metrics.QUOTA_REJECTED_NEW_PVS.add(rejected.size());
+      sendRejected(listener, "monitor", null, ClientQuotas.NEW_PVS_PER_SECOND, rejected);
+    }
+  }
+
+  /**
+   * Keep the first count PVs in the set and remove the rest.
+   *
+   * @param pvSet The PVs
+   * @param count The number to keep
+   * @return The PVs removed
+   */
+  private static List<String> trim(Set<String> pvSet, int count) {
+    List<String> removed = new ArrayList<>();
+
+    if (pvSet.size() > count) {
+      Iterator<String> iterator = pvSet.iterator();
+
+      for (int i = 0; iterator.hasNext(); i++) {
+        String pv = iterator.next();
+
+        if (i >= count) {
+          removed.add(pv);
+          iterator.remove();
         }
       }
     }
+
+    return removed;
+  }
+
+  /**
+   * Tell the client that a request, or some of the PVs in it, were rejected by admission control.
+   *
+   * @param monitor The client
+   * @param request The request type, or null if unknown
+   * @param id The request id, or null if none
+   * @param quota The quota exceeded; see ClientQuotas
+   * @param pvs The PVs rejected
+   */
+  public void sendRejected(
+      WebSocketSessionMonitor monitor,
+      String request,
+      JsonValue id,
+      String quota,
+      Collection<String> pvs) {
+    JsonArrayBuilder arrBuilder = factory.createArrayBuilder();
+    for (String pv : pvs) {
+      arrBuilder.add(pv);
+    }
+
+    JsonObjectBuilder builder = factory.createObjectBuilder().add("type", "rejected");
+    if (request != null) {
+      builder.add("request", request);
+    }
+    if (id != null) {
+      builder.add("id", id);
+    }
+    builder.add("quota", quota).add("pvs", arrBuilder);
+
+    send(monitor, "rejected", builder.build().toString());
+  }
+
+  /**
+   * Perform a one-time get of the provided PVs for the specified client and reply with a single
+   * "get" message carrying the request id, so a client can have many gets in flight on one socket.
+   * PVs that are already monitored are answered from the latest value; each PV has either a value
+   * or an error. PVs over the client's new PVs per second quota are left out of the reply and
+   * reported in a "rejected" message sent ahead of it.
+   *
+   * @param listener The client session
+   * @param id The client chosen request id, or null if none
+   * @param pvSet The set of PVs
+   * @param enumLabel true if enum values should be returned as labels; false for numeric value
+   */
+  public void get(
+      WebSocketSessionMonitor listener, JsonValue id, Set<String> pvSet, boolean enumLabel) {
+    // Make sure empty string isn't included as a PV as that is invalid and is ignored
+    pvSet.remove("");
+
+    // Rejections go first so the client has them by the time the reply arrives
+    List<String> rejected = trim(pvSet, listener.acquirePvPermits(pvSet.size()));
+
+    if (!rejected.isEmpty()) {
+      Metrics.QUOTA_REJECTED_NEW_PVS.add(rejected.size());
+      sendRejected(listener, "get", id, ClientQuotas.NEW_PVS_PER_SECOND, rejected);
+    }
+
+    String[] pvs = pvSet.toArray(new String[0]);
+    List<CompletableFuture<DBR>> futures = Application.channelManager.getAsync(pvs, enumLabel);
+
+    // The last future may complete on the timeout thread, which must not build or send replies
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .whenCompleteAsync(
+            (ignored, failure) -> sendGet(listener, id, pvs, futures),
+            Application.getCallbackExecutor());
+  }
+
+  private void sendGet(
+      WebSocketSessionMonitor monitor,
+      JsonValue id,
+      String[] pvs,
+      List<CompletableFuture<DBR>> futures) {
+    JsonArrayBuilder arrBuilder = factory.createArrayBuilder();
+
+    for (int i = 0; i < pvs.length; i++) {
+      JsonObjectBuilder builder = factory.createObjectBuilder().add("pv", pvs[i]);
+
+      try {
+        Application.channelManager.addValueToJSON(builder, futures.get(i).join());
+      } catch (CompletionException e) {
+        Throwable cause = e.getCause() == null ? e : e.getCause();
+        builder.add("error", String.valueOf(cause.getMessage()));
+      }
+
+      arrBuilder.add(builder);
+    }
+
+    JsonObjectBuilder builder = factory.createObjectBuilder().add("type", "get");
+    if (id != null) {
+      builder.add("id", id);
+    }
+    builder.add("pvs", arrBuilder);
+
+    send(monitor, "get", builder.build().toString());
   }
 
   /**
    * Stop monitoring the provided PVs for the specified client. Completely remove the session and
    * all PVs by setting pvSet to null.
    *
-   * @param session The client session
+   * @param listener The client session
    * @param pvSet The set of PVs. Remove all if pvSet is null
    */
-  public void removePvs(Session session, Set<String> pvSet) {
-    WebSocketSessionMonitor listener = getListener(session);
+  public void removePvs(WebSocketSessionMonitor listener, Set<String> pvSet) {
 
     if (pvSet != null) {
       // Make sure empty string isn't included as a PV as that is invalid and is ignored
@@ -210,6 +407,7 @@ public class WebSocketSessionManager {
       for (String pv : pvSet) {
         try {
           Application.channelManager.removePv(listener, pv);
+          listener.removePvId(pv);
         } catch (InterruptedException | LockAcquisitionTimeoutException e) {
           LOGGER.log(Level.WARNING, "Unable to removePv: " + pv, e);
           // TODO: Retry?
@@ -224,17 +422,40 @@ public class WebSocketSessionManager {
     }
   }
 
+  /**
+   * Stop sending PV info and updates to the specified client, such as while its browser tab is
+   * hidden. Replies to its own requests (pong, get, rejected) are still sent.
+   *
+   * @param listener The client session
+   */
+  public void pause(WebSocketSessionMonitor listener) {
+    listener.pause();
+  }
+
+  /**
+   * Send the specified client a snapshot of the PVs that changed while it was paused, then resume
+   * sending PV info and updates as they happen.
+   *
+   * @param listener The client session
+   */
+  public void resume(WebSocketSessionMonitor listener) {
+    listener.resume(Application.channelManager);
+  }
+
   /**
    * Get a map of sessions to PVs.
    *
    * @return The map
+   * @throws InterruptedException If interrupted while waiting for the channel manager lock
+   * @throws LockAcquisitionTimeoutException If unable to obtain the channel manager lock in time
    */
-  public Map<SessionInfo, Set<String>> getClientMap() {
+  public Map<SessionInfo, Set<String>> getClientMap()
+      throws InterruptedException, LockAcquisitionTimeoutException {
     Map<PvListener, Set<String>> pvMap = Application.channelManager.getListenerMap();
     Map<SessionInfo, Set<String>> clientMap = new HashMap<>();
 
-    for (Session session : listenerMap.keySet()) {
-      WebSocketSessionMonitor listener = listenerMap.get(session);
+    for (WebSocketSessionMonitor listener : listenerMap.values()) {
+      Session session = listener.getSession();
       Set<String> pvSet = pvMap.get(listener);
 
       if (session.isOpen()) {
@@ -242,13 +463,8 @@ public class WebSocketSessionManager {
 
         try {
           id = session.getId();
-          String ip = (String) session.getUserProperties().get("ip");
-          String name = (String) session.getUserProperties().get("name");
-          String agent = (String) session.getUserProperties().get("agent");
-          AtomicLong droppedMessageCount =
-              (AtomicLong) session.getUserProperties().get("droppedMessageCount");
 
-          SessionInfo info = new SessionInfo(id, ip, name, agent, droppedMessageCount.get());
+          SessionInfo info = new SessionInfo(id, listener);
 
           clientMap.put(info, pvSet);
         } catch (Exception e) {
@@ -262,25 +478,87 @@ public class WebSocketSessionManager {
     return clientMap;
   }
 
-  public Set<Session> toSet() {
-    return new HashSet<>(listenerMap.keySet());
+  /**
+   * Return the number of messages waiting in session write queues, summed over all sessions, for
+   * informational purposes.
+   *
+   * @return The total queue depth
+   */
+  public long getTotalWriteQueueDepth() {
+    long total = 0;
+    for (WebSocketSessionMonitor monitor : listenerMap.values()) {
+      total = total + getWriteQueueDepth(monitor);
+    }
+    return total;
   }
 
-  private WebSocketSessionMonitor getListener(Session session) {
-    WebSocketSessionMonitor listener = listenerMap.get(session);
+  /**
+   * Return the largest number of messages waiting in any one session write queue for
+   * informational purposes.
+   *
+   * @return The max queue depth
+   */
+  public long getMaxWriteQueueDepth() {
+    long max = 0;
+    for (WebSocketSessionMonitor monitor : listenerMap.values()) {
+      max = Math.max(max, getWriteQueueDepth(monitor));
+    }
+    return max;
+  }
+
+  private int getWriteQueueDepth(WebSocketSessionMonitor monitor) {
+    SessionWriteQueue writequeue = monitor.getWriteQueue();
+    return writequeue == null ? 0 : writequeue.size();
+  }
 
-    if (listener == null) {
-      listener = new WebSocketSessionMonitor(session, this);
-      listenerMap.put(session, listener);
+  /**
+   * Return the number of sessions in each slow consumer tier for informational purposes.
+   *
+   * @return The session count by tier
+   */
+  public Map<SessionWriteQueue.Tier, Integer> getTierCounts() {
+    Map<SessionWriteQueue.Tier, Integer> counts = new EnumMap<>(SessionWriteQueue.Tier.class);
+    for (SessionWriteQueue.Tier tier : SessionWriteQueue.Tier.values()) {
+      counts.put(tier, 0);
+    }
+    for (WebSocketSessionMonitor monitor : listenerMap.values()) {
+      SessionWriteQueue writequeue = monitor.getWriteQueue();
+      if (writequeue != null) {
+        counts.merge(writequeue.getTier(), 1, Integer::sum);
+      }
     }
+    return counts;
+  }
 
-    return listener;
+  /**
+   * Return the number of sessions paused by their client.
+   *
+   * @return The number of paused sessions
+   */
+  public int getPausedCount() {
+    int count = 0;
+    for (WebSocketSessionMonitor monitor : listenerMap.values()) {
+      if (monitor.isPaused()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Return a live, unmodifiable view of the open sessions. Iteration is weakly consistent so it
+   * doesn't need to be copied first.
+   *
+   * @return The session monitors
+   */
+  public Collection<WebSocketSessionMonitor> getMonitors() {
+    return Collections.unmodifiableCollection(listenerMap.values());
   }
 
   /**
    * Notification of PV metadata sent after registering a PV with a ChannelMonitor.
    *
-   * @param session The client
+   * @param monitor The client
    * @param pv The PV that was registered
    * @param couldConnect true if the channel connected, false otherwise
    * @param type The EPICS datatype of the channel
@@ -288,7 +566,7 @@ public class WebSocketSessionManager {
    * @param enumLabels labels for the EPICS enumeration state if datatype is ENUM, null otherwise
    */
   public void sendInfo(
-      Session session,
+      WebSocketSessionMonitor monitor,
       String pv,
       boolean couldConnect,
       DBRType type,
@@ -296,7 +574,113 @@ public class WebSocketSessionManager {
       String[] enumLabels) {
     JsonObjectBuilder builder = factory.createObjectBuilder();
 
-    builder.add("type", "info").add("pv", pv).add("connected", couldConnect);
+    builder.add("type", "info");
+    addInfo(builder, monitor, pv, couldConnect, type, count, enumLabels);
+
+    JsonObject obj = builder.build();
+    String msg = obj.toString();
+    send(monitor, pv, msg);
+  }
+
+  /**
+   * Notification of PV metadata for a group of PVs on the same host, sent as a single message.
+   *
+   * @param monitor The client
+   * @param host The host serving the PVs, or null if unknown
+   * @param infos The PV metadata
+   */
+  public void sendInfoBatch(WebSocketSessionMonitor monitor, String host, List<PvInfo> infos) {
+    JsonArrayBuilder arrBuilder = factory.createArrayBuilder();
+
+    for (PvInfo info : infos) {
+      JsonObjectBuilder builder = factory.createObjectBuilder();
+      addInfo(
+          builder,
+          monitor,
+          info.getPv(),
+          info.isCouldConnect(),
+          info.getType(),
+          info.getCount(),
+          info.getEnumLabels());
+      arrBuilder.add(builder);
+    }
+
+    JsonObjectBuilder builder = factory.createObjectBuilder();
+
+    builder.add("type", "info-batch");
+    if (host != null) {
+      builder.add("host", host);
+    }
+    builder.add("infos", arrBuilder);
+
+    JsonObject obj = builder.build();
+    String msg = obj.toString();
+    send(monitor, host, msg);
+  }
+
+  /**
+   * Notification of the metadata and latest value of PVs from a subscribe request, sent as few
+   * messages as possible: entries are packed into "snapshot" frames of up to about
+   * SNAPSHOT_FRAME_MAX_CHARS each.
+   *
+   * @param monitor The client
+   * @param snapshots The PV metadata and values
+   */
+  public void sendSnapshot(WebSocketSessionMonitor monitor, List<PvSnapshot> snapshots) {
+    String prefix = "{\"type\":\"snapshot\",\"pvs\":[";
+    StringBuilder frame = new StringBuilder(prefix);
+    int entries = 0;
+
+    for (PvSnapshot snapshot : snapshots) {
+      PvInfo info = snapshot.getInfo();
+      JsonObjectBuilder builder = factory.createObjectBuilder();
+      addInfo(
+          builder,
+          monitor,
+          info.getPv(),
+          info.isCouldConnect(),
+          info.getType(),
+          info.getCount(),
+          info.getEnumLabels());
+
+      if (snapshot.getDbr() != null) {
+        Application.channelManager.addValueToJSON(builder, snapshot.getDbr());
+      }
+
+      String entry = builder.build().toString();
+
+      if (entries > 0 && frame.length() + entry.length() > SNAPSHOT_FRAME_MAX_CHARS) {
+        send(monitor, "snapshot", frame.append("]}").toString());
+        frame.setLength(prefix.length());
+        entries = 0;
+      }
+
+      if (entries > 0) {
+        frame.append(',');
+      }
+      frame.append(entry);
+      entries++;
+    }
+
+    if (entries > 0) {
+      send(monitor, "snapshot", frame.append("]}").toString());
+    }
+  }
+
+  private void addInfo(
+      JsonObjectBuilder builder,
+      WebSocketSessionMonitor monitor,
+      String pv,
+      boolean couldConnect,
+      DBRType type,
+      Integer count,
+      String[] enumLabels) {
+    builder.add("pv", pv).add("connected", couldConnect);
+
+    Integer id = monitor.assignPvId(pv);
+    if (id != null) {
+      builder.add("id", id);
+    }
 
     if (couldConnect) {
       builder.add("datatype", type.getName()).add("count", count);
@@ -310,86 +694,90 @@ public class WebSocketSessionManager {
         builder.add("enum-labels", arrBuilder);
       }
     }
-
-    JsonObject obj = builder.build();
-    String msg = obj.toString();
-    send(session, pv, msg);
   }
 
   /**
    * Notification of PV value change.
    *
-   * @param session The client
+   * @param monitor The client
    * @param pv The PV
    * @param dbr The EPICS DataBaseRecord
+   * @param receivedNanos The System.nanoTime() the update was received from CA
    */
-  public void sendUpdate(Session session, String pv, DBR dbr) {
+  public void sendUpdate(
+      WebSocketSessionMonitor monitor, String pv, DBR dbr, long receivedNanos) {
     JsonObjectBuilder builder = factory.createObjectBuilder();
 
-    builder.add("type", "update").add("pv", pv);
+    // Info (which assigns the id) is always sent before updates, but fall back on the name anyway
+    Integer id = monitor.getPvId(pv);
+    if (id != null) {
+      builder.add("type", "update").add("id", id);
+    } else {
+      builder.add("type", "update").add("pv", pv);
+    }
     Application.channelManager.addValueToJSON(builder, dbr);
     JsonObject obj = builder.build();
     String msg = obj.toString();
-    send(session, pv, msg);
+    send(monitor, pv, new OutboundMessage(msg, receivedNanos, pv));
   }
 
-  @SuppressWarnings("unchecked")
-  public void send(Session session, String pv, String msg) {
-    if (session.isOpen()) {
-      String id = session.toString();
-      if (Application.WRITE_STRATEGY == WriteStrategy.ASYNC_QUEUE) {
-        ConcurrentLinkedQueue<String> writequeue =
-            (ConcurrentLinkedQueue<String>) session.getUserProperties().get("writequeue");
-
-        if (writequeue.size() > Application.WRITE_QUEUE_SIZE_LIMIT) {
-          AtomicLong dropCount =
-              (AtomicLong) session.getUserProperties().get("droppedMessageCount");
-          long count =
-              dropCount.getAndIncrement()
-                  + 1; // getAndIncrement is actually returning previous value, not newly updated,
-          // so we add 1.
-          // Limit log file output by only reporting when thresholds are reached
-          if (count == 1 || count == 1000 || count == 10000 || count == 100000) {
-            LOGGER.log(
-                Level.FINEST,
-                "Session {0} queue full (limit={1}); Dropping pv {2} message: {3}; total dropped: {4}",
-                new Object[] {id, Application.WRITE_QUEUE_SIZE_LIMIT, pv, msg, count});
-          }
-        } else {
-          writequeue.offer(msg);
-        }
-      } else if (Application.WRITE_STRATEGY == WriteStrategy.BLOCKING_QUEUE) {
-        ArrayBlockingQueue<String> writequeue =
-            (ArrayBlockingQueue<String>) session.getUserProperties().get("writequeue");
+  public void send(WebSocketSessionMonitor monitor, String pv, String msg) {
+    send(monitor, pv, msg, PvListener.NOT_TIMESTAMPED);
+  }
 
-        // TODO: should be using a fancy custom BlockingQueue that prioritizes info messages and
-        // also replaces queued update messages with most recent update (don't notify of stale
-        // updates - just move on to fresh updates)
-        // TODO: it seems message queue filling up is likely a sign connection to client is bad and
-        // maybe we should just close socket?
+  /**
+   * Send (or queue to send) a message to the given client.
+   *
+   * @param monitor The client
+   * @param pv The PV the message is about (for logging)
+   * @param msg The message
+   * @param eventNanos The System.nanoTime() the underlying CA event was received, or
+   *     PvListener.NOT_TIMESTAMPED
+   */
+  public void send(WebSocketSessionMonitor monitor, String pv, String msg, long eventNanos) {
+    send(monitor, pv, new OutboundMessage(msg, eventNanos));
+  }
 
-        boolean success = writequeue.offer(msg);
+  /**
+   * Send (or queue to send) a message to the given client.
+   *
+   * @param monitor The client
+   * @param pv The PV the message is about (for logging)
+   * @param message The message
+   */
+  private void send(WebSocketSessionMonitor monitor, String pv, OutboundMessage message) {
+    Session session = monitor.getSession();
+    if (session.isOpen()) {
+      SessionWriteQueue writequeue = monitor.getWriteQueue();
+      if (writequeue != null) {
+        boolean success = writequeue.offer(message);
 
         if (!success) {
-          AtomicLong dropCount =
-              (AtomicLong) session.getUserProperties().get("droppedMessageCount");
-          long count =
-              dropCount.getAndIncrement()
-                  + 1; // getAndIncrement is actually returning previous value, not newly updated,
-          // so we add 1.
+          Metrics.MESSAGES_DROPPED.increment();
+          String id = session.toString();
+          long count = writequeue.getDroppedCount();
           // Limit log file output by only reporting when thresholds are reached
           if (count == 1 || count == 1000 || count == 10000 || count == 100000) {
             LOGGER.log(
                 Level.FINEST,
                 "Session {0} queue full (limit={1}); Dropping pv {2} message: {3}; total dropped: {4}",
-                new Object[] {id, Application.WRITE_QUEUE_SIZE_LIMIT, pv, msg, count});
+                new Object[] {
+                  id, Application.WRITE_QUEUE_SIZE_LIMIT, pv, message.getText(), count
+                });
           }
         }
       } else {
         try {
+          long start = System.nanoTime();
           synchronized (session) {
-            session.getBasicRemote().sendText(msg);
+            session.getBasicRemote().sendText(message.getText());
           }
+          Metrics.recordSent(message.getText());
+          Metrics.recordUpdateLatency(
+              message.getEventNanos(),
+              start,
+              System.nanoTime(),
+              monitor.getLatency());
         } catch (
             IllegalStateException
                 e) { // If session closes between time session.isOpen() and sentText(msg) then
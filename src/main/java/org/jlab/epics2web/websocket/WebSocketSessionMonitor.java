@@ -3,12 +3,42 @@ package org.jlab.epics2web.websocket;
 import gov.aps.jca.dbr.DBR;
 import gov.aps.jca.dbr.DBRType;
 import jakarta.websocket.Session;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.jlab.epics2web.epics.ChannelManager;
+import org.jlab.epics2web.epics.PvInfo;
 import org.jlab.epics2web.epics.PvListener;
+import org.jlab.epics2web.epics.PvSnapshot;
+import org.jlab.epics2web.metrics.LatencyHistogram;
+import org.jlab.epics2web.metrics.Metrics;
+import org.jlab.util.LockAcquisitionTimeoutException;
+import org.jlab.util.TokenBucket;
 
 /**
  * Wires a WebSocket session to an EPICS PV monitor.
  *
+ * <p>This object also holds all per-session state (write queue, counters, client metadata) as
+ * typed fields so that the send and receive paths don't need Session.getUserProperties() lookups.
+ * One is created when the session opens and lives until it closes.
+ *
+ * <p>If the client asks for PV ids each PV is given a small integer id, unique within the session,
+ * that is sent in its info message and used in place of the PV name in update messages. Ids are
+ * never reused or reassigned so an update can't be attributed to the wrong PV after a clear.
+ *
+ * <p>A client that isn't showing its PVs (such as a hidden browser tab) may pause the session.
+ * While paused nothing about its PVs is encoded or sent; only the names of PVs that changed are
+ * kept, since the channel monitors already hold their latest values. On resume the current info
+ * and value of those PVs is sent as one snapshot.
+ *
  * @author slominskir
  */
 public class WebSocketSessionMonitor implements PvListener {
@@ -17,40 +47,369 @@ public class WebSocketSessionMonitor implements PvListener {
 
   private final Session session;
   private final WebSocketSessionManager manager;
+  private final String ip;
+  private final String name;
+  private final String agent;
+  private final SessionWriteQueue writequeue;
+  private final Map<String, Integer> pvIds;
+  private final AtomicInteger nextPvId = new AtomicInteger();
+  private final boolean infoBatches;
+  private final boolean snapshots;
+  private final ClientQuotas quotas;
+  private final TokenBucket pvBucket;
+  private final TokenBucket messageBucket;
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final AtomicBoolean writing = new AtomicBoolean(false);
+  private final AtomicBoolean pinging = new AtomicBoolean(false);
+  private volatile Future<?> writeThreadFuture;
+  private volatile long lastInteractionNanos = System.nanoTime();
+
+  /** Resume snapshot rounds before notifications are let through regardless */
+  private static final int MAX_RESUME_ROUNDS = 8;
+
+  /* Notifications check paused without the lock and only take it while paused (or resuming) */
+  private final Object pauseLock = new Object();
+  private volatile boolean paused = false;
+  private Set<String> changedWhilePaused = new HashSet<>();
+  private boolean resuming = false;
+  private boolean pauseRequested = false;
 
   /**
    * Create a new WebSocketSessionMonitor.
    *
    * @param session The web socket session
    * @param manager The session manager
+   * @param ip The client IP address, or null if unknown
+   * @param name The client name, or null if unknown
+   * @param agent The client user agent, or null if unknown
+   * @param writequeue The write queue, or null if messages are written on the callback thread
+   * @param pvIds true if updates should identify PVs by id instead of name
+   * @param infoBatches true if connection info for a group of PVs should be sent as one message
+   * @param snapshots true if the initial info and values for a subscribe request should be sent as
+   *     one snapshot instead of an info and update message per PV
+   * @param quotas The limits on this client
    */
-  public WebSocketSessionMonitor(Session session, WebSocketSessionManager manager) {
+  public WebSocketSessionMonitor(
+      Session session,
+      WebSocketSessionManager manager,
+      String ip,
+      String name,
+      String agent,
+      SessionWriteQueue writequeue,
+      boolean pvIds,
+      boolean infoBatches,
+      boolean snapshots,
+      ClientQuotas quotas) {
     this.session = session;
     this.manager = manager;
+    this.ip = ip;
+    this.name = name;
+    this.agent = agent;
+    this.writequeue = writequeue;
+    this.pvIds = pvIds ? new ConcurrentHashMap<>() : null;
+    this.infoBatches = infoBatches;
+    this.snapshots = snapshots;
+    this.quotas = quotas;
+    this.pvBucket = quotas.newPvBucket();
+    this.messageBucket = quotas.newMessageBucket();
   }
 
   @Override
   public void notifyPvInfo(
       String pv, boolean couldConnect, DBRType type, Integer count, String[] enumLabels) {
-    manager.sendInfo(session, pv, couldConnect, type, count, enumLabels);
+    if (paused && deferred(pv)) {
+      return;
+    }
+
+    manager.sendInfo(this, pv, couldConnect, type, count, enumLabels);
   }
 
   @Override
-  public void notifyPvUpdate(String pv, DBR dbr) {
-    manager.sendUpdate(session, pv, dbr);
+  public void notifyPvInfoBatch(String host, List<PvInfo> infos) {
+    if (paused && deferred(infos, PvInfo::getPv)) {
+      return;
+    }
+
+    if (infoBatches) {
+      manager.sendInfoBatch(this, host, infos);
+    } else {
+      PvListener.super.notifyPvInfoBatch(host, infos);
+    }
   }
 
   @Override
-  public String toString() {
-    String description = "WebSession: ";
-    if (session != null) {
-      String name = (String) session.getUserProperties().get("name");
-      String host = (String) session.getUserProperties().get("ip");
-      if (host == null) {
-        host = (String) session.getUserProperties().get("remoteAddr");
+  public void notifyPvSnapshot(List<PvSnapshot> snapshots) {
+    if (paused && deferred(snapshots, snapshot -> snapshot.getInfo().getPv())) {
+      return;
+    }
+
+    sendSnapshot(snapshots);
+  }
+
+  private void sendSnapshot(List<PvSnapshot> snapshots) {
+    if (this.snapshots) {
+      manager.sendSnapshot(this, snapshots);
+    } else {
+      PvListener.super.notifyPvSnapshot(snapshots);
+    }
+  }
+
+  @Override
+  public void notifyPvUpdate(String pv, DBR dbr, long receivedNanos) {
+    if (paused && deferred(pv)) {
+      return;
+    }
+
+    manager.sendUpdate(this, pv, dbr, receivedNanos);
+  }
+
+  private boolean deferred(String pv) {
+    synchronized (pauseLock) {
+      if (!paused) { // Resumed meanwhile
+        return false;
       }
-      description = description + host + "; " + name;
+
+      changedWhilePaused.add(pv);
+    }
+
+    Metrics.PAUSED_NOTIFICATIONS.increment();
+
+    return true;
+  }
+
+  private <T> boolean deferred(List<T> items, Function<T, String> toPv) {
+    synchronized (pauseLock) {
+      if (!paused) {
+        return false;
+      }
+
+      for (T item : items) {
+        changedWhilePaused.add(toPv.apply(item));
+      }
+    }
+
+    Metrics.PAUSED_NOTIFICATIONS.increment();
+
+    return true;
+  }
+
+  /** Stop sending PV notifications until resumed. */
+  void pause() {
+    synchronized (pauseLock) {
+      paused = true;
+      pauseRequested = true;
+    }
+  }
+
+  /**
+   * Send a snapshot of the PVs that changed while paused and go back to sending notifications as
+   * they happen.
+   *
+   * <p>The snapshot is built and sent without holding the pause lock, so notifying threads aren't
+   * held up behind the manager lock or a write. They keep deferring meanwhile so they can't be
+   * overtaken by an older value, and the PVs they defer go out in a further, smaller snapshot.
+   * Notifications resume once a round sees no new changes. After MAX_RESUME_ROUNDS they resume
+   * regardless. A PV that changes faster than a round may then briefly show the value from the
+   * last snapshot, until its next update.
+   *
+   * @param channelManager The source of the current info and values
+   */
+  void resume(ChannelManager channelManager) {
+    Set<String> changed;
+
+    synchronized (pauseLock) {
+      pauseRequested = false;
+
+      if (!paused || resuming) { // Not paused, or the resume in progress will finish the job
+        return;
+      }
+
+      resuming = true;
+      changed = changedWhilePaused;
+      changedWhilePaused = new HashSet<>();
+    }
+
+    for (int round = 1; ; round++) {
+      sendCurrent(channelManager, changed);
+
+      synchronized (pauseLock) {
+        if (pauseRequested) { // Paused again; keep deferring
+          resuming = false;
+          return;
+        }
+
+        changed = changedWhilePaused;
+        changedWhilePaused = new HashSet<>();
+
+        if (changed.isEmpty() || round == MAX_RESUME_ROUNDS) {
+          paused = false;
+          resuming = false;
+          break;
+        }
+      }
+    }
+
+    sendCurrent(channelManager, changed);
+  }
+
+  private void sendCurrent(ChannelManager channelManager, Set<String> pvs) {
+    if (pvs.isEmpty()) {
+      return;
+    }
+
+    try {
+      List<PvSnapshot> current = channelManager.getSnapshots(this, pvs);
+
+      if (!current.isEmpty()) {
+        sendSnapshot(current);
+      }
+    } catch (InterruptedException | LockAcquisitionTimeoutException e) {
+      LOGGER.log(Level.WARNING, "Unable to send resume snapshot to " + this, e);
+    }
+  }
+
+  /**
+   * Return whether the client has paused PV notifications.
+   *
+   * @return true if paused
+   */
+  public boolean isPaused() {
+    return paused;
+  }
+
+  public Session getSession() {
+    return session;
+  }
+
+  public String getIp() {
+    return ip;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getAgent() {
+    return agent;
+  }
+
+  public SessionWriteQueue getWriteQueue() {
+    return writequeue;
+  }
+
+  /**
+   * Return the id for a PV, assigning one if needed.
+   *
+   * @param pv The PV
+   * @return The id, or null if the client didn't ask for PV ids
+   */
+  public Integer assignPvId(String pv) {
+    if (pvIds == null) {
+      return null;
     }
-    return description;
+
+    return pvIds.computeIfAbsent(pv, k -> nextPvId.getAndIncrement());
+  }
+
+  /**
+   * Return the id previously assigned to a PV.
+   *
+   * @param pv The PV
+   * @return The id, or null if none assigned or the client didn't ask for PV ids
+   */
+  public Integer getPvId(String pv) {
+    return pvIds == null ? null : pvIds.get(pv);
+  }
+
+  /**
+   * Forget the id of a PV the client no longer monitors. Ids are never reused, so monitoring the PV
+   * again assigns it a new one.
+   *
+   * @param pv The PV
+   */
+  public void removePvId(String pv) {
+    if (pvIds != null) {
+      pvIds.remove(pv);
+    }
+  }
+
+  public ClientQuotas getQuotas() {
+    return quotas;
+  }
+
+  /**
+   * Take permission to monitor or get new PVs, limited by the new PVs per second quota.
+   *
+   * @param count The number of PVs wanted
+   * @return The number of PVs allowed, from 0 to count
+   */
+  public int acquirePvPermits(int count) {
+    if (pvBucket == null) {
+      return count;
+    }
+
+    return (int) pvBucket.consumeAvailable(count, System.nanoTime());
+  }
+
+  /**
+   * Take permission to handle a request, limited by the messages per second quota.
+   *
+   * @return true if allowed
+   */
+  public boolean acquireMessagePermit() {
+    return messageBucket == null || messageBucket.consumeAvailable(1, System.nanoTime()) == 1;
+  }
+
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * Return the flag the ASYNC_QUEUE writer uses to keep one outstanding write per session.
+   *
+   * @return The writing flag
+   */
+  public AtomicBoolean getWriting() {
+    return writing;
+  }
+
+  /**
+   * Return the flag that keeps at most one liveness ping outstanding per session.
+   *
+   * @return The pinging flag
+   */
+  public AtomicBoolean getPinging() {
+    return pinging;
+  }
+
+  public Future<?> getWriteThreadFuture() {
+    return writeThreadFuture;
+  }
+
+  public void setWriteThreadFuture(Future<?> writeThreadFuture) {
+    this.writeThreadFuture = writeThreadFuture;
+  }
+
+  /** Record the fact that this session is still active as of "now". */
+  public void recordInteraction() {
+    lastInteractionNanos = System.nanoTime();
+  }
+
+  public long getLastInteractionNanos() {
+    return lastInteractionNanos;
+  }
+
+  /**
+   * Return the time elapsed since the client last sent us anything (message or pong).
+   *
+   * @return The idle time in nanoseconds
+   */
+  public long getIdleNanos() {
+    return System.nanoTime() - lastInteractionNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "WebSession: " + ip + "; " + name;
   }
 }
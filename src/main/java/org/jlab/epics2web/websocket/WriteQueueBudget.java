@@ -0,0 +1,153 @@
+package org.jlab.epics2web.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jlab.epics2web.metrics.Metrics;
+
+/**
+ * A server wide memory budget shared by all session write queues, in bytes.
+ *
+ * <p>Queues reserve the size of each message before queuing it and release it once sent or
+ * dropped. When a reservation would exceed the budget, queued messages are reclaimed from other
+ * sessions, slowest tier first and then largest queue first, until usage is back down to the low
+ * watermark. Reclaiming down to a watermark rather than just enough for one message means a burst
+ * doesn't pay for a reclamation scan on every message.
+ */
+public class WriteQueueBudget {
+
+  private static final Logger LOGGER = Logger.getLogger(WriteQueueBudget.class.getName());
+
+  /** Fraction of the limit reclamation brings usage back down to. */
+  static final double LOW_WATERMARK = 0.9;
+
+  private final long limitBytes;
+  private final long lowWatermarkBytes;
+  private final AtomicLong usedBytes = new AtomicLong();
+  private final Set<SessionWriteQueue> queues = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Create a new WriteQueueBudget.
+   *
+   * @param limitBytes The max bytes queued across all sessions
+   */
+  public WriteQueueBudget(long limitBytes) {
+    this.limitBytes = limitBytes;
+    this.lowWatermarkBytes = (long) (limitBytes * LOW_WATERMARK);
+  }
+
+  /**
+   * Reserve bytes for a message, reclaiming from the biggest and slowest queues if needed.
+   *
+   * @param bytes The bytes to reserve
+   * @return true if reserved; false if the budget is exhausted even after reclamation
+   */
+  public boolean reserve(long bytes) {
+    if (tryReserve(bytes)) {
+      return true;
+    }
+
+    reclaim(bytes);
+
+    return tryReserve(bytes);
+  }
+
+  /**
+   * Release previously reserved bytes.
+   *
+   * @param bytes The bytes to release
+   */
+  public void release(long bytes) {
+    usedBytes.addAndGet(-bytes);
+  }
+
+  public long getLimitBytes() {
+    return limitBytes;
+  }
+
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  void register(SessionWriteQueue queue) {
+    queues.add(queue);
+  }
+
+  void unregister(SessionWriteQueue queue) {
+    queues.remove(queue);
+  }
+
+  private boolean tryReserve(long bytes) {
+    long used;
+    do {
+      used = usedBytes.get();
+      if (used + bytes > limitBytes) {
+        return false;
+      }
+    } while (!usedBytes.compareAndSet(used, used + bytes));
+
+    return true;
+  }
+
+  /**
+   * Shed queued messages until usage is at the low watermark (and there is room for the pending
+   * reservation). One thread reclaims at a time; others waiting here usually find nothing left to
+   * do.
+   *
+   * @param pendingBytes The reservation that triggered reclamation
+   */
+  private synchronized void reclaim(long pendingBytes) {
+    long wanted = usedBytes.get() - Math.min(lowWatermarkBytes, limitBytes - pendingBytes);
+
+    if (wanted <= 0) {
+      return;
+    }
+
+    Metrics.BUDGET_RECLAIMS.increment();
+
+    // Snapshot sort keys since they change while we sort
+    List<Candidate> candidates = new ArrayList<>(queues.size());
+    for (SessionWriteQueue queue : queues) {
+      candidates.add(new Candidate(queue));
+    }
+    candidates.sort(null);
+
+    long freed = 0;
+    for (Candidate candidate : candidates) {
+      if (freed >= wanted) {
+        break;
+      }
+      freed = freed + candidate.queue.shed(wanted - freed);
+    }
+
+    LOGGER.log(
+        Level.FINE,
+        "Write queue budget exceeded; reclaimed {0} of {1} bytes wanted",
+        new Object[] {freed, wanted});
+  }
+
+  /** A queue ordered for reclamation: slowest tier first, then most bytes. */
+  private static class Candidate implements Comparable<Candidate> {
+    private final SessionWriteQueue queue;
+    private final int tier;
+    private final long bytes;
+
+    Candidate(SessionWriteQueue queue) {
+      this.queue = queue;
+      this.tier = queue.getTier().ordinal();
+      this.bytes = queue.getQueuedBytes();
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+      if (tier != other.tier) {
+        return Integer.compare(other.tier, tier);
+      }
+      return Long.compare(other.bytes, bytes);
+    }
+  }
+}
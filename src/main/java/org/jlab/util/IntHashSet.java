@@ -0,0 +1,190 @@
+package org.jlab.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A set of non-negative ints backed by a single open addressing array, without the boxing and per
+ * entry node objects of a HashSet&lt;Integer&gt;. Not thread-safe.
+ */
+public class IntHashSet {
+
+  private static final int EMPTY = -1;
+  private static final int MIN_CAPACITY = 8;
+
+  private int[] table;
+  private int size = 0;
+
+  /** Create a new, empty IntHashSet. */
+  public IntHashSet() {
+    this(MIN_CAPACITY / 2);
+  }
+
+  /**
+   * Create a new, empty IntHashSet sized for the expected number of values.
+   *
+   * @param expectedSize The expected number of values
+   */
+  public IntHashSet(int expectedSize) {
+    table = newTable(capacityFor(expectedSize));
+  }
+
+  /**
+   * Add a value.
+   *
+   * @param value The value; must not be negative
+   * @return true if the value was not already present
+   */
+  public boolean add(int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("value must not be negative: " + value);
+    }
+
+    int mask = table.length - 1;
+    int i = hash(value) & mask;
+
+    while (table[i] != EMPTY) {
+      if (table[i] == value) {
+        return false;
+      }
+      i = (i + 1) & mask;
+    }
+
+    table[i] = value;
+    size++;
+
+    if (size * 2 > table.length) {
+      rehash(table.length * 2);
+    }
+
+    return true;
+  }
+
+  /**
+   * Remove a value.
+   *
+   * @param value The value
+   * @return true if the value was present
+   */
+  public boolean remove(int value) {
+    int i = indexOf(value);
+
+    if (i < 0) {
+      return false;
+    }
+
+    // Shift later entries of the probe run back so lookups don't need tombstones
+    int mask = table.length - 1;
+    int gap = i;
+    int j = (i + 1) & mask;
+
+    while (table[j] != EMPTY) {
+      int home = hash(table[j]) & mask;
+
+      // Move the entry into the gap unless its home slot lies cyclically in (gap, j]
+      if (((j - home) & mask) >= ((j - gap) & mask)) {
+        table[gap] = table[j];
+        gap = j;
+      }
+      j = (j + 1) & mask;
+    }
+
+    table[gap] = EMPTY;
+    size--;
+
+    return true;
+  }
+
+  public boolean contains(int value) {
+    return indexOf(value) >= 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Pass each value to the consumer, in no particular order.
+   *
+   * @param consumer The consumer
+   */
+  public void forEach(IntConsumer consumer) {
+    for (int value : table) {
+      if (value != EMPTY) {
+        consumer.accept(value);
+      }
+    }
+  }
+
+  /**
+   * Return the values in a new array, in no particular order.
+   *
+   * @return The values
+   */
+  public int[] toArray() {
+    int[] values = new int[size];
+    int n = 0;
+
+    for (int value : table) {
+      if (value != EMPTY) {
+        values[n++] = value;
+      }
+    }
+
+    return values;
+  }
+
+  private int indexOf(int value) {
+    if (value < 0) {
+      return -1;
+    }
+
+    int mask = table.length - 1;
+    int i = hash(value) & mask;
+
+    while (table[i] != EMPTY) {
+      if (table[i] == value) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+
+    return -1;
+  }
+
+  private void rehash(int capacity) {
+    int[] old = table;
+    table = newTable(capacity);
+    size = 0;
+
+    for (int value : old) {
+      if (value != EMPTY) {
+        add(value);
+      }
+    }
+  }
+
+  private static int hash(int value) {
+    // Ids are often dense so spread them across the table
+    int h = value * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static int capacityFor(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < expectedSize * 2) {
+      capacity = capacity * 2;
+    }
+    return capacity;
+  }
+
+  private static int[] newTable(int capacity) {
+    int[] table = new int[capacity];
+    Arrays.fill(table, EMPTY);
+    return table;
+  }
+}
@@ -0,0 +1,254 @@
+package org.jlab.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A concurrent set of listeners built for many subscribers per set. Add and remove are O(1): each
+ * listener owns a slot in a chunked array, a removed listener leaves an empty slot (tombstone) that
+ * the next add reuses, and chunks are never copied as the set grows. Iteration takes no lock and
+ * walks the slots directly.
+ *
+ * <p>Iteration is weakly consistent: it may or may not see listeners added or removed while it is
+ * in progress, and never throws ConcurrentModificationException. When most slots are tombstones
+ * the set is compacted into new chunks, leaving in-progress iterations on the old ones.
+ *
+ * @param <T> The listener type
+ */
+public class ListenerSet<T> implements Iterable<T> {
+
+  private static final int CHUNK_SIZE = 64;
+
+  private final Map<T, Integer> slots = new HashMap<>(); // Only accessed while synchronized
+  private int[] free = new int[CHUNK_SIZE];
+  private int freeCount = 0;
+
+  private volatile Chunks<T> chunks = new Chunks<>(0);
+  private volatile int size = 0;
+
+  /**
+   * Add a listener.
+   *
+   * @param listener The listener
+   * @return true if the listener was not already present
+   */
+  public synchronized boolean add(T listener) {
+    if (slots.containsKey(listener)) {
+      return false;
+    }
+
+    Chunks<T> c = chunks;
+    int slot;
+
+    if (freeCount > 0) {
+      slot = free[--freeCount];
+    } else {
+      slot = c.high;
+      if (slot == c.capacity()) {
+        c = c.grow();
+      }
+      c.high = slot + 1;
+    }
+
+    c.set(slot, listener);
+    slots.put(listener, slot);
+    size++;
+    chunks = c; // Publish
+
+    return true;
+  }
+
+  /**
+   * Remove a listener.
+   *
+   * @param listener The listener
+   * @return true if the listener was present
+   */
+  public synchronized boolean remove(T listener) {
+    Integer slot = slots.remove(listener);
+
+    if (slot == null) {
+      return false;
+    }
+
+    Chunks<T> c = chunks;
+    c.set(slot, null);
+    size--;
+
+    if (c.high > CHUNK_SIZE && size < c.high / 4) {
+      compact();
+    } else {
+      if (freeCount == free.length) {
+        free = Arrays.copyOf(free, free.length * 2);
+      }
+      free[freeCount++] = slot;
+    }
+
+    return true;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new SlotIterator<>(chunks);
+  }
+
+  /**
+   * Return a weakly consistent view of the current slots that can be walked in ranges, so one pass
+   * over the listeners can be divided across threads.
+   *
+   * @return The slots
+   */
+  public Slots<T> slots() {
+    return new Slots<>(chunks);
+  }
+
+  /** Move live listeners into fresh chunks with no tombstones. Must be synchronized. */
+  private void compact() {
+    Chunks<T> old = chunks;
+    // Only as many chunks as the live listeners fill, so a set that shrank gives its memory back
+    Chunks<T> c = new Chunks<>((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    int next = 0;
+
+    for (int i = 0; i < old.high; i++) {
+      T listener = old.get(i);
+      if (listener != null) {
+        c.set(next, listener);
+        slots.put(listener, next);
+        next++;
+      }
+    }
+
+    c.high = next;
+    freeCount = 0;
+    chunks = c; // Publish
+  }
+
+  private static class Chunks<T> {
+    private final AtomicReferenceArray<T>[] chunks;
+
+    /** Slots at or above this index have never been used; written before publishing chunks */
+    private int high = 0;
+
+    @SuppressWarnings("unchecked")
+    Chunks(int count) {
+      this.chunks = new AtomicReferenceArray[count];
+      for (int i = 0; i < count; i++) {
+        chunks[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+      }
+    }
+
+    private Chunks(AtomicReferenceArray<T>[] chunks, int high) {
+      this.chunks = chunks;
+      this.high = high;
+    }
+
+    int capacity() {
+      return chunks.length * CHUNK_SIZE;
+    }
+
+    /** Return a copy with one more chunk; existing chunks are shared, not copied. */
+    Chunks<T> grow() {
+      AtomicReferenceArray<T>[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+      grown[chunks.length] = new AtomicReferenceArray<>(CHUNK_SIZE);
+      return new Chunks<>(grown, high);
+    }
+
+    T get(int slot) {
+      return chunks[slot / CHUNK_SIZE].get(slot % CHUNK_SIZE);
+    }
+
+    void set(int slot, T listener) {
+      chunks[slot / CHUNK_SIZE].set(slot % CHUNK_SIZE, listener);
+    }
+  }
+
+  /**
+   * A view of the slots at one point in time. Like iteration, it may or may not see listeners added
+   * or removed after it was taken.
+   *
+   * @param <T> The listener type
+   */
+  public static class Slots<T> {
+    private final Chunks<T> chunks;
+    private final int high;
+
+    private Slots(Chunks<T> chunks) {
+      this.chunks = chunks;
+      this.high = chunks.high;
+    }
+
+    /**
+     * Return the number of slots, including empty ones.
+     *
+     * @return The slot count
+     */
+    public int count() {
+      return high;
+    }
+
+    /**
+     * Pass each listener in a range of slots to the action.
+     *
+     * @param from The first slot, inclusive
+     * @param to The last slot, exclusive
+     * @param action The action
+     */
+    public void forEach(int from, int to, Consumer<? super T> action) {
+      for (int slot = from; slot < to; slot++) {
+        T listener = chunks.get(slot);
+        if (listener != null) {
+          action.accept(listener);
+        }
+      }
+    }
+  }
+
+  private static class SlotIterator<T> implements Iterator<T> {
+    private final Chunks<T> chunks;
+    private final int high;
+    private int slot = 0;
+    private T next;
+
+    SlotIterator(Chunks<T> chunks) {
+      this.chunks = chunks;
+      this.high = chunks.high;
+      advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public T next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+
+      T current = next;
+      advance();
+      return current;
+    }
+
+    private void advance() {
+      next = null;
+      while (next == null && slot < high) {
+        next = chunks.get(slot++);
+      }
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package org.jlab.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer for many producers and a single consumer. Producers claim a slot
+ * with one CAS and never block; offer fails when the ring is full. Each slot carries a sequence
+ * number so the consumer can tell a published slot from one that is claimed but not yet written.
+ *
+ * @param <E> The element type
+ */
+public class MpscRing<E> {
+
+  private final AtomicReferenceArray<E> buffer;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong(); // Next sequence to claim
+  private volatile long head = 0; // Next sequence to consume; only written by the consumer
+
+  /**
+   * Create a new MpscRing.
+   *
+   * @param capacity The max number of elements, rounded up to a power of two
+   */
+  public MpscRing(int capacity) {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+
+    buffer = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    mask = size - 1;
+
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Add an element. Safe to call from any thread.
+   *
+   * @param element The element
+   * @return false if the ring is full
+   */
+  public boolean offer(E element) {
+    while (true) {
+      long t = tail.get();
+      int i = (int) (t & mask);
+      long diff = sequences.get(i) - t;
+
+      if (diff == 0) {
+        if (tail.compareAndSet(t, t + 1)) {
+          buffer.set(i, element);
+          sequences.set(i, t + 1); // Publish
+          return true;
+        }
+      } else if (diff < 0) {
+        return false; // Slot not yet consumed from the previous lap
+      }
+      // Otherwise another producer claimed the slot first; try the next one
+    }
+  }
+
+  /**
+   * Remove the oldest element. Must only be called from the single consumer thread.
+   *
+   * @return The element, or null if empty (or the oldest claimed slot isn't written yet)
+   */
+  public E poll() {
+    long h = head;
+    int i = (int) (h & mask);
+
+    if (sequences.get(i) != h + 1) {
+      return null;
+    }
+
+    E element = buffer.get(i);
+    buffer.set(i, null);
+    sequences.set(i, h + mask + 1); // Free for the next lap
+    head = h + 1;
+
+    return element;
+  }
+
+  /**
+   * Return the sequence the next offer will claim; every element offered before this call has a
+   * lower sequence.
+   *
+   * @return The tail sequence
+   */
+  public long getTail() {
+    return tail.get();
+  }
+
+  /**
+   * Return the sequence of the next element to be consumed; every element with a lower sequence
+   * has been consumed.
+   *
+   * @return The head sequence
+   */
+  public long getHead() {
+    return head;
+  }
+
+  public int size() {
+    long size = tail.get() - head;
+    return (int) Math.max(0, Math.min(size, capacity()));
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+}
@@ -0,0 +1,102 @@
+package org.jlab.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A hashed timing wheel: items are scheduled for a deadline and handed back once it has passed.
+ * Each advance only visits the slots for the ticks that have elapsed, so the cost scales with the
+ * number of items falling due rather than the number scheduled. Deadlines further out than one turn
+ * of the wheel stay in their slot until the turn they are due.
+ *
+ * <p>Items can't be cancelled; the owner should ignore items that are no longer relevant when they
+ * come due.
+ *
+ * @param <T> The item type
+ */
+public class TimingWheel<T> {
+
+  private final long tickNanos;
+  private final long originNanos;
+  private final List<Entry<T>>[] slots;
+  private final int mask;
+  private long currentTick = 0;
+
+  /**
+   * Create a new TimingWheel.
+   *
+   * @param tickNanos The resolution of the wheel in nanoseconds
+   * @param slotCount The number of slots, rounded up to a power of two
+   */
+  @SuppressWarnings("unchecked")
+  public TimingWheel(long tickNanos, int slotCount) {
+    int size = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+
+    this.tickNanos = tickNanos;
+    this.originNanos = System.nanoTime();
+    this.slots = new List[size];
+    this.mask = size - 1;
+
+    for (int i = 0; i < size; i++) {
+      slots[i] = new ArrayList<>();
+    }
+  }
+
+  /**
+   * Schedule an item. Deadlines already passed are due on the next advance.
+   *
+   * @param item The item
+   * @param deadlineNanos The System.nanoTime() the item is due
+   */
+  public synchronized void schedule(T item, long deadlineNanos) {
+    long tick = Math.max(toTick(deadlineNanos), currentTick + 1);
+
+    slots[(int) (tick & mask)].add(new Entry<>(item, tick));
+  }
+
+  /**
+   * Advance the wheel to the given time.
+   *
+   * @param nowNanos The current System.nanoTime()
+   * @return The items that are now due, in no particular order
+   */
+  public synchronized List<T> advance(long nowNanos) {
+    long nowTick = toTick(nowNanos);
+    List<T> due = new ArrayList<>();
+
+    // If we fell behind by more than a turn just visit every slot once
+    long first = Math.max(currentTick + 1, nowTick - mask);
+
+    for (long tick = first; tick <= nowTick; tick++) {
+      Iterator<Entry<T>> it = slots[(int) (tick & mask)].iterator();
+
+      while (it.hasNext()) {
+        Entry<T> entry = it.next();
+
+        if (entry.tick <= nowTick) {
+          it.remove();
+          due.add(entry.item);
+        }
+      }
+    }
+
+    currentTick = Math.max(currentTick, nowTick);
+
+    return due;
+  }
+
+  private long toTick(long nanos) {
+    return Math.max(0, nanos - originNanos) / tickNanos;
+  }
+
+  private static class Entry<T> {
+    private final T item;
+    private final long tick;
+
+    Entry(T item, long tick) {
+      this.item = item;
+      this.tick = tick;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package org.jlab.util;
+
+/**
+ * A token bucket rate limiter. Tokens refill continuously at the configured rate up to the burst
+ * size. The bucket may go into debt by consuming more tokens than are available so that a single
+ * request larger than the burst size is never starved; later requests then wait for the debt to be
+ * repaid.
+ */
+public class TokenBucket {
+
+  private double ratePerNano;
+  private final double burst;
+  private double tokens;
+  private long lastRefillNanos;
+
+  /**
+   * Create a new TokenBucket, initially full.
+   *
+   * @param ratePerSecond Tokens added per second
+   * @param burst Max tokens the bucket holds
+   */
+  public TokenBucket(double ratePerSecond, double burst) {
+    this.ratePerNano = ratePerSecond / 1_000_000_000.0d;
+    this.burst = burst;
+    this.tokens = burst;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  /**
+   * Change the refill rate. Tokens already in the bucket are kept.
+   *
+   * @param ratePerSecond Tokens added per second
+   */
+  public synchronized void setRate(double ratePerSecond) {
+    refill(System.nanoTime());
+    ratePerNano = ratePerSecond / 1_000_000_000.0d;
+  }
+
+  /**
+   * Return how long until at least one token is available.
+   *
+   * @param nowNanos The current System.nanoTime()
+   * @return Nanoseconds to wait, or 0 if a token is available now
+   */
+  public synchronized long nanosUntilAvailable(long nowNanos) {
+    refill(nowNanos);
+
+    if (tokens > 0) {
+      return 0;
+    }
+
+    return (long) Math.ceil((1 - tokens) / ratePerNano);
+  }
+
+  /**
+   * Consume tokens, going into debt if there are not enough.
+   *
+   * @param permits The number of tokens to consume
+   * @param nowNanos The current System.nanoTime()
+   */
+  public synchronized void consume(long permits, long nowNanos) {
+    refill(nowNanos);
+    tokens = tokens - permits;
+  }
+
+  /**
+   * Consume as many of the requested tokens as are available, never going into debt. Used to admit
+   * part of a request and reject the rest.
+   *
+   * @param permits The number of tokens wanted
+   * @param nowNanos The current System.nanoTime()
+   * @return The number of tokens consumed, from 0 to permits
+   */
+  public synchronized long consumeAvailable(long permits, long nowNanos) {
+    refill(nowNanos);
+
+    long granted = Math.min(permits, (long) Math.max(0, Math.floor(tokens)));
+    tokens = tokens - granted;
+
+    return granted;
+  }
+
+  private void refill(long nowNanos) {
+    long elapsed = nowNanos - lastRefillNanos;
+
+    if (elapsed > 0) {
+      tokens = Math.min(burst, tokens + elapsed * ratePerNano);
+      lastRefillNanos = nowNanos;
+    }
+  }
+}
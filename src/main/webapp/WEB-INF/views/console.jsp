@@ -19,6 +19,10 @@
                     <th>Total Clients (Sessions)</th>
                     <th>Total PVs (Duplicates Allowed)</th>
                     <th>Unique PVs (Monitors)</th>
+                    <th>Updates Timed</th>
+                    <th>Latency p50 (ms)</th>
+                    <th>Latency p99 (ms)</th>
+                    <th>Latency p999 (ms)</th>
                 </tr>
             </thead>
             <tbody>
@@ -30,6 +34,10 @@
                     <td><fmt:formatNumber value="${clientMap.size()}"/></td>
                     <td><fmt:formatNumber value="${totalPvs}"/></td>
                     <td><fmt:formatNumber value="${monitorMap.size()}"/></td>
+                    <td><fmt:formatNumber value="${latencyCount}"/></td>
+                    <td><fmt:formatNumber value="${latencyP50Millis}" maxFractionDigits="3"/></td>
+                    <td><fmt:formatNumber value="${latencyP99Millis}" maxFractionDigits="3"/></td>
+                    <td><fmt:formatNumber value="${latencyP999Millis}" maxFractionDigits="3"/></td>
                 </tr>                    
             </tbody>
         </table>        
@@ -43,6 +51,11 @@
                     <th>Name</th>
                     <th>PVs</th>
                     <th>Dropped Messages</th>
+                    <th>Delivery</th>
+                    <th>Idle (s)</th>
+                    <th>Latency p50 (ms)</th>
+                    <th>Latency p99 (ms)</th>
+                    <th>Latency p999 (ms)</th>
                 </tr>
             </thead>
             <tbody>
@@ -54,6 +67,11 @@
                         <td><c:out value="${client.key.name}"/></td>
                         <td>(${client.value == null ? '0' : client.value.size()}) <c:out value="${client.value}"/></td>
                         <td><fmt:formatNumber value="${client.key.droppedMessageCount}"/></td>
+                        <td><c:out value="${client.key.tier}"/></td>
+                        <td><fmt:formatNumber value="${client.key.idleSeconds}" maxFractionDigits="1"/></td>
+                        <td><fmt:formatNumber value="${client.key.latencyP50Millis}" maxFractionDigits="3"/></td>
+                        <td><fmt:formatNumber value="${client.key.latencyP99Millis}" maxFractionDigits="3"/></td>
+                        <td><fmt:formatNumber value="${client.key.latencyP999Millis}" maxFractionDigits="3"/></td>
                     </tr>
                 </c:forEach>
             </tbody>
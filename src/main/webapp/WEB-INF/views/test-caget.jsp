@@ -27,6 +27,14 @@
                             <input id="n" type="checkbox" name="n" value="Y"/>
                         </td>
                     </tr>
+                    <tr>
+                        <td style="text-align: right;">
+                            <label for="stream">Stream each value as it arrives (one JSON object per line): </label>
+                        </td>
+                        <td style="text-align: left;">
+                            <input id="stream" type="checkbox" name="stream" value="true"/>
+                        </td>
+                    </tr>
                     <tr>
                         <td style="text-align: right;">
                             <label for="pvs">PV names: </label>
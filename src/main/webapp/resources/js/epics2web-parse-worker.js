@@ -0,0 +1,79 @@
+/*
+ * Web Worker used by jlab.epics2web.ClientConnection when the frameUpdates option is true.  Server messages
+ * are parsed here instead of on the page's main thread, and value updates are coalesced per PV: only the
+ * latest update of each PV is posted back, as one batch about once a frame.  Other messages are rare and
+ * are posted back as soon as they arrive.  An info message for a PV drops its pending update, since the
+ * info supersedes it (a disconnected PV) or is followed by a fresh value.
+ *
+ *   page -> worker: frame {data}, reset
+ *   worker -> page: message {json}, updates {updates}
+ *
+ * where updates is an array of update messages, each identified by PV name.
+ */
+
+var FLUSH_MILLIS = 16; /* About one animation frame */
+
+var pvNames = {}, /* PV id to name; ids are per socket */
+        pending = {}, /* PV name to latest update not yet posted */
+        flushTimer = null;
+
+var flush = function () {
+    var updates = [];
+    for (var pv in pending) {
+        updates.push(pending[pv]);
+    }
+    pending = {};
+    flushTimer = null;
+    if (updates.length > 0) {
+        postMessage({type: 'updates', updates: updates});
+    }
+};
+
+var onInfo = function (info) {
+    if (typeof info.id !== 'undefined') {
+        pvNames[info.id] = info.pv;
+    }
+    delete pending[info.pv];
+};
+
+var onFrame = function (data) {
+    var json = JSON.parse(data);
+
+    if (json.type === 'update') {
+        if (typeof json.pv === 'undefined') {
+            json.pv = pvNames[json.id];
+        }
+        pending[json.pv] = json;
+        if (flushTimer === null) {
+            flushTimer = setTimeout(flush, FLUSH_MILLIS);
+        }
+        return;
+    }
+
+    if (json.type === 'info') {
+        onInfo(json);
+    } else if (json.type === 'snapshot') {
+        for (var i = 0; i < json.pvs.length; i++) {
+            onInfo(json.pvs[i]);
+        }
+    } else if (json.type === 'info-batch') {
+        for (var i = 0; i < json.infos.length; i++) {
+            onInfo(json.infos[i]);
+        }
+    }
+
+    postMessage({type: 'message', json: json});
+};
+
+onmessage = function (event) {
+    if (event.data.type === 'frame') {
+        onFrame(event.data.data);
+    } else if (event.data.type === 'reset') {
+        if (flushTimer !== null) {
+            clearTimeout(flushTimer);
+        }
+        pvNames = {};
+        pending = {};
+        flushTimer = null;
+    }
+};
@@ -0,0 +1,403 @@
+/* global WebSocket */
+
+/*
+ * SharedWorker used by jlab.epics2web.ClientConnection when the sharedWorker option is true.  Every tab
+ * of an origin that connects to the same url shares this worker, which owns a single web socket to the
+ * server.  Subscriptions are reference counted across tabs: the server is only asked to monitor a PV when
+ * the first tab subscribes and to clear it when the last tab unsubscribes, and updates are forwarded only
+ * to the tabs that subscribed.  A tab that subscribes to a PV another tab already monitors is sent the
+ * latest info and value right away as a snapshot.  The server session is paused while every tab is hidden.
+ *
+ * Tabs talk to the worker over their port with plain objects:
+ *
+ *   tab -> worker: attach {options}, detach, monitor {pvs}, clear {pvs}, get {id, pvs, enumLabel}, ping,
+ *                  pause, resume
+ *   worker -> tab: connecting, open, close {code, reason}, error, message {json}, get-error {id, error}
+ *
+ * where json is a server message (info, update, snapshot, info-batch, get, rejected, pong) filtered down to
+ * the PVs of that tab, with update messages always identified by PV name.  A get that can't be sent because
+ * the socket isn't open is answered with get-error.
+ */
+
+var ports = [], /* Attached tabs: {port, pvs, hidden} where pvs is the set of PV names the tab monitors */
+        refCounts = {}, /* PV name to number of tabs monitoring it */
+        lastInfo = {}, /* PV name to latest info message */
+        lastValue = {}, /* PV name to latest value */
+        pvNames = {}, /* PV id to name; ids are per socket */
+        pendingGets = {}, /* Worker get id to {tab, id} where id is the tab's own get id */
+        nextGetId = 1,
+        options = null, /* Options of the first tab to attach */
+        paused = false, /* Whether the server session is paused */
+        socket = null,
+        livenessTimer = null,
+        reconnectTimer = null;
+
+var findTab = function (port) {
+    for (var i = 0; i < ports.length; i++) {
+        if (ports[i].port === port) {
+            return ports[i];
+        }
+    }
+    return null;
+};
+
+var post = function (tab, msg) {
+    tab.port.postMessage(msg);
+};
+
+var broadcast = function (msg) {
+    for (var i = 0; i < ports.length; i++) {
+        post(ports[i], msg);
+    }
+};
+
+/* Send a server message to each tab that monitors the PV */
+var forward = function (pv, json) {
+    for (var i = 0; i < ports.length; i++) {
+        if (ports[i].pvs[pv] === true) {
+            post(ports[i], {type: 'message', json: json});
+        }
+    }
+};
+
+/* Split a list of PV entries (objects with a pv property) into one list per tab and post each as a message */
+var forwardEach = function (entries, toJson) {
+    for (var i = 0; i < ports.length; i++) {
+        var tab = ports[i],
+                filtered = [];
+        for (var j = 0; j < entries.length; j++) {
+            if (tab.pvs[entries[j].pv] === true) {
+                filtered.push(entries[j]);
+            }
+        }
+        if (filtered.length > 0) {
+            post(tab, {type: 'message', json: toJson(filtered)});
+        }
+    }
+};
+
+var isOpen = function () {
+    return socket !== null && socket.readyState === WebSocket.OPEN;
+};
+
+var send = function (msg) {
+    if (isOpen()) {
+        socket.send(JSON.stringify(msg));
+    }
+};
+
+var rememberInfo = function (info) {
+    if (typeof info.id !== 'undefined') {
+        pvNames[info.id] = info.pv;
+    }
+    if (refCounts[info.pv] > 0) {
+        lastInfo[info.pv] = info;
+    }
+};
+
+var rememberValue = function (pv, value) {
+    if (refCounts[pv] > 0) {
+        lastValue[pv] = value;
+    }
+};
+
+/* Stop monitoring the given PVs for a tab; PVs no other tab monitors are cleared on the server */
+var release = function (tab, pvs) {
+    var cleared = [];
+    for (var i = 0; i < pvs.length; i++) {
+        var pv = pvs[i];
+        if (tab.pvs[pv] === true) {
+            delete tab.pvs[pv];
+            refCounts[pv]--;
+            if (refCounts[pv] === 0) {
+                delete refCounts[pv];
+                delete lastInfo[pv];
+                delete lastValue[pv];
+                cleared.push(pv);
+            }
+        }
+    }
+    return cleared;
+};
+
+var monitor = function (tab, pvs) {
+    if (!isOpen()) {
+        return; /* As with a socket of its own, the tab subscribes again once open */
+    }
+
+    var added = [],
+            snapshot = [];
+    for (var i = 0; i < pvs.length; i++) {
+        var pv = pvs[i];
+        if (tab.pvs[pv] !== true) {
+            tab.pvs[pv] = true;
+            refCounts[pv] = (refCounts[pv] || 0) + 1;
+            if (refCounts[pv] === 1) {
+                added.push(pv);
+                continue;
+            }
+        }
+        if (typeof lastInfo[pv] !== 'undefined') {
+            var entry = {};
+            for (var key in lastInfo[pv]) {
+                if (key !== 'type' && key !== 'date') {
+                    entry[key] = lastInfo[pv][key];
+                }
+            }
+            if (typeof lastValue[pv] !== 'undefined') {
+                entry.value = lastValue[pv];
+            }
+            snapshot.push(entry);
+        }
+    }
+    if (added.length > 0) {
+        send({type: 'monitor', pvs: added});
+    }
+    if (snapshot.length > 0) {
+        post(tab, {type: 'message', json: {type: 'snapshot', pvs: snapshot}});
+    }
+};
+
+var clear = function (tab, pvs) {
+    var cleared = release(tab, pvs);
+    if (cleared.length > 0) {
+        send({type: 'clear', pvs: cleared});
+    }
+};
+
+var get = function (tab, msg) {
+    if (!isOpen()) {
+        post(tab, {type: 'get-error', id: msg.id, error: 'socket is not open'});
+        return;
+    }
+    var id = nextGetId++;
+    pendingGets[id] = {tab: tab, id: msg.id};
+    send({type: 'get', id: id, pvs: msg.pvs, enumLabel: msg.enumLabel});
+};
+
+/* Pause the server session when every tab is hidden and resume it as soon as one is shown */
+var updatePaused = function () {
+    if (!isOpen()) {
+        return;
+    }
+
+    var allHidden = ports.length > 0;
+    for (var i = 0; i < ports.length; i++) {
+        allHidden = allHidden && ports[i].hidden;
+    }
+
+    if (allHidden !== paused) {
+        paused = allHidden;
+        send({type: paused ? 'pause' : 'resume'});
+    }
+};
+
+var detach = function (tab) {
+    clear(tab, Object.keys(tab.pvs));
+    ports.splice(ports.indexOf(tab), 1);
+    for (var id in pendingGets) {
+        if (pendingGets[id].tab === tab) {
+            delete pendingGets[id];
+        }
+    }
+    if (ports.length === 0) {
+        if (reconnectTimer !== null) {
+            clearTimeout(reconnectTimer);
+            reconnectTimer = null;
+        }
+        if (socket !== null && socket.readyState !== WebSocket.CLOSED) {
+            socket.close(1000);
+        }
+    } else {
+        updatePaused();
+    }
+};
+
+var onServerMessage = function (json) {
+    if (json.type === 'update') {
+        if (typeof json.pv === 'undefined') {
+            json.pv = pvNames[json.id];
+        }
+        rememberValue(json.pv, json.value);
+        forward(json.pv, json);
+    } else if (json.type === 'info') {
+        rememberInfo(json);
+        forward(json.pv, json);
+    } else if (json.type === 'snapshot') {
+        for (var i = 0; i < json.pvs.length; i++) {
+            rememberInfo(json.pvs[i]);
+            if (typeof json.pvs[i].value !== 'undefined') {
+                rememberValue(json.pvs[i].pv, json.pvs[i].value);
+            }
+        }
+        forwardEach(json.pvs, function (pvs) {
+            return {type: 'snapshot', pvs: pvs};
+        });
+    } else if (json.type === 'info-batch') {
+        for (var i = 0; i < json.infos.length; i++) {
+            rememberInfo(json.infos[i]);
+        }
+        forwardEach(json.infos, function (infos) {
+            return {type: 'info-batch', host: json.host, infos: infos};
+        });
+    } else if (json.type === 'get') {
+        var pending = pendingGets[json.id];
+        if (typeof pending !== 'undefined') {
+            delete pendingGets[json.id];
+            json.id = pending.id;
+            post(pending.tab, {type: 'message', json: json});
+        }
+    } else if (json.type === 'rejected') {
+        if (json.request === 'get') {
+            var pending = pendingGets[json.id];
+            if (typeof pending !== 'undefined') {
+                if (json.quota === 'messages-per-second') {
+                    delete pendingGets[json.id];
+                }
+                json.id = pending.id;
+                post(pending.tab, {type: 'message', json: json});
+            }
+        } else if (json.request === 'monitor') {
+            /* Rejected PVs aren't monitored by the server so nobody holds them */
+            for (var i = 0; i < ports.length; i++) {
+                var tab = ports[i],
+                        mine = json.pvs.filter(function (pv) {
+                            return tab.pvs[pv] === true;
+                        });
+                if (mine.length > 0) {
+                    release(tab, mine);
+                    post(tab, {type: 'message', json: {type: 'rejected', request: json.request, quota: json.quota, pvs: mine}});
+                }
+            }
+        } else {
+            broadcast({type: 'message', json: json});
+        }
+    } else if (json.type === 'pong') {
+        broadcast({type: 'message', json: json});
+    }
+};
+
+var doPingWithTimer = function () {
+    if (isOpen()) {
+        send({type: 'ping'});
+
+        if (livenessTimer === null) {
+            livenessTimer = setTimeout(function () {
+                if (socket.readyState === WebSocket.OPEN) {
+                    socket.close();
+                }
+                livenessTimer = null;
+            }, options.livenessTimoutMillis);
+        }
+    }
+};
+
+/* Tabs announce their own first connect attempt, so only reconnects are broadcast */
+var open = function (reconnect) {
+    reconnectTimer = null;
+
+    if (ports.length === 0 || (socket !== null && socket.readyState !== WebSocket.CLOSED)) {
+        return;
+    }
+
+    if (reconnect) {
+        broadcast({type: 'connecting'});
+    }
+
+    pvNames = {};
+    socket = new WebSocket(options.url);
+
+    socket.onerror = function (event) {
+        broadcast({type: 'error'});
+    };
+
+    socket.onclose = function (event) {
+        var waitMillis = options.reconnectWaitMillis;
+        if (event.code === options.slowConsumerCloseCode || event.code === options.sessionLimitCloseCode) {
+            waitMillis = options.slowConsumerReconnectWaitMillis;
+        }
+
+        /* The server session and its subscriptions are gone; tabs subscribe again on open as they would with their own socket */
+        paused = false;
+        refCounts = {};
+        lastInfo = {};
+        lastValue = {};
+        pendingGets = {};
+        for (var i = 0; i < ports.length; i++) {
+            ports[i].pvs = {};
+        }
+
+        if (livenessTimer !== null) {
+            clearTimeout(livenessTimer);
+            livenessTimer = null;
+        }
+
+        broadcast({type: 'close', code: event.code, reason: event.reason});
+
+        if (options.autoReconnect && ports.length > 0 && reconnectTimer === null) {
+            reconnectTimer = setTimeout(open, waitMillis, true);
+        }
+    };
+
+    socket.onmessage = function (event) {
+        if (livenessTimer !== null) {
+            clearTimeout(livenessTimer);
+            livenessTimer = null;
+        }
+
+        onServerMessage(JSON.parse(event.data));
+    };
+
+    socket.onopen = function (event) {
+        updatePaused();
+        broadcast({type: 'open'});
+    };
+};
+
+var onTabMessage = function (port, msg) {
+    var tab = findTab(port);
+
+    if (msg.type === 'attach') {
+        if (tab !== null) {
+            return;
+        }
+        tab = {port: port, pvs: {}, hidden: false};
+        ports.push(tab);
+        if (options === null) {
+            options = msg.options;
+            if (options.autoLivenessPingAndTimeout === true) {
+                setInterval(doPingWithTimer, options.pingIntervalMillis);
+            }
+        }
+        if (isOpen()) {
+            post(tab, {type: 'open'});
+        } else if (reconnectTimer === null) {
+            open(false);
+        }
+    } else if (tab === null) {
+        /* Detached */
+    } else if (msg.type === 'detach') {
+        detach(tab);
+    } else if (msg.type === 'monitor') {
+        monitor(tab, msg.pvs);
+    } else if (msg.type === 'clear') {
+        clear(tab, msg.pvs);
+    } else if (msg.type === 'get') {
+        get(tab, msg);
+    } else if (msg.type === 'ping') {
+        send({type: 'ping'});
+    } else if (msg.type === 'pause' || msg.type === 'resume') {
+        tab.hidden = msg.type === 'pause';
+        updatePaused();
+    }
+};
+
+self.onconnect = function (event) {
+    var port = event.ports[0];
+
+    port.onmessage = function (e) {
+        onTabMessage(port, e.data);
+    };
+
+    port.start();
+};
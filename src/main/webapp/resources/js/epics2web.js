@@ -1,4 +1,4 @@
-/* global WebSocket */
+/* global WebSocket, SharedWorker, Worker */
 
 var jlab = jlab || {};
 jlab.epics2web = jlab.epics2web || {};
@@ -25,6 +25,12 @@ jlab.contextPrefix = jlab.contextPrefix || '';
 })();
 /* END IE CustomEvent POLYFILL */
 
+/* Close code used by the server when it closes a client that can't keep up with updates */
+jlab.epics2web.SLOW_CONSUMER_CLOSE_CODE = 4001;
+
+/* Close code used by the server when the client's IP address already has the max number of sessions */
+jlab.epics2web.SESSION_LIMIT_CLOSE_CODE = 4002;
+
 jlab.epics2web.ClientConnection = function (options) {
     var protocol = 'ws:';
     if (window.location.protocol === 'https:') {
@@ -40,7 +46,16 @@ jlab.epics2web.ClientConnection = function (options) {
         pingIntervalMillis: 3000, /* Time to wait between pings */
         livenessTimoutMillis: 2000, /* Max time allowed for server to respond to a ping (via any message) */
         reconnectWaitMillis: 1000, /* Time to wait after socket closed before attempting reconnect */
-        chunkedRequestMaxBytes: 8192, /* Max number of bytes to transmit in a chunked monitor or clear command; 0 to disable chunking.  Tomcat default server-side is usually 8KiB */
+        slowConsumerReconnectWaitMillis: 30000, /* Time to wait before attempting reconnect after server closed socket because client couldn't keep up */
+        infoBatches: true, /* Ask the server to send connection info for a group of PVs (such as every PV on a rebooted IOC) as one message, which is expanded into the usual info events */
+        snapshots: true, /* Ask the server to send the current info and value of every already connected PV in a monitor request as one snapshot message (split by size), which is expanded into the usual info and update events */
+        pvIds: true, /* Ask the server to identify PVs in update messages by the integer id from their info message instead of by name, which shrinks updates; the name is restored before update events are dispatched */
+        chunkedRequestMaxBytes: 0, /* Max number of bytes to transmit in a chunked monitor or clear command; 0 to disable chunking.  The server accepts large requests in parts so chunking is only needed for older servers, which accept 8KiB */
+        pauseWhenHidden: true, /* Ask the server to pause updates while the page is hidden (Page Visibility API); on resume the server sends one snapshot of the PVs that changed */
+        frameUpdates: false, /* Parse messages in a Web Worker and deliver only the latest value of each changed PV once per animation frame, as one 'updates' event whose detail is an array of updates, instead of an 'update' event per message; other events are unchanged */
+        parseWorkerUrl: jlab.contextPrefix + "/epics2web/resources/js/epics2web-parse-worker.js", /* Script of the frameUpdates parse Web Worker; if the browser lacks Web Workers messages are parsed on the main thread but still delivered per frame */
+        sharedWorker: false, /* Share one socket among all tabs of this origin connected to the same url via a SharedWorker, which reference counts PV subscriptions across tabs; falls back to a socket per tab if the browser lacks SharedWorker */
+        sharedWorkerUrl: jlab.contextPrefix + "/epics2web/resources/js/epics2web-shared-worker.js", /* Script of the SharedWorker */
         clientName: window.location.href /* Client name is a string used for informational/debugging purposes (appears in console) */
     };
 
@@ -58,13 +73,212 @@ jlab.epics2web.ClientConnection = function (options) {
 
     // Private variables
     var socket = null,
+            port = null, /* SharedWorker port used instead of socket when shared */
+            portOpen = false,
+            parseWorker = null, /* Parses socket messages off the main thread when frameUpdates */
+            pendingUpdates = {}, /* PV name to latest update not yet delivered when frameUpdates */
+            frameRequested = false,
+            shared = this.sharedWorker === true && typeof SharedWorker !== 'undefined',
             eventElem = document.createElement('div'),
             lastUpdated = null,
             self = this,
             livenessTimer = null,
-            reconnecting = false;
+            reconnecting = false,
+            pvNames = {}, /* PV id to name; ids are per socket */
+            nextGetId = 1,
+            pendingGets = {}; /* get request id to {resolve, reject} */
 
     // Private functions
+    var dispatchInfo = function (json) {
+        if (typeof json.id !== 'undefined') {
+            pvNames[json.id] = json.pv;
+        }
+        delete pendingUpdates[json.pv]; /* Superseded by the info or followed by a fresh value */
+        var event = new CustomEvent('info', {'detail': json});
+        eventElem.dispatchEvent(event);
+    };
+
+    var rejectPendingGets = function (reason) {
+        var pending = pendingGets;
+        pendingGets = {};
+        for (var id in pending) {
+            pending[id].reject(new Error(reason));
+        }
+    };
+
+    /* Order get results as the PVs were requested; the server leaves rejected PVs out of its reply */
+    var inRequestOrder = function (pvs, entries) {
+        var byPv = {},
+                ordered = [];
+        for (var i = 0; i < entries.length; i++) {
+            byPv[entries[i].pv] = entries[i];
+        }
+        for (var i = 0; i < pvs.length; i++) {
+            if (Object.prototype.hasOwnProperty.call(byPv, pvs[i])) {
+                ordered.push(byPv[pvs[i]]);
+                delete byPv[pvs[i]]; /* Once per PV, as the server answers repeats */
+            }
+        }
+        return ordered;
+    };
+
+    var isOpen = function () {
+        return shared ? portOpen : socket !== null && socket.readyState === WebSocket.OPEN;
+    };
+
+    var send = function (msg) {
+        if (shared) {
+            port.postMessage(msg);
+        } else {
+            socket.send(JSON.stringify(msg));
+        }
+    };
+
+    var deliverFrame = function () {
+        var updates = [];
+        for (var pv in pendingUpdates) {
+            updates.push(pendingUpdates[pv]);
+        }
+        pendingUpdates = {};
+        frameRequested = false;
+        if (updates.length > 0) {
+            eventElem.dispatchEvent(new CustomEvent('updates', {'detail': updates}));
+            eventElem.dispatchEvent(new CustomEvent('message'));
+        }
+    };
+
+    var deliverUpdate = function (json) {
+        if (self.frameUpdates === true) {
+            pendingUpdates[json.pv] = json;
+            if (!frameRequested) {
+                frameRequested = true;
+                window.requestAnimationFrame(deliverFrame);
+            }
+        } else {
+            var event = new CustomEvent('update', {'detail': json});
+            eventElem.dispatchEvent(event);
+        }
+    };
+
+    var handleParsed = function (msg) {
+        if (msg.type === 'updates') {
+            lastUpdated = new Date();
+            for (var i = 0; i < msg.updates.length; i++) {
+                msg.updates[i].date = lastUpdated;
+                deliverUpdate(msg.updates[i]);
+            }
+        } else {
+            handleMessage(msg.json);
+        }
+    };
+
+    var handleMessage = function (json) {
+        lastUpdated = new Date();
+        json.date = lastUpdated;
+        if (json.type === 'update') {
+            if (typeof json.pv === 'undefined') {
+                json.pv = pvNames[json.id];
+            }
+            deliverUpdate(json);
+            if (self.frameUpdates === true) {
+                return; /* A message event is dispatched per frame instead */
+            }
+        } else if (json.type === 'info') {
+            dispatchInfo(json);
+        } else if (json.type === 'snapshot') {
+            for (var i = 0; i < json.pvs.length; i++) {
+                var entry = json.pvs[i];
+                entry.type = 'info';
+                entry.date = lastUpdated;
+                dispatchInfo(entry);
+                if (typeof entry.value !== 'undefined') {
+                    var update = {type: 'update', pv: entry.pv, value: entry.value, date: lastUpdated};
+                    if (typeof entry.id !== 'undefined') {
+                        update.id = entry.id;
+                    }
+                    deliverUpdate(update);
+                }
+            }
+        } else if (json.type === 'info-batch') {
+            for (var i = 0; i < json.infos.length; i++) {
+                var info = json.infos[i];
+                info.type = 'info';
+                info.date = lastUpdated;
+                dispatchInfo(info);
+            }
+        } else if (json.type === 'get') {
+            var pending = pendingGets[json.id];
+            if (typeof pending !== 'undefined') {
+                delete pendingGets[json.id];
+                pending.resolve(inRequestOrder(pending.pvs, json.pvs.concat(pending.rejected)));
+            }
+        } else if (json.type === 'rejected') {
+            var pending = (json.request === 'get') ? pendingGets[json.id] : undefined;
+            if (typeof pending !== 'undefined') {
+                if (json.quota === 'messages-per-second') { /* Whole request rejected so no reply is coming */
+                    delete pendingGets[json.id];
+                    pending.reject(new Error('rejected: ' + json.quota));
+                } else {
+                    for (var i = 0; i < json.pvs.length; i++) {
+                        pending.rejected.push({pv: json.pvs[i], error: 'rejected: ' + json.quota});
+                    }
+                }
+            }
+            var event = new CustomEvent('rejected', {'detail': json});
+            eventElem.dispatchEvent(event);
+        } else if (json.type === 'pong') {
+            var event = new CustomEvent('pong');
+            eventElem.dispatchEvent(event);
+        }
+
+        var event = new CustomEvent('message');
+        eventElem.dispatchEvent(event, {'detail': json});
+    };
+
+    /* Connection, liveness, and reconnects are handled by the worker; it relays its socket events */
+    var handlePortMessage = function (msg) {
+        if (msg.type === 'message') {
+            handleMessage(msg.json);
+        } else if (msg.type === 'open') {
+            portOpen = true;
+            lastUpdated = new Date();
+            eventElem.dispatchEvent(new CustomEvent('open'));
+        } else if (msg.type === 'close') {
+            portOpen = false;
+            console.log("server connection closed");
+            console.log(msg.reason);
+            eventElem.dispatchEvent(new CustomEvent('close'));
+            rejectPendingGets('server connection closed');
+        } else if (msg.type === 'connecting') {
+            eventElem.dispatchEvent(new CustomEvent('connecting'));
+        } else if (msg.type === 'error') {
+            console.log("server connection error");
+            eventElem.dispatchEvent(new CustomEvent('error'));
+        } else if (msg.type === 'get-error') {
+            var pending = pendingGets[msg.id];
+            if (typeof pending !== 'undefined') {
+                delete pendingGets[msg.id];
+                pending.reject(new Error(msg.error));
+            }
+        }
+    };
+
+    /* With a shared worker the worker pauses the server session only once every tab is hidden */
+    var sendVisibility = function () {
+        if (self.pauseWhenHidden === true && (shared ? port !== null : isOpen())) {
+            send({type: document.hidden ? 'pause' : 'resume'});
+        }
+    };
+
+    var detach = function () {
+        if (port !== null) {
+            port.postMessage({type: 'detach'});
+            port.close();
+            port = null;
+        }
+        portOpen = false;
+    };
+
     var doPingWithTimer = function () {
         /*console.log('pingWithTimer');*/
         if (socket !== null && socket.readyState === WebSocket.OPEN) {
@@ -121,9 +335,15 @@ jlab.epics2web.ClientConnection = function (options) {
     eventElem.addEventListener('update', function (event) {
         self.onupdate(event);
     });
+    eventElem.addEventListener('updates', function (event) {
+        self.onupdates(event);
+    });
     eventElem.addEventListener('pong', function (event) {
         self.onpong(event);
     });
+    eventElem.addEventListener('rejected', function (event) {
+        self.onrejected(event);
+    });
 
     this.addEventListener = eventElem.addEventListener.bind(eventElem);
     this.removeEventListener = eventElem.removeEventListener.bind(eventElem);
@@ -131,18 +351,71 @@ jlab.epics2web.ClientConnection = function (options) {
 
     // Public functions
     this.open = function () {
-        if (socket === null || socket.readyState === WebSocket.CLOSED) {
+        if (shared && port !== null) {
+            console.log('already connected');
+            return 1;
+        } else if (shared || socket === null || socket.readyState === WebSocket.CLOSED) {
             var event = new CustomEvent('connecting');
             eventElem.dispatchEvent(event);
 
             let u = this.url;
+            let separator = '?';
             
             if(this.clientName !== null) {
-                u = u + '?clientName=' + encodeURIComponent(this.clientName);
+                u = u + separator + 'clientName=' + encodeURIComponent(this.clientName);
+                separator = '&';
+            }
+
+            if (this.pvIds === true) {
+                u = u + separator + 'pvIds=true';
+                separator = '&';
+            }
+
+            if (this.infoBatches === true) {
+                u = u + separator + 'infoBatches=true';
+                separator = '&';
+            }
+
+            if (this.snapshots === true) {
+                u = u + separator + 'snapshots=true';
+            }
+
+            pvNames = {};
+            pendingUpdates = {};
+
+            if (shared) {
+                port = new SharedWorker(this.sharedWorkerUrl, 'epics2web ' + this.url).port;
+                port.onmessage = function (event) {
+                    handlePortMessage(event.data);
+                };
+                port.start();
+                port.postMessage({type: 'attach', options: {
+                        url: u,
+                        autoReconnect: this.autoReconnect,
+                        autoLivenessPingAndTimeout: this.autoLivenessPingAndTimeout,
+                        pingIntervalMillis: this.pingIntervalMillis,
+                        livenessTimoutMillis: this.livenessTimoutMillis,
+                        reconnectWaitMillis: this.reconnectWaitMillis,
+                        slowConsumerReconnectWaitMillis: this.slowConsumerReconnectWaitMillis,
+                        slowConsumerCloseCode: jlab.epics2web.SLOW_CONSUMER_CLOSE_CODE,
+                        sessionLimitCloseCode: jlab.epics2web.SESSION_LIMIT_CLOSE_CODE
+                    }});
+                sendVisibility();
+                return;
             }
 
             socket = new WebSocket(u);
 
+            if (this.frameUpdates === true && typeof Worker !== 'undefined') {
+                if (parseWorker === null) {
+                    parseWorker = new Worker(this.parseWorkerUrl);
+                    parseWorker.onmessage = function (event) {
+                        handleParsed(event.data);
+                    };
+                }
+                parseWorker.postMessage({type: 'reset'});
+            }
+
             socket.onerror = function (event) {
                 console.log("server connection error");
                 console.log(event);
@@ -155,9 +428,16 @@ jlab.epics2web.ClientConnection = function (options) {
                 console.log("server connection closed");
                 console.log(event.reason);
 
+                var waitMillis = self.reconnectWaitMillis;
+                if (event.code === jlab.epics2web.SLOW_CONSUMER_CLOSE_CODE || event.code === jlab.epics2web.SESSION_LIMIT_CLOSE_CODE) {
+                    waitMillis = self.slowConsumerReconnectWaitMillis;
+                }
+
                 var event = new CustomEvent('close');
                 eventElem.dispatchEvent(event);
 
+                rejectPendingGets('server connection closed');
+
                 if (livenessTimer !== null) {
                     clearTimeout(livenessTimer);
                     livenessTimer = null;
@@ -171,7 +451,7 @@ jlab.epics2web.ClientConnection = function (options) {
                         /*console.log('reconnect timer triggered');*/
                         self.open();
                         reconnecting = false;
-                    }, self.reconnectWaitMillis);
+                    }, waitMillis);
                 } else {
                     /*console.log('socket is not closed (socket is connecting, closing, or reconnecting / delayed connecting)');*/
                 }
@@ -185,27 +465,20 @@ jlab.epics2web.ClientConnection = function (options) {
                     livenessTimer = null;
                 }
 
-                lastUpdated = new Date();
-                var json = JSON.parse(event.data);
-                json.date = lastUpdated;
-                if (json.type === 'update') {
-                    var event = new CustomEvent('update', {'detail': json});
-                    eventElem.dispatchEvent(event);
-                } else if (json.type === 'info') {
-                    var event = new CustomEvent('info', {'detail': json});
-                    eventElem.dispatchEvent(event);
-                } else if (json.type === 'pong') {
-                    var event = new CustomEvent('pong');
-                    eventElem.dispatchEvent(event);
+                if (parseWorker !== null) {
+                    parseWorker.postMessage({type: 'frame', data: event.data});
+                } else {
+                    handleMessage(JSON.parse(event.data));
                 }
-
-                var event = new CustomEvent('message');
-                eventElem.dispatchEvent(event, {'detail': json});
             };
 
             socket.onopen = function (event) {
                 lastUpdated = new Date();
 
+                if (document.hidden) {
+                    sendVisibility();
+                }
+
                 var event = new CustomEvent('open');
                 eventElem.dispatchEvent(event);
             };
@@ -217,7 +490,15 @@ jlab.epics2web.ClientConnection = function (options) {
 
     this.close = function (code, reason) {
         console.log('close');
-        if (socket !== null && socket.readyState !== WebSocket.CLOSED) {
+        if (shared) {
+            if (port !== null) {
+                detach();
+                eventElem.dispatchEvent(new CustomEvent('close'));
+                rejectPendingGets('connection closed');
+            } else {
+                console.log('already closed');
+            }
+        } else if (socket !== null && socket.readyState !== WebSocket.CLOSED) {
             if (typeof code === 'undefined') {
                 code = 1000;
             }
@@ -294,7 +575,7 @@ jlab.epics2web.ClientConnection = function (options) {
 
     this.monitorPvsChunk = function (pvs) {
         var msg = {type: 'monitor', pvs: pvs};
-        socket.send(JSON.stringify(msg));
+        send(msg);
     };
 
     this.clearPvs = function (pvs) {
@@ -311,12 +592,26 @@ jlab.epics2web.ClientConnection = function (options) {
 
     this.clearPvsChunk = function (pvs) {
         var msg = {type: 'clear', pvs: pvs};
-        socket.send(JSON.stringify(msg));
+        send(msg);
+    };
+
+    /* One-time get over the socket; resolves with an array of {pv, value} or {pv, error} in request order */
+    this.get = function (pvs, enumLabel) {
+        return new Promise(function (resolve, reject) {
+            if (!isOpen()) {
+                reject(new Error('socket is not open'));
+                return;
+            }
+            var id = nextGetId++;
+            pendingGets[id] = {resolve: resolve, reject: reject, pvs: pvs, rejected: []};
+            var msg = {type: 'get', id: id, pvs: pvs, enumLabel: enumLabel !== false};
+            send(msg);
+        });
     };
 
     this.ping = function () {
         var msg = {type: 'ping'};
-        socket.send(JSON.stringify(msg));
+        send(msg);
     };
 
     if (this.autoDisplayClasses === true) {
@@ -341,7 +636,17 @@ jlab.epics2web.ClientConnection = function (options) {
         this.open();
     }
 
-    if (this.autoLivenessPingAndTimeout === true) {
+    document.addEventListener('visibilitychange', sendVisibility);
+
+    if (shared) {
+        /* Let the worker forget this tab's subscriptions as soon as the page goes away */
+        window.addEventListener('pagehide', detach);
+        window.addEventListener('pageshow', function (event) {
+            if (event.persisted && self.autoReconnect && port === null) { /* Restored from the back-forward cache */
+                self.open();
+            }
+        });
+    } else if (this.autoLivenessPingAndTimeout === true) {
         window.setInterval(doPingWithTimer, this.pingIntervalMillis);
     }
 };
@@ -353,8 +658,10 @@ jlab.epics2web.ClientConnection.prototype.onclosing = function () {};
 jlab.epics2web.ClientConnection.prototype.onmessage = function () {};
 jlab.epics2web.ClientConnection.prototype.onerror = function () {};
 jlab.epics2web.ClientConnection.prototype.onupdate = function () {};
+jlab.epics2web.ClientConnection.prototype.onupdates = function () {};
 jlab.epics2web.ClientConnection.prototype.oninfo = function () {};
 jlab.epics2web.ClientConnection.prototype.onpong = function () {};
+jlab.epics2web.ClientConnection.prototype.onrejected = function () {};
 
 jlab.epics2web.isNumericEpicsType = function (datatype) {
     var isNumeric;
@@ -17,6 +17,10 @@ jlab.epics2web.doGet = function () {
             form.append('<input type="text" name="n" value="Y"/>');
         }
 
+        if($("#stream").prop('checked')) {
+            form.append('<input type="text" name="stream" value="true"/>');
+        }
+
         form.appendTo('body').submit();
     }
 };
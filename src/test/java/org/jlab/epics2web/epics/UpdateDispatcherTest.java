@@ -0,0 +1,179 @@
+package org.jlab.epics2web.epics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import gov.aps.jca.dbr.DBR;
+import gov.aps.jca.dbr.DBRType;
+import gov.aps.jca.dbr.DBR_Double;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UpdateDispatcherTest {
+
+  private ScheduledExecutorService executor;
+  private UpdateDispatcher dispatcher;
+
+  @Before
+  public void setup() {
+    executor = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    if (dispatcher != null) {
+      dispatcher.close();
+    }
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void deliversEachPvsUpdatesInOrder() throws Exception {
+    dispatcher = new UpdateDispatcher(2, 1024, Executors.defaultThreadFactory(), null);
+    int pvCount = 4;
+    int updates = 200;
+    List<ManualPvSource> sources = new ArrayList<>();
+    List<RecordingListener> listeners = new ArrayList<>();
+
+    for (int p = 0; p < pvCount; p++) {
+      ManualPvSource source = new ManualPvSource();
+      RecordingListener listener = new RecordingListener(updates);
+      ChannelMonitor monitor =
+          new ChannelMonitor("pv" + p, source, executor, executor, dispatcher, null, null);
+      monitor.addListener(listener);
+      sources.add(source);
+      listeners.add(listener);
+    }
+
+    // One callback thread per PV, all publishing at once
+    List<Thread> threads = new ArrayList<>();
+    for (ManualPvSource source : sources) {
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < updates; i++) {
+                  source.update(i);
+                }
+              }));
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    List<Double> expected = new ArrayList<>();
+    for (int i = 0; i < updates; i++) {
+      expected.add((double) i);
+    }
+    for (RecordingListener listener : listeners) {
+      assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+      assertEquals(expected, listener.values);
+    }
+  }
+
+  @Test
+  public void overflowResyncsLatestValueAfterEarlierEvents() throws Exception {
+    dispatcher = new UpdateDispatcher(1, 4, Executors.defaultThreadFactory(), null);
+    ManualPvSource source = new ManualPvSource();
+    ChannelMonitor monitor =
+        new ChannelMonitor("pv", source, executor, executor, dispatcher, null, null);
+
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingListener listener =
+        new RecordingListener(6) {
+          @Override
+          public void notifyPvUpdate(String pv, DBR dbr, long receivedNanos) {
+            super.notifyPvUpdate(pv, dbr, receivedNanos);
+            if (values.size() == 1) { // Stall the dispatcher on the first update
+              blocked.countDown();
+              awaitQuietly(release);
+            }
+          }
+        };
+    monitor.addListener(listener);
+
+    source.update(0);
+    assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+    // 1 to 4 fill the ring; the rest overflow into a single resync
+    for (int i = 1; i < 20; i++) {
+      source.update(i);
+    }
+    assertEquals(5, dispatcher.getOccupancy()[0]); // A full ring plus the pending resync
+
+    release.countDown();
+
+    assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+    Thread.sleep(50); // Nothing more should arrive
+    assertEquals(List.of(0.0, 1.0, 2.0, 3.0, 4.0, 19.0), listener.values);
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** A source whose single channel connects right away and is updated by the test */
+  private static class ManualPvSource implements PvSource {
+    private volatile PvChannelHandler handler;
+
+    @Override
+    public String getName() {
+      return "manual";
+    }
+
+    @Override
+    public boolean accepts(String pv) {
+      return true;
+    }
+
+    @Override
+    public PvChannel createChannel(String pv, PvChannelHandler handler) {
+      this.handler = handler;
+      handler.connected(DBRType.DOUBLE, 1, null);
+      return () -> {};
+    }
+
+    @Override
+    public List<DBR> get(String[] pvs, boolean enumLabel) {
+      throw new UnsupportedOperationException();
+    }
+
+    void update(double value) {
+      handler.update(new DBR_Double(new double[] {value}), System.nanoTime());
+    }
+  }
+
+  private static class RecordingListener implements PvListener {
+    final List<Double> values = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch done;
+
+    RecordingListener(int expected) {
+      done = new CountDownLatch(expected);
+    }
+
+    @Override
+    public void notifyPvInfo(
+        String pv, boolean couldConnect, DBRType type, Integer count, String[] enumLabels) {}
+
+    @Override
+    public void notifyPvUpdate(String pv, DBR dbr, long receivedNanos) {
+      values.add(((DBR_Double) dbr).getDoubleValue()[0]);
+      done.countDown();
+    }
+  }
+}
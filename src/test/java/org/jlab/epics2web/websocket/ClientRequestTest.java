@@ -0,0 +1,115 @@
+package org.jlab.epics2web.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import jakarta.json.JsonException;
+import jakarta.json.JsonNumber;
+import jakarta.json.JsonString;
+import java.io.StringReader;
+import java.util.List;
+import org.junit.Test;
+
+public class ClientRequestTest {
+
+  private static ClientRequest parse(String json) {
+    return ClientRequest.parse(new StringReader(json));
+  }
+
+  @Test
+  public void parsesMonitor() {
+    ClientRequest request = parse("{\"type\":\"monitor\",\"pvs\":[\"b\",\"a\",\"b\"]}");
+
+    assertEquals("monitor", request.getType());
+    assertEquals(List.of("b", "a"), List.copyOf(request.getPvs())); // Request order, no repeats
+    assertNull(request.getId());
+    assertTrue(request.isEnumLabel());
+  }
+
+  @Test
+  public void parsesGetWithStringOrNumberId() {
+    ClientRequest request =
+        parse("{\"type\":\"get\",\"id\":\"req-1\",\"pvs\":[\"a\"],\"enumLabel\":false}");
+
+    assertEquals("get", request.getType());
+    assertEquals("req-1", ((JsonString) request.getId()).getString());
+    assertFalse(request.isEnumLabel());
+
+    request = parse("{\"id\":42,\"type\":\"get\",\"pvs\":[]}");
+
+    assertEquals(42, ((JsonNumber) request.getId()).intValue());
+    assertTrue(request.getPvs().isEmpty());
+  }
+
+  @Test
+  public void ignoresIdsThatAreNotStringsOrNumbers() {
+    assertNull(parse("{\"type\":\"get\",\"id\":true}").getId());
+    assertNull(parse("{\"type\":\"get\",\"id\":null}").getId());
+    assertNull(parse("{\"type\":\"get\",\"id\":[1]}").getId());
+    assertNull(parse("{\"type\":\"get\",\"id\":{\"a\":1},\"pvs\":[\"a\"]}").getId());
+  }
+
+  @Test
+  public void ignoresUnknownKeysAndNestedValues() {
+    ClientRequest request =
+        parse(
+            "{\"extra\":{\"pvs\":[\"x\"],\"type\":\"clear\",\"deeper\":{\"a\":[1,[2]]}},"
+                + "\"type\":\"monitor\",\"list\":[[\"y\"],{\"type\":\"z\"}],"
+                + "\"flag\":true,\"n\":1.5,\"nothing\":null,\"pvs\":[\"a\"]}");
+
+    assertEquals("monitor", request.getType());
+    assertEquals(List.of("a"), List.copyOf(request.getPvs()));
+  }
+
+  @Test
+  public void skipsPvsThatAreNotStrings() {
+    ClientRequest request =
+        parse("{\"type\":\"monitor\",\"pvs\":[1,\"a\",null,[\"b\"],{\"pv\":\"c\"},true,\"d\"]}");
+
+    assertEquals(List.of("a", "d"), List.copyOf(request.getPvs()));
+  }
+
+  @Test
+  public void toleratesWrongValueTypes() {
+    ClientRequest request = parse("{\"type\":1,\"pvs\":\"a\",\"enumLabel\":\"false\"}");
+
+    assertNull(request.getType());
+    assertTrue(request.getPvs().isEmpty());
+    assertTrue(request.isEnumLabel());
+  }
+
+  @Test
+  public void parsesEmptyObject() {
+    ClientRequest request = parse("{}");
+
+    assertNull(request.getType());
+    assertTrue(request.getPvs().isEmpty());
+  }
+
+  @Test(expected = JsonException.class)
+  public void rejectsArray() {
+    parse("[\"monitor\"]");
+  }
+
+  @Test(expected = JsonException.class)
+  public void rejectsString() {
+    parse("\"monitor\"");
+  }
+
+  @Test(expected = JsonException.class)
+  public void rejectsEmptyInput() {
+    parse("");
+  }
+
+  @Test(expected = JsonException.class)
+  public void rejectsTruncatedObject() {
+    parse("{\"type\":\"monitor\",\"pvs\":[\"a\"");
+  }
+
+  @Test(expected = JsonException.class)
+  public void rejectsInvalidToken() {
+    parse("{\"type\":monitor}");
+  }
+}
@@ -0,0 +1,182 @@
+package org.jlab.epics2web.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jlab.epics2web.websocket.SessionWriteQueue.Tier;
+import org.junit.Test;
+
+public class SessionWriteQueueTest {
+
+  private final WriteQueueBudget budget = new WriteQueueBudget(1_000_000);
+  private final AtomicInteger closes = new AtomicInteger();
+  private final SessionWriteQueue queue =
+      new SessionWriteQueue("test", budget, closes::incrementAndGet);
+
+  private static OutboundMessage update(String pv, String text) {
+    return new OutboundMessage(text, 0, pv);
+  }
+
+  private static OutboundMessage info(String text) {
+    return new OutboundMessage(text, 0);
+  }
+
+  /** Make the current write look like it started the given nanoseconds ago */
+  private void stallFor(long nanos) {
+    queue.sendStarted(info(""), System.nanoTime() - nanos);
+  }
+
+  /** Make the queue look like it has been drained for as long as recovery requires */
+  private void backdateDrained() throws Exception {
+    Field f = SessionWriteQueue.class.getDeclaredField("drainedSinceNanos");
+    f.setAccessible(true);
+    f.setLong(queue, System.nanoTime() - SessionWriteQueue.RECOVER_HOLD_NANOS);
+  }
+
+  @Test
+  public void deliversInOrderWhenNormal() {
+    assertTrue(queue.offer(update("a", "1")));
+    assertTrue(queue.offer(update("a", "2")));
+    assertTrue(queue.offer(info("i")));
+
+    assertEquals(Tier.NORMAL, queue.getTier());
+    assertEquals(3, queue.size());
+    assertEquals(budget.getUsedBytes(), queue.getQueuedBytes());
+
+    assertEquals("1", queue.poll().getText());
+    assertEquals("2", queue.poll().getText());
+    assertEquals("i", queue.poll().getText());
+    assertNull(queue.poll());
+    assertEquals(0, queue.getQueuedBytes());
+    assertEquals(0, budget.getUsedBytes());
+  }
+
+  @Test
+  public void backlogConflatesToLatestPerPv() {
+    int pvs = 10;
+    for (int i = 0; i < SessionWriteQueue.CONFLATE_DEPTH; i++) {
+      assertTrue(queue.offer(update("pv" + (i % pvs), "v" + i)));
+    }
+    assertEquals(Tier.NORMAL, queue.getTier());
+
+    // The next offer finds the queue backed up and collapses it to one update per PV
+    assertTrue(queue.offer(update("pv0", "latest")));
+
+    assertEquals(Tier.CONFLATED, queue.getTier());
+    assertEquals(pvs, queue.size());
+
+    long bytes = 0;
+    Map<String, String> latest = new HashMap<>();
+    for (int i = 0; i < pvs; i++) {
+      OutboundMessage msg = queue.poll();
+      bytes = bytes + msg.getSizeBytes();
+      assertNull("PV queued twice", latest.put(msg.getConflationKey(), msg.getText()));
+    }
+
+    assertEquals("latest", latest.get("pv0"));
+    assertEquals("v" + (SessionWriteQueue.CONFLATE_DEPTH - 1), latest.get("pv" + (pvs - 1)));
+    assertEquals(pvs * OutboundMessage.OVERHEAD_BYTES + 6 + (pvs - 1) * 4, bytes);
+    assertEquals(0, queue.getQueuedBytes());
+    assertEquals(0, budget.getUsedBytes());
+  }
+
+  @Test
+  public void conflationChargesOnlyTheSizeDifference() {
+    stallFor(SessionWriteQueue.CONFLATE_SEND_NANOS);
+    assertTrue(queue.offer(info("i")));
+    assertEquals(Tier.CONFLATED, queue.getTier());
+    queue.sendCompleted();
+
+    String big = "x".repeat(1000);
+    assertTrue(queue.offer(update("a", big)));
+    long withBig = queue.getQueuedBytes();
+
+    assertTrue(queue.offer(update("a", "y")));
+
+    assertEquals(2, queue.size());
+    assertEquals(withBig - big.length() + 1, queue.getQueuedBytes());
+    assertEquals(queue.getQueuedBytes(), budget.getUsedBytes());
+
+    assertEquals("i", queue.poll().getText());
+    assertEquals("y", queue.poll().getText());
+    assertEquals(0, budget.getUsedBytes());
+  }
+
+  @Test
+  public void stalledWriteEscalatesToItsTier() {
+    stallFor(SessionWriteQueue.THROTTLE_SEND_NANOS);
+    assertTrue(queue.offer(info("i")));
+
+    assertEquals(Tier.THROTTLED, queue.getTier());
+    assertEquals(0, closes.get());
+
+    stallFor(SessionWriteQueue.CLOSE_SEND_NANOS);
+    assertFalse(queue.offer(info("j")));
+
+    assertEquals(Tier.CLOSED, queue.getTier());
+    assertEquals(1, closes.get());
+    assertEquals(0, queue.size());
+    assertEquals(0, budget.getUsedBytes());
+
+    // Closed for good; the closer isn't run again
+    assertFalse(queue.offer(info("k")));
+    assertEquals(1, closes.get());
+    assertEquals(0, budget.getUsedBytes());
+  }
+
+  @Test
+  public void drainedQueueRecoversOneTierAtATime() throws Exception {
+    stallFor(SessionWriteQueue.THROTTLE_SEND_NANOS);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(queue.offer(info("m" + i)));
+    }
+    queue.sendCompleted();
+    assertEquals(Tier.THROTTLED, queue.getTier());
+
+    queue.poll(); // Starts the drained clock
+    assertEquals(Tier.THROTTLED, queue.getTier());
+    backdateDrained();
+    queue.poll();
+    assertEquals(Tier.CONFLATED, queue.getTier());
+
+    queue.poll(); // The drained clock starts over in the new tier
+    assertEquals(Tier.CONFLATED, queue.getTier());
+    backdateDrained();
+    queue.poll();
+    assertEquals(Tier.NORMAL, queue.getTier());
+
+    assertEquals(0, budget.getUsedBytes());
+  }
+
+  @Test
+  public void disposedQueueRefusesOffersAndReleasesBudget() {
+    assertTrue(queue.offer(info("i")));
+    assertTrue(budget.getUsedBytes() > 0);
+
+    queue.dispose();
+
+    assertEquals(0, queue.size());
+    assertEquals(0, budget.getUsedBytes());
+    assertFalse(queue.offer(info("late")));
+    assertEquals(0, budget.getUsedBytes());
+    assertEquals(1, queue.getDroppedCount());
+  }
+
+  @Test
+  public void messageBiggerThanBudgetIsDropped() {
+    WriteQueueBudget small = new WriteQueueBudget(100);
+    SessionWriteQueue q = new SessionWriteQueue("small", small, () -> {});
+
+    assertFalse(q.offer(info("x".repeat(100))));
+
+    assertEquals(0, q.size());
+    assertEquals(1, q.getDroppedCount());
+    assertEquals(0, small.getUsedBytes());
+  }
+}
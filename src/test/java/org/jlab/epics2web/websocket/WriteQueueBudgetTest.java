@@ -0,0 +1,85 @@
+package org.jlab.epics2web.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.jlab.epics2web.websocket.SessionWriteQueue.Tier;
+import org.junit.Test;
+
+public class WriteQueueBudgetTest {
+
+  /** Text length giving messages of exactly 100 bytes */
+  private static final String TEXT = "x".repeat(100 - OutboundMessage.OVERHEAD_BYTES);
+
+  private static SessionWriteQueue fill(WriteQueueBudget budget, int messages) {
+    SessionWriteQueue queue = new SessionWriteQueue("q" + messages, budget, () -> {});
+    for (int i = 0; i < messages; i++) {
+      assertTrue(queue.offer(new OutboundMessage(TEXT, 0)));
+    }
+    return queue;
+  }
+
+  @Test
+  public void reservesUpToTheLimit() {
+    WriteQueueBudget budget = new WriteQueueBudget(1000);
+
+    assertTrue(budget.reserve(600));
+    assertTrue(budget.reserve(400));
+    assertEquals(1000, budget.getUsedBytes());
+
+    // Nothing queued to reclaim from
+    assertFalse(budget.reserve(1));
+
+    budget.release(400);
+    assertEquals(600, budget.getUsedBytes());
+    assertTrue(budget.reserve(1));
+  }
+
+  @Test
+  public void reclaimsFromSlowestTierThenLargestQueue() {
+    WriteQueueBudget budget = new WriteQueueBudget(10_000);
+    SessionWriteQueue small = fill(budget, 20);
+    SessionWriteQueue large = fill(budget, 40);
+    SessionWriteQueue slow = fill(budget, 25);
+
+    // A stalled write makes a queue smaller than the largest the slowest one
+    long stalledSince = System.nanoTime() - SessionWriteQueue.CONFLATE_SEND_NANOS;
+    slow.sendStarted(new OutboundMessage("", 0), stalledSince);
+    assertTrue(slow.offer(new OutboundMessage(TEXT, 0)));
+    assertEquals(Tier.CONFLATED, slow.getTier());
+    assertEquals(8600, budget.getUsedBytes());
+
+    // Needs usage down to 10000 - 5000: all of the slow queue, then the largest queue
+    assertTrue(budget.reserve(5000));
+
+    assertEquals(0, slow.size());
+    assertEquals(40 - 10, large.size());
+    assertEquals(20, small.size());
+    assertEquals(5000 + 5000, budget.getUsedBytes());
+  }
+
+  @Test
+  public void reclaimsDownToTheLowWatermark() {
+    WriteQueueBudget budget = new WriteQueueBudget(10_000);
+    SessionWriteQueue queue = fill(budget, 100);
+
+    assertTrue(budget.reserve(100));
+
+    // Enough is reclaimed to reach the low watermark, not just to fit the reservation
+    long watermark = (long) (10_000 * WriteQueueBudget.LOW_WATERMARK);
+    assertEquals(watermark / 100, queue.size());
+    assertEquals(watermark + 100, budget.getUsedBytes());
+  }
+
+  @Test
+  public void unregisteredQueueIsNotReclaimedFrom() {
+    WriteQueueBudget budget = new WriteQueueBudget(1000);
+    SessionWriteQueue queue = fill(budget, 10);
+
+    budget.unregister(queue);
+
+    assertFalse(budget.reserve(100));
+    assertEquals(10, queue.size());
+  }
+}
@@ -0,0 +1,162 @@
+package org.jlab.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class IntHashSetTest {
+
+  /** Home slot of a value in a table of 8, using the same spreading as IntHashSet */
+  private static int homeSlot(int value) {
+    int h = value * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & 7;
+  }
+
+  private static List<Integer> valuesWithHome(int slot, int count) {
+    List<Integer> values = new ArrayList<>();
+    for (int v = 0; values.size() < count; v++) {
+      if (homeSlot(v) == slot) {
+        values.add(v);
+      }
+    }
+    return values;
+  }
+
+  @Test
+  public void removeShiftsBackAcrossWraparound() {
+    // Three values that all hash to the last slot, so the probe run wraps to slots 0 and 1
+    List<Integer> run = valuesWithHome(7, 3);
+    IntHashSet set = new IntHashSet();
+    for (int v : run) {
+      assertTrue(set.add(v));
+    }
+
+    assertTrue(set.remove(run.get(0)));
+
+    assertFalse(set.contains(run.get(0)));
+    assertTrue(set.contains(run.get(1)));
+    assertTrue(set.contains(run.get(2)));
+    assertEquals(2, set.size());
+
+    assertTrue(set.remove(run.get(1)));
+
+    assertTrue(set.contains(run.get(2)));
+    assertEquals(1, set.size());
+  }
+
+  @Test
+  public void removeKeepsEntriesAtTheirHomeSlot() {
+    // An entry at its own home slot after the gap must not be moved into the gap
+    List<Integer> run = valuesWithHome(7, 2);
+    int atZero = valuesWithHome(0, 1).get(0);
+    IntHashSet set = new IntHashSet();
+    set.add(run.get(0));
+    set.add(atZero);
+    set.add(run.get(1)); // Probes past slot 0 to slot 1
+
+    assertTrue(set.remove(run.get(0)));
+
+    assertTrue(set.contains(atZero));
+    assertTrue(set.contains(run.get(1)));
+  }
+
+  @Test
+  public void removeMatchesHashSetForEverySmallSubset() {
+    for (int a = 0; a < 16; a++) {
+      for (int b = a + 1; b < 16; b++) {
+        for (int c = b + 1; c < 16; c++) {
+          int[] values = {a, b, c};
+          for (int removed : values) {
+            IntHashSet set = new IntHashSet();
+            for (int v : values) {
+              set.add(v);
+            }
+            set.remove(removed);
+            for (int v : values) {
+              assertEquals(v != removed, set.contains(v));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void growsAndKeepsValuesOnRehash() {
+    IntHashSet set = new IntHashSet();
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(set.add(i * 31));
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertFalse(set.add(i * 31));
+    }
+
+    assertEquals(1000, set.size());
+    for (int i = 0; i < 31000; i++) {
+      assertEquals(i % 31 == 0, set.contains(i));
+    }
+  }
+
+  @Test
+  public void matchesHashSetUnderRandomAddAndRemove() {
+    Random random = new Random(42);
+    IntHashSet set = new IntHashSet();
+    Set<Integer> expected = new HashSet<>();
+
+    for (int i = 0; i < 100_000; i++) {
+      int v = random.nextInt(200);
+      if (random.nextBoolean()) {
+        assertEquals(expected.add(v), set.add(v));
+      } else {
+        assertEquals(expected.remove(v), set.remove(v));
+      }
+      assertEquals(expected.size(), set.size());
+    }
+
+    for (int v = 0; v < 200; v++) {
+      assertEquals(expected.contains(v), set.contains(v));
+    }
+  }
+
+  @Test
+  public void toArrayAndForEachReturnEveryValue() {
+    IntHashSet set = new IntHashSet(2);
+    for (int v : new int[] {5, 0, 9, 1000}) {
+      set.add(v);
+    }
+
+    int[] values = set.toArray();
+    Arrays.sort(values);
+    assertArrayEquals(new int[] {0, 5, 9, 1000}, values);
+
+    List<Integer> visited = new ArrayList<>();
+    set.forEach(visited::add);
+    visited.sort(null);
+    assertEquals(List.of(0, 5, 9, 1000), visited);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNegativeValues() {
+    new IntHashSet().add(-1);
+  }
+
+  @Test
+  public void negativeValuesAreNeverPresent() {
+    IntHashSet set = new IntHashSet();
+    set.add(0);
+
+    // -1 marks empty slots, so it must not be found
+    assertFalse(set.contains(-1));
+    assertFalse(set.remove(-1));
+    assertEquals(1, set.size());
+  }
+}
@@ -0,0 +1,186 @@
+package org.jlab.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class ListenerSetTest {
+
+  private static Set<String> contents(ListenerSet<String> set) {
+    Set<String> seen = new HashSet<>();
+    for (String listener : set) {
+      assertTrue("Listener seen twice: " + listener, seen.add(listener));
+    }
+    return seen;
+  }
+
+  @Test
+  public void addAndRemove() {
+    ListenerSet<String> set = new ListenerSet<>();
+
+    assertTrue(set.add("a"));
+    assertTrue(set.add("b"));
+    assertFalse(set.add("a"));
+    assertEquals(2, set.size());
+
+    assertTrue(set.remove("a"));
+    assertFalse(set.remove("a"));
+    assertEquals(1, set.size());
+    assertEquals(Set.of("b"), contents(set));
+
+    assertTrue(set.remove("b"));
+    assertTrue(set.isEmpty());
+    assertFalse(set.iterator().hasNext());
+  }
+
+  @Test
+  public void removedSlotsAreReused() {
+    ListenerSet<String> set = new ListenerSet<>();
+    for (int i = 0; i < 10; i++) {
+      set.add("l" + i);
+    }
+
+    set.remove("l3");
+    set.remove("l7");
+    set.add("x");
+    set.add("y");
+
+    assertEquals(10, set.slots().count());
+    assertEquals(10, set.size());
+  }
+
+  @Test
+  public void compactsWhenMostSlotsAreEmpty() {
+    ListenerSet<String> set = new ListenerSet<>();
+    for (int i = 0; i < 1000; i++) {
+      set.add("l" + i);
+    }
+    assertEquals(1000, set.slots().count());
+
+    Set<String> expected = new HashSet<>();
+    for (int i = 0; i < 1000; i++) {
+      if (i % 10 == 0) {
+        expected.add("l" + i);
+      } else {
+        set.remove("l" + i);
+      }
+    }
+
+    assertEquals(100, set.size());
+    assertTrue(set.slots().count() < 1000 / 3);
+    assertEquals(expected, contents(set));
+
+    // Listeners moved by compaction can still be removed and their slots reused
+    assertTrue(set.remove("l0"));
+    assertFalse(set.remove("l1"));
+    int count = set.slots().count();
+    assertTrue(set.add("new"));
+    assertEquals(count, set.slots().count());
+    expected.remove("l0");
+    expected.add("new");
+    assertEquals(expected, contents(set));
+  }
+
+  @Test
+  public void compactsToEmpty() {
+    ListenerSet<String> set = new ListenerSet<>();
+    for (int i = 0; i < 200; i++) {
+      set.add("l" + i);
+    }
+    for (int i = 0; i < 200; i++) {
+      set.remove("l" + i);
+    }
+
+    assertTrue(set.isEmpty());
+    assertFalse(set.iterator().hasNext());
+
+    set.add("a");
+    assertEquals(Set.of("a"), contents(set));
+  }
+
+  @Test
+  public void slotRangesCoverEveryListener() {
+    ListenerSet<String> set = new ListenerSet<>();
+    for (int i = 0; i < 150; i++) {
+      set.add("l" + i);
+    }
+    set.remove("l42");
+
+    ListenerSet.Slots<String> slots = set.slots();
+    List<String> seen = new ArrayList<>();
+    int half = slots.count() / 2;
+    slots.forEach(0, half, seen::add);
+    slots.forEach(half, slots.count(), seen::add);
+
+    assertEquals(149, seen.size());
+    assertEquals(contents(set), new HashSet<>(seen));
+  }
+
+  @Test
+  public void iterationSeesStableListenersDuringConcurrentAddAndRemove() throws Exception {
+    ListenerSet<String> set = new ListenerSet<>();
+    Set<String> stable = new HashSet<>();
+    for (int i = 0; i < 50; i++) {
+      stable.add("stable" + i);
+      set.add("stable" + i);
+    }
+
+    AtomicBoolean done = new AtomicBoolean(false);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> writers = new ArrayList<>();
+
+    // Churn enough listeners that the set keeps growing and compacting
+    for (int t = 0; t < 2; t++) {
+      String prefix = "churn" + t + "-";
+      writers.add(
+          new Thread(
+              () -> {
+                try {
+                  while (!done.get()) {
+                    for (int i = 0; i < 500; i++) {
+                      set.add(prefix + i);
+                    }
+                    for (int i = 0; i < 500; i++) {
+                      set.remove(prefix + i);
+                    }
+                  }
+                } catch (Throwable e) {
+                  failure.set(e);
+                }
+              }));
+    }
+
+    for (Thread writer : writers) {
+      writer.start();
+    }
+
+    try {
+      for (int pass = 0; pass < 2000; pass++) {
+        Set<String> seen = new HashSet<>();
+        for (String listener : set) {
+          assertNotNull(listener);
+          seen.add(listener);
+        }
+        assertTrue("Missing stable listener on pass " + pass, seen.containsAll(stable));
+      }
+    } finally {
+      done.set(true);
+      for (Thread writer : writers) {
+        writer.join();
+      }
+    }
+
+    assertNull(failure.get());
+    assertEquals(stable, contents(set));
+  }
+}
@@ -0,0 +1,165 @@
+package org.jlab.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.junit.Test;
+
+public class MpscRingTest {
+
+  @Test
+  public void capacityRoundsUpToPowerOfTwo() {
+    assertEquals(2, new MpscRing<String>(2).capacity());
+    assertEquals(8, new MpscRing<String>(5).capacity());
+    assertEquals(8, new MpscRing<String>(8).capacity());
+    assertEquals(16, new MpscRing<String>(9).capacity());
+  }
+
+  @Test
+  public void pollsInOfferOrder() {
+    MpscRing<Integer> ring = new MpscRing<>(8);
+
+    assertNull(ring.poll());
+    for (int i = 0; i < 5; i++) {
+      assertTrue(ring.offer(i));
+    }
+    assertEquals(5, ring.size());
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals(Integer.valueOf(i), ring.poll());
+    }
+    assertNull(ring.poll());
+    assertTrue(ring.isEmpty());
+  }
+
+  @Test
+  public void offerFailsWhenFull() {
+    MpscRing<Integer> ring = new MpscRing<>(4);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(ring.offer(i));
+    }
+
+    assertFalse(ring.offer(4));
+    assertEquals(4, ring.size());
+    assertEquals(4, ring.getTail());
+
+    assertEquals(Integer.valueOf(0), ring.poll());
+    assertTrue(ring.offer(4));
+    assertFalse(ring.offer(5));
+  }
+
+  @Test
+  public void wrapsAroundManyLaps() {
+    MpscRing<Integer> ring = new MpscRing<>(4);
+    int next = 0;
+
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(ring.offer(i));
+      if (i % 3 == 2) { // Fall behind, then catch up, so the ring is at various fill levels
+        while (!ring.isEmpty()) {
+          assertEquals(Integer.valueOf(next++), ring.poll());
+        }
+      }
+      if (ring.size() == ring.capacity()) {
+        assertEquals(Integer.valueOf(next++), ring.poll());
+      }
+    }
+    while (!ring.isEmpty()) {
+      assertEquals(Integer.valueOf(next++), ring.poll());
+    }
+
+    assertEquals(1000, next);
+    assertEquals(1000, ring.getHead());
+    assertEquals(1000, ring.getTail());
+  }
+
+  @Test
+  public void pollWaitsForClaimedButUnpublishedSlot() throws Exception {
+    MpscRing<String> ring = new MpscRing<>(4);
+
+    // A producer that claimed sequence 0 but hasn't written its element yet
+    AtomicLong tail = (AtomicLong) field("tail").get(ring);
+    assertTrue(tail.compareAndSet(0, 1));
+
+    assertTrue(ring.offer("second"));
+    assertEquals(2, ring.size());
+
+    // The later, published element must not be consumed ahead of the claimed slot
+    assertNull(ring.poll());
+    assertNull(ring.poll());
+    assertEquals(0, ring.getHead());
+
+    publish(ring, 0, "first");
+
+    assertEquals("first", ring.poll());
+    assertEquals("second", ring.poll());
+    assertNull(ring.poll());
+  }
+
+  @Test
+  public void concurrentProducersLoseNothing() throws Exception {
+    MpscRing<Long> ring = new MpscRing<>(64);
+    int producers = 4;
+    int perProducer = 50_000;
+    List<Thread> threads = new ArrayList<>();
+
+    for (int p = 0; p < producers; p++) {
+      long base = (long) p << 32;
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < perProducer; i++) {
+                  while (!ring.offer(base + i)) {
+                    Thread.onSpinWait();
+                  }
+                }
+              }));
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+
+    long[] next = new long[producers];
+    int received = 0;
+
+    while (received < producers * perProducer) {
+      Long value = ring.poll();
+      if (value == null) {
+        Thread.onSpinWait();
+        continue;
+      }
+      int producer = (int) (value >>> 32);
+      assertEquals("Producer " + producer + " out of order", next[producer], value & 0xFFFFFFFFL);
+      next[producer]++;
+      received++;
+    }
+
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertTrue(ring.isEmpty());
+  }
+
+  private static Field field(String name) throws NoSuchFieldException {
+    Field f = MpscRing.class.getDeclaredField(name);
+    f.setAccessible(true);
+    return f;
+  }
+
+  /** Finish the write of a producer that claimed the given sequence */
+  @SuppressWarnings("unchecked")
+  private static void publish(MpscRing<String> ring, long sequence, String element)
+      throws Exception {
+    int i = (int) (sequence & (ring.capacity() - 1));
+    ((AtomicReferenceArray<String>) field("buffer").get(ring)).set(i, element);
+    ((AtomicLongArray) field("sequences").get(ring)).set(i, sequence + 1);
+  }
+}
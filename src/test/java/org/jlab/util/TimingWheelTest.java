@@ -0,0 +1,80 @@
+package org.jlab.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+  /** Long enough that the time between creating a wheel and reading the clock is under a tick */
+  private static final long TICK = 1_000_000_000L;
+
+  private final TimingWheel<String> wheel = new TimingWheel<>(TICK, 8);
+  private final long base = System.nanoTime();
+
+  private long at(long ticks) {
+    return base + ticks * TICK;
+  }
+
+  private static List<String> sorted(List<String> items) {
+    List<String> copy = new ArrayList<>(items);
+    copy.sort(null);
+    return copy;
+  }
+
+  @Test
+  public void returnsItemsOnceDue() {
+    wheel.schedule("a", at(2));
+    wheel.schedule("b", at(3));
+
+    assertTrue(wheel.advance(at(1)).isEmpty());
+    assertEquals(List.of("a"), wheel.advance(at(2)));
+    assertEquals(List.of("b"), wheel.advance(at(3)));
+    assertTrue(wheel.advance(at(4)).isEmpty());
+  }
+
+  @Test
+  public void pastDeadlineIsDueOnNextAdvance() {
+    wheel.advance(at(5));
+    wheel.schedule("late", at(1));
+
+    assertEquals(List.of("late"), wheel.advance(at(6)));
+  }
+
+  @Test
+  public void keepsItemsDueOnALaterTurn() {
+    // Ticks 1 and 9 share a slot of the 8 slot wheel
+    wheel.schedule("now", at(1));
+    wheel.schedule("next turn", at(9));
+
+    assertEquals(List.of("now"), wheel.advance(at(1)));
+    assertTrue(wheel.advance(at(8)).isEmpty());
+    assertEquals(List.of("next turn"), wheel.advance(at(9)));
+  }
+
+  @Test
+  public void advanceMoreThanATurnBehindVisitsEverySlot() {
+    wheel.schedule("a", at(3));
+    wheel.schedule("b", at(10));
+    wheel.schedule("c", at(20));
+    wheel.schedule("d", at(25));
+    wheel.schedule("e", at(30));
+
+    // Three turns in one advance; everything due by then comes back exactly once
+    assertEquals(List.of("a", "b", "c", "d"), sorted(wheel.advance(at(25))));
+    assertTrue(wheel.advance(at(29)).isEmpty());
+    assertEquals(List.of("e"), wheel.advance(at(30)));
+  }
+
+  @Test
+  public void advancingBackwardsReturnsNothingEarly() {
+    wheel.schedule("a", at(5));
+    wheel.advance(at(4));
+
+    assertTrue(wheel.advance(at(2)).isEmpty());
+    assertEquals(List.of("a"), wheel.advance(at(5)));
+  }
+}
@@ -0,0 +1,72 @@
+package org.jlab.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+  private static final long SECOND = 1_000_000_000L;
+
+  @Test
+  public void startsFull() {
+    TokenBucket bucket = new TokenBucket(1000, 100);
+    long now = System.nanoTime();
+
+    assertEquals(0, bucket.nanosUntilAvailable(now));
+    assertEquals(100, bucket.consumeAvailable(500, now));
+    assertEquals(0, bucket.consumeAvailable(1, now));
+  }
+
+  @Test
+  public void consumeGoesIntoDebtThatMustBeRepaid() {
+    TokenBucket bucket = new TokenBucket(1000, 100);
+    long now = System.nanoTime();
+
+    // A request bigger than the burst is allowed, leaving the bucket 200 tokens in debt
+    bucket.consume(300, now);
+
+    // Wait for the debt plus one token at 1000 per second
+    assertEquals(201_000_000, bucket.nanosUntilAvailable(now), 1000);
+    assertEquals(0, bucket.consumeAvailable(10, now + SECOND / 10));
+    assertEquals(0, bucket.nanosUntilAvailable(now + SECOND / 4));
+    assertEquals(50, bucket.consumeAvailable(100, now + SECOND / 4));
+  }
+
+  @Test
+  public void consumeAvailableNeverGoesIntoDebt() {
+    TokenBucket bucket = new TokenBucket(1000, 100);
+    long now = System.nanoTime();
+
+    assertEquals(60, bucket.consumeAvailable(60, now));
+    assertEquals(40, bucket.consumeAvailable(60, now));
+    assertEquals(0, bucket.consumeAvailable(60, now));
+
+    // Only whole tokens are granted
+    assertEquals(0, bucket.consumeAvailable(1, now + SECOND / 2000));
+    assertEquals(1, bucket.consumeAvailable(5, now + SECOND / 1000));
+  }
+
+  @Test
+  public void refillStopsAtBurst() {
+    TokenBucket bucket = new TokenBucket(1000, 100);
+    long now = System.nanoTime();
+
+    bucket.consumeAvailable(100, now);
+
+    assertEquals(100, bucket.consumeAvailable(1000, now + 60 * SECOND));
+  }
+
+  @Test
+  public void setRateKeepsTokensAndChangesRefill() {
+    TokenBucket bucket = new TokenBucket(1, 100);
+    long now = System.nanoTime();
+
+    bucket.consume(101, now);
+    bucket.setRate(1000);
+    long changed = System.nanoTime();
+
+    // Still one token in debt, but repaid at the new rate: 2 tokens in 2 ms rather than 2 s
+    assertEquals(2_000_000, bucket.nanosUntilAvailable(changed), 500_000);
+  }
+}